@@ -0,0 +1,56 @@
+package com.hawkw.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.HeapMemory;
+import com.hawkw.ForthEngine.Word;
+
+/**
+ * AddressingBenchmark.java
+ * The String-based addressing the reference interpreter still does on
+ * every step: ForthEngine.parseHex() on an address string, and
+ * Word.getHexValue() on an instruction word.
+ *
+ * @author hawk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressingBenchmark {
+
+	private ForthEngine engine;
+	private String address;
+	private Word word;
+
+	@Setup
+	public void setUp() {
+		engine = new ForthEngine(new HeapMemory(16 * 1024));
+		address = "0x1023";
+		word = Word.wordBuilder(0x05, 0x1023); // FETCH 1023
+	}
+
+	@Benchmark
+	public Object parseHex() {
+		return engine.parseHex(address);
+	}
+
+	@Benchmark
+	public String getHexValue() {
+		return word.getHexValue();
+	}
+}
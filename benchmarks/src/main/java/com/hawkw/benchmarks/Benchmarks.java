@@ -0,0 +1,41 @@
+package com.hawkw.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks.java
+ * The entry point of benchmarks.jar. It takes the same options as JMH's own
+ * main class, but always adds the GC profiler (-prof gc), so every result
+ * comes with its allocation rate and bytes per operation next to its
+ * throughput.
+ *
+ * <pre>
+ * mvn -B package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp]
+ * </pre>
+ *
+ * @author hawk
+ */
+public final class Benchmarks {
+
+	private Benchmarks() {
+	}
+
+	public static void main(String[] argv) throws RunnerException,
+			CommandLineOptionException, IOException {
+		CommandLineOptions options = new CommandLineOptions(argv);
+		if (options.shouldHelp()) {
+			options.showHelp();
+			return;
+		}
+		new Runner(new OptionsBuilder().parent(options)
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,93 @@
+package com.hawkw.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.Opcodes;
+
+/**
+ * DispatchBenchmark.java
+ * The cost of dispatching each opcode. Every opcode is measured in a short
+ * sequence that leaves the stacks as it found them ("DUP ADD" for ADD), and
+ * the sequence is repeated to fill a straight line of CELLS cells ending in
+ * EXIT, so a run is almost all dispatch. Results are per cell executed,
+ * whether the sequence is one cell or two.
+ *
+ * @author hawk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+	// a multiple of every sequence's length
+	private static final int CELLS = 128;
+	// the data cell FETCH and STORE use; source address 0900 is flat 900
+	private static final int SLOT = 900;
+	private static final int SLOT_SOURCE = 0x0900;
+
+	@Param({ "NOP", "DUP DROP", "SWAP", "OVER DROP", "DUP ADD", "DUP SUB",
+			"DUP AND", "DUP OR", "DUP XOR", "RSTORE RFETCH", "FETCH STORE" })
+	public String sequence;
+
+	@Param({ "REFERENCE", "DECODED", "THREADED", "COMPILED" })
+	public ExecutionMode mode;
+
+	private ForthEngine engine;
+
+	@Setup
+	public void setUp() throws Exception {
+		engine = new ForthEngine(new EngineContext(new PrintStream(
+				OutputStream.nullOutputStream())));
+		// leave two numbers on the DataStack for the sequences to work on
+		engine.write(0, Cell.instruction(Opcodes.CIN, 0, 0));
+		engine.write(1, Cell.instruction(Opcodes.CIN, 0, 0));
+		engine.write(2, Cell.instruction(Opcodes.EXIT, 0, 0));
+		engine.feed("3 4");
+		engine.run();
+
+		String[] words = sequence.split(" ");
+		int address = 0;
+		for (int r = 0; r < CELLS / words.length; r++)
+			for (String word : words) {
+				int opcode = ForthParser.getOpcode(word);
+				engine.write(address++,
+						opcode == Opcodes.FETCH || opcode == Opcodes.STORE ? Cell
+								.instruction(opcode, SLOT_SOURCE, SLOT) : Cell
+								.instruction(opcode, 0, 0));
+			}
+		engine.write(address, Cell.instruction(Opcodes.EXIT, 0, 0));
+		engine.write(SLOT, Cell.number(7));
+		engine.setExecutionMode(mode);
+		engine.setCompileThreshold(0);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CELLS)
+	public long run() {
+		engine.run();
+		return engine.getInstructionCount();
+	}
+}
@@ -0,0 +1,86 @@
+package com.hawkw.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.Opcodes;
+
+/**
+ * JitBenchmark.java
+ * The DECODED, THREADED and COMPILED modes on an arithmetic loop: a block of
+ * GROUPS groups of FETCH / ADD / XOR / DUP / STORE cells ending in EXIT, run
+ * over and over. Results are per cell executed, the EXIT included.
+ *
+ * @author hawk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JitBenchmark {
+
+	private static final int GROUPS = 40;
+	private static final int GROUP_CELLS = 8;
+	private static final int CELLS = GROUPS * GROUP_CELLS + 1;
+	// the data cells the loop works on
+	private static final int A = 900, B = 901, C = 902;
+
+	@Param({ "DECODED", "THREADED", "COMPILED" })
+	public ExecutionMode mode;
+
+	private ForthEngine engine;
+
+	@Setup
+	public void setUp() throws Exception {
+		engine = new ForthEngine(new EngineContext(new PrintStream(
+				OutputStream.nullOutputStream())));
+		int address = 0;
+		for (int g = 0; g < GROUPS; g++) {
+			engine.write(address++, op(Opcodes.FETCH, A));
+			engine.write(address++, op(Opcodes.FETCH, B));
+			engine.write(address++, op(Opcodes.ADD, 0));
+			engine.write(address++, op(Opcodes.FETCH, C));
+			engine.write(address++, op(Opcodes.XOR, 0));
+			engine.write(address++, op(Opcodes.DUP, 0));
+			engine.write(address++, op(Opcodes.STORE, C));
+			engine.write(address++, op(Opcodes.STORE, A));
+		}
+		engine.write(address, op(Opcodes.EXIT, 0));
+		engine.write(A, Cell.number(1));
+		engine.write(B, Cell.number(3));
+		engine.write(C, Cell.number(5));
+		engine.setExecutionMode(mode);
+		engine.setCompileThreshold(0);
+	}
+
+	private static long op(int opcode, int address) {
+		return Cell.instruction(opcode, 0, address);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CELLS)
+	public long loop() {
+		engine.run();
+		return engine.read(A);
+	}
+}
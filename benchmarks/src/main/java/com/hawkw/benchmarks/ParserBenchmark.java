@@ -0,0 +1,101 @@
+package com.hawkw.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.HeapMemory;
+
+/**
+ * ParserBenchmark.java
+ * Loading FORTH source into an engine with ForthParser.load(): the small
+ * addthree.forth sample, and a generated source of LINES lines with
+ * comments, strings and colon definitions. Each load gets a fresh engine,
+ * made outside the measurement.
+ *
+ * @author hawk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	private static final String ADD_THREE = "( A simple program to demonstrate that the ForthEngine works, by adding two numbers. )\n"
+			+ "( Now featuring strings and prompting!)\n\n"
+			+ "S\" Please enter the first number \" 0111\n"
+			+ "S\" Please enter the second number \" 0112\n"
+			+ "S\" The result is: \" 0113\n\n"
+			+ "FETCH 0111 COUT CIN \n"
+			+ "FETCH 0112 COUT CIN \n"
+			+ "ADD STORE 0100 ( store the value at 0x0100 )\n"
+			+ "FETCH 0113 COUT\n"
+			+ "FETCH 0100 COUT  ( fetch and print the value from 0x0100 ) \n"
+			+ "EXIT\n";
+	private static final int LINES = 2000;
+
+	@Param({ "addthree", "generated" })
+	public String source;
+
+	private String text;
+	private ForthEngine engine;
+
+	@Setup
+	public void generate() {
+		if (source.equals("addthree")) {
+			text = ADD_THREE;
+			return;
+		}
+		StringBuilder generated = new StringBuilder();
+		for (int i = 0; i < LINES; i++) {
+			switch (i % 4) {
+			case 0:
+				generated.append(": w").append(i).append(" DUP ADD ;\n");
+				break;
+			case 1:
+				generated.append("w").append(i - 1)
+						.append(" FETCH 0900 ( a comment ) STORE 0901\n");
+				break;
+			case 2:
+				generated.append("S\" line ").append(i).append(" \" 0902\n");
+				break;
+			default:
+				generated.append("FETCH 0902 COUT DUP SWAP DROP\n");
+			}
+		}
+		text = generated.append("EXIT\n").toString();
+	}
+
+	// allocating 16K cells of RAM would swamp what -prof gc says the parser
+	// allocates, so the engine is made per invocation, outside the timing
+	@Setup(Level.Invocation)
+	public void newEngine() {
+		engine = new ForthEngine(new EngineContext(new PrintStream(
+				OutputStream.nullOutputStream())), new HeapMemory(16 * 1024));
+	}
+
+	@Benchmark
+	public ForthEngine load() throws Exception {
+		ForthParser.load(engine, new StringReader(text));
+		return engine;
+	}
+}
@@ -0,0 +1,70 @@
+package com.hawkw.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hawkw.Queue.ArrayQueue;
+import com.hawkw.Queue.NodeQueue;
+import com.hawkw.Queue.Queue;
+
+/**
+ * QueueBenchmark.java
+ * Enqueue then dequeue on ArrayQueue and NodeQueue, the structures the
+ * parser used to hold tokens in, with the queue kept at a steady length.
+ *
+ * @author hawk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+
+	private static final String TOKEN = "ADD";
+
+	// how many tokens are already queued
+	@Param({ "0", "64" })
+	public int length;
+
+	private ArrayQueue<String> arrayQueue;
+	private NodeQueue<String> nodeQueue;
+
+	@Setup
+	public void setUp() throws Exception {
+		// an ArrayQueue holds one fewer than its capacity
+		arrayQueue = new ArrayQueue<String>(length + 2);
+		nodeQueue = new NodeQueue<String>();
+		for (int i = 0; i < length; i++) {
+			arrayQueue.enqueue(TOKEN);
+			nodeQueue.enqueue(TOKEN);
+		}
+	}
+
+	private static String cycle(Queue<String> queue) throws Exception {
+		queue.enqueue(TOKEN);
+		return queue.dequeue();
+	}
+
+	@Benchmark
+	public String arrayQueue() throws Exception {
+		return cycle(arrayQueue);
+	}
+
+	@Benchmark
+	public String nodeQueue() throws Exception {
+		return cycle(nodeQueue);
+	}
+}
@@ -0,0 +1,85 @@
+package com.hawkw.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hawkw.Stack.ArrayStack;
+import com.hawkw.Stack.LongStack;
+import com.hawkw.Stack.NodeStack;
+import com.hawkw.Stack.Stack;
+
+/**
+ * StackBenchmark.java
+ * Push, swap and pop on ArrayStack and NodeStack, with LongStack, which the
+ * engine uses, for comparison. The boxed stacks are given the same cached
+ * Integers every time, so that what -prof gc reports is the stack's own
+ * allocation (NodeStack's nodes), not boxing.
+ *
+ * @author hawk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackBenchmark {
+
+	private static final Integer A = 3, B = 4;
+
+	// how many cells are already on the stack
+	@Param({ "0", "64" })
+	public int depth;
+
+	private ArrayStack<Integer> arrayStack;
+	private NodeStack<Integer> nodeStack;
+	private LongStack longStack;
+
+	@Setup
+	public void setUp() throws Exception {
+		arrayStack = new ArrayStack<Integer>();
+		nodeStack = new NodeStack<Integer>();
+		longStack = new LongStack();
+		for (int i = 0; i < depth; i++) {
+			arrayStack.push(A);
+			nodeStack.push(A);
+			longStack.push(i);
+		}
+	}
+
+	private static int pushSwapPop(Stack<Integer> stack) throws Exception {
+		stack.push(A);
+		stack.push(B);
+		stack.swap();
+		return stack.pop() - stack.pop();
+	}
+
+	@Benchmark
+	public int arrayStack() throws Exception {
+		return pushSwapPop(arrayStack);
+	}
+
+	@Benchmark
+	public int nodeStack() throws Exception {
+		return pushSwapPop(nodeStack);
+	}
+
+	@Benchmark
+	public long longStack() {
+		longStack.push(3);
+		longStack.push(4);
+		longStack.swap();
+		return longStack.pop() - longStack.pop();
+	}
+}
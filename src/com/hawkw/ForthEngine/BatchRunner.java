@@ -0,0 +1,432 @@
+package com.hawkw.ForthEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BatchRunner.java
+ * Runs a whole directory (or glob) of FORTH programs in one JVM, spread over
+ * every core by a fork-join pool, so that the programs share one JVM
+ * startup, one warmed-up HotSpot and one cache of compiled blocks.
+ *
+ * Each program runs on its own engine. Its CIN reads the file next to it
+ * with the same name and the extension ".in", if there is one, and its
+ * output is captured. Program images are loaded directly; with a cache
+ * directory, each source program is also saved there as an image the first
+ * time it is compiled and loaded from the image while the image is newer
+ * than the source.
+ *
+ * The result is printed as JSON lines: one object per program, in the order
+ * the files are named, then one summary object. A program that died also
+ * has the exception that killed it, apart from what it printed.
+ *
+ * <pre>
+ * {"file":"a.forth","status":"ok","nanos":81223,"instructions":7,"output":" >  > 7"}
+ * {"file":"b.forth","status":"died","nanos":40318,"instructions":0,"output":"","failure":"java.util.EmptyStackException"}
+ * {"files":1,"ok":1,"died":0,"rejected":0,"errors":0,"nanos":1204551,"instructions":7}
+ * </pre>
+ *
+ * @author hawk
+ */
+public final class BatchRunner {
+
+	/**
+	 * Extension of the file holding a program's input
+	 */
+	public static final String INPUT_EXTENSION = ".in";
+	/**
+	 * Extension of the images written to a cache directory
+	 */
+	public static final String IMAGE_EXTENSION = ".img";
+
+	private final ExecutionMode mode;
+	private final boolean fuse;
+	private final boolean verify;
+	private final Path cache;
+
+	/**
+	 * What happened to one program
+	 */
+	public static final class Outcome {
+		/**
+		 * The program ran to its EXIT
+		 */
+		public static final String OK = "ok";
+		/**
+		 * The program threw while running
+		 */
+		public static final String DIED = "died";
+		/**
+		 * The program failed verification and was not run
+		 */
+		public static final String REJECTED = "rejected";
+		/**
+		 * The program could not be read or compiled
+		 */
+		public static final String ERROR = "error";
+
+		private final Path file;
+		private final String status;
+		private final long nanos;
+		private final long instructions;
+		private final String output;
+		private final String failure;
+
+		private Outcome(Path file, String status, long nanos,
+				long instructions, String output) {
+			this(file, status, nanos, instructions, output, null);
+		}
+
+		private Outcome(Path file, String status, long nanos,
+				long instructions, String output, String failure) {
+			this.file = file;
+			this.status = status;
+			this.nanos = nanos;
+			this.instructions = instructions;
+			this.output = output;
+			this.failure = failure;
+		}
+
+		public Path getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns OK, DIED, REJECTED or ERROR
+		 */
+		public String getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the wall time spent compiling and running the program
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Returns the number of instructions the program executed
+		 */
+		public long getInstructions() {
+			return instructions;
+		}
+
+		/**
+		 * Returns what the program printed, or why it could not run
+		 */
+		public String getOutput() {
+			return output;
+		}
+
+		/**
+		 * Returns the exception that killed a program that DIED, or null
+		 */
+		public String getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Returns this outcome as a JSON object on one line
+		 */
+		public String toJSON() {
+			return "{\"file\":" + quote(file.toString()) + ",\"status\":"
+					+ quote(status) + ",\"nanos\":" + nanos
+					+ ",\"instructions\":" + instructions + ",\"output\":"
+					+ quote(output)
+					+ (failure == null ? "" : ",\"failure\":" + quote(failure))
+					+ "}";
+		}
+	}
+
+	/**
+	 * Creates a runner
+	 *
+	 * @param mode
+	 *            the ExecutionMode every program runs in
+	 * @param fuse
+	 *            true to fuse superinstructions before running
+	 * @param verify
+	 *            true to verify every program, and reject the ones that fail
+	 * @param cache
+	 *            the directory compiled images are kept in, or null for none
+	 */
+	public BatchRunner(ExecutionMode mode, boolean fuse, boolean verify,
+			Path cache) {
+		this.mode = mode;
+		this.fuse = fuse;
+		this.verify = verify;
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the programs a batch argument names: every .forth file and
+	 * program image in a directory, or every file matching a glob such as
+	 * "tests/*.forth", sorted by name
+	 *
+	 * @throws IOException
+	 *             if the directory cannot be listed
+	 */
+	public static List<Path> find(String target) throws IOException {
+		Path path = Paths.get(target);
+		List<Path> files = new ArrayList<Path>();
+		if (Files.isDirectory(path)) {
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+				for (Path entry : entries)
+					if (Files.isRegularFile(entry)
+							&& (entry.toString().endsWith(".forth") || ProgramImage
+									.isImage(entry)))
+						files.add(entry);
+			}
+		} else {
+			Path directory = path.getParent() == null ? Paths.get(".") : path
+					.getParent();
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+					"glob:" + path.getFileName());
+			try (DirectoryStream<Path> entries = Files
+					.newDirectoryStream(directory)) {
+				for (Path entry : entries)
+					if (Files.isRegularFile(entry)
+							&& matcher.matches(entry.getFileName()))
+						files.add(entry);
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Compiles and runs every program on a fork-join pool as wide as the
+	 * machine
+	 *
+	 * @return the outcome of each program, in the order given
+	 */
+	public List<Outcome> run(List<Path> files) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return pool.invoke(new Batch(files, 0, files.size()));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Splits a range of programs in half until each task has one
+	 */
+	private final class Batch extends RecursiveTask<List<Outcome>> {
+		private static final long serialVersionUID = 1L;
+		private final List<Path> files;
+		private final int from, to;
+
+		Batch(List<Path> files, int from, int to) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Outcome> compute() {
+			if (to - from <= 1) {
+				List<Outcome> outcomes = new ArrayList<Outcome>(1);
+				if (to > from)
+					outcomes.add(runOne(files.get(from)));
+				return outcomes;
+			}
+			int middle = (from + to) >>> 1;
+			Batch left = new Batch(files, from, middle);
+			left.fork();
+			List<Outcome> outcomes = new Batch(files, middle, to).compute();
+			outcomes.addAll(0, left.join());
+			return outcomes;
+		}
+	}
+
+	/**
+	 * Compiles and runs one program
+	 */
+	Outcome runOne(Path file) {
+		long start = System.nanoTime();
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		ForthEngine engine;
+		try {
+			engine = new ForthEngine(new EngineContext(
+					new ByteArrayInputStream(input(file)), new PrintStream(
+							captured, true)));
+			compile(file, engine);
+		} catch (Exception e) {
+			return new Outcome(file, Outcome.ERROR, System.nanoTime() - start,
+					0, String.valueOf(e));
+		}
+		if (fuse)
+			Superinstructions.fuse(engine);
+		if (verify) {
+			try {
+				engine.verify();
+			} catch (UnverifiableProgramException e) {
+				return new Outcome(file, Outcome.REJECTED, System.nanoTime()
+						- start, 0, e.getMessage());
+			}
+		}
+		engine.setExecutionMode(mode);
+		String status = Outcome.OK;
+		String failure = null;
+		try {
+			engine.run();
+		} catch (RuntimeException e) {
+			status = Outcome.DIED;
+			failure = String.valueOf(e);
+		}
+		return new Outcome(file, status, System.nanoTime() - start,
+				engine.getInstructionCount(), captured.toString(), failure);
+	}
+
+	private static byte[] input(Path file) throws IOException {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		Path input = file.resolveSibling((dot < 0 ? name : name.substring(0,
+				dot)) + INPUT_EXTENSION);
+		return Files.isRegularFile(input) ? Files.readAllBytes(input)
+				: new byte[0];
+	}
+
+	/**
+	 * Loads a program into an engine, from an image if it is one or the
+	 * cache holds an up-to-date one
+	 */
+	private void compile(Path file, ForthEngine engine) throws Exception {
+		if (ProgramImage.isImage(file)) {
+			ProgramImage.load(file, engine);
+			return;
+		}
+		Path image = cache == null ? null : cache.resolve(file.getFileName()
+				+ IMAGE_EXTENSION);
+		if (image != null
+				&& Files.isRegularFile(image)
+				&& Files.getLastModifiedTime(image).compareTo(
+						Files.getLastModifiedTime(file)) > 0) {
+			ProgramImage.load(image, engine);
+			return;
+		}
+		try (Reader source = new FileReader(file.toFile())) {
+			ForthParser.load(engine, source);
+		}
+		if (image != null) {
+			// write to a temporary file first, so that a program running at
+			// the same time never reads half an image
+			Files.createDirectories(cache);
+			Path partial = Files.createTempFile(cache, "partial", null);
+			ProgramImage.write(engine, partial);
+			Files.move(partial, image, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Returns the summary line for a batch
+	 */
+	public static String summary(List<Outcome> outcomes, long nanos) {
+		int ok = 0, died = 0, rejected = 0, errors = 0;
+		long instructions = 0;
+		for (Outcome outcome : outcomes) {
+			instructions += outcome.instructions;
+			if (outcome.status.equals(Outcome.OK))
+				ok++;
+			else if (outcome.status.equals(Outcome.DIED))
+				died++;
+			else if (outcome.status.equals(Outcome.REJECTED))
+				rejected++;
+			else
+				errors++;
+		}
+		return "{\"files\":" + outcomes.size() + ",\"ok\":" + ok
+				+ ",\"died\":" + died + ",\"rejected\":" + rejected
+				+ ",\"errors\":" + errors + ",\"nanos\":" + nanos
+				+ ",\"instructions\":" + instructions + "}";
+	}
+
+	private static String quote(String s) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				quoted.append("\\\"");
+				break;
+			case '\\':
+				quoted.append("\\\\");
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				quoted.append("\\r");
+				break;
+			case '\t':
+				quoted.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					quoted.append(String.format("\\u%04x", (int) c));
+				else
+					quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Runs a batch from the command line:
+	 * {@code BatchRunner [--reference|--threaded|--jit] [--fuse] [--verify]
+	 * [--cache=<dir>] <directory or glob>}
+	 */
+	public static void main(String[] argv) throws IOException {
+		ExecutionMode mode = ExecutionMode.DECODED;
+		boolean fuse = false, verify = false;
+		Path cache = null;
+		String target = null;
+		for (String s : argv) {
+			if (s.equals("--reference"))
+				mode = ExecutionMode.REFERENCE;
+			else if (s.equals("--threaded"))
+				mode = ExecutionMode.THREADED;
+			else if (s.equals("--jit"))
+				mode = ExecutionMode.COMPILED;
+			else if (s.equals("--fuse"))
+				fuse = true;
+			else if (s.equals("--verify"))
+				verify = true;
+			else if (s.startsWith("--cache="))
+				cache = Paths.get(s.substring(8));
+			else if (s.startsWith("--batch="))
+				target = s.substring(8);
+			else
+				target = s;
+		}
+		if (target == null) {
+			System.err.println("Please enter a directory or glob of programs to run.");
+			return;
+		}
+		long start = System.nanoTime();
+		List<Outcome> outcomes = new BatchRunner(mode, fuse, verify, cache)
+				.run(find(target));
+		for (Outcome outcome : outcomes)
+			System.out.println(outcome.toJSON());
+		System.out.println(summary(outcomes, System.nanoTime() - start));
+	}
+}
@@ -0,0 +1,544 @@
+package com.hawkw.ForthEngine;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BlockCompiler.java
+ * The COMPILED execution mode's JIT. It turns a straight-line run of cells (a
+ * block) into the exec() method of a hidden class implementing
+ * ThreadedCode.Instruction, so that a hot block runs as one call of plain JVM
+ * bytecode instead of one handler per cell.
+ *
+ * Inside a block the depth of the data stack is known at every step, so
+ * values pushed by the block are kept in JVM locals (numbers as raw ints) and
+ * only reach the LongStack if they are still live when the block ends. Values
+ * the block did not push are popped from the real stack as usual, without
+ * underflow checks if the engine's program has been verified.
+ *
+ * A block ends after any instruction that transfers control (IF, CALL,
+ * EXIT, and the ENTER, RETURN and JUMP of colon definitions), which return
+ * the address to continue at by way of ForthEngine.branch(), so that a
+ * budgeted run can yield there, and before any cell the compiler cannot handle (an empty cell, an
+ * operand that could not be resolved, or a CIN, which may suspend the
+ * engine), which is left to the interpreter. A
+ * STORE that may overwrite a later cell of the block also ends it, so that
+ * self-modifying code sees its own writes just as it does when interpreted.
+ * The generated methods contain no branches, so no stack maps are needed.
+ *
+ * A compiled block holds no state of its own, so blocks are kept in a cache
+ * shared by every engine in the JVM. An engine that runs a program another
+ * engine has already warmed up reuses its blocks, and HotSpot's compiled
+ * code for them, instead of defining new classes.
+ *
+ * @author hawk
+ * @see ExecutionMode#COMPILED
+ */
+final class BlockCompiler {
+
+	/**
+	 * The most cells compiled into one block
+	 */
+	static final int MAX_BLOCK = 256;
+
+	private static final String NAME = "com/hawkw/ForthEngine/CompiledBlock";
+	private static final String ENGINE = "com/hawkw/ForthEngine/ForthEngine";
+	private static final String STACK = "com/hawkw/Stack/LongStack";
+	private static final String STACK_TYPE = "L" + STACK + ";";
+	private static final String CELL = "com/hawkw/ForthEngine/Cell";
+	private static final String INSTRUCTION = "com/hawkw/ForthEngine/ThreadedCode$Instruction";
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	// slot 0 is this, slot 1 is the engine passed to exec()
+	private static final int ENGINE_SLOT = 1;
+
+	// the most blocks kept in the shared cache; later blocks are compiled
+	// for their engine alone
+	static final int CACHE_SIZE = 4096;
+	private static final ConcurrentHashMap<Key, ThreadedCode.Instruction> CACHE = new ConcurrentHashMap<Key, ThreadedCode.Instruction>();
+
+	/**
+	 * Everything the code of a block depends on: its cells, where it starts,
+	 * the size of RAM and whether underflow checks are skipped
+	 */
+	private static final class Key {
+		private final long[] cells;
+		private final int start;
+		private final int mask;
+		private final boolean unchecked;
+		private final int hash;
+
+		Key(long[] cells, int start, int mask, boolean unchecked) {
+			this.cells = cells;
+			this.start = start;
+			this.mask = mask;
+			this.unchecked = unchecked;
+			this.hash = 31 * (31 * (31 * Arrays.hashCode(cells) + start) + mask)
+					+ (unchecked ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return hash == k.hash && start == k.start && mask == k.mask
+					&& unchecked == k.unchecked && Arrays.equals(cells, k.cells);
+		}
+	}
+
+	/**
+	 * A compiled block and the range of cells it was compiled from
+	 */
+	static final class Block {
+		final ThreadedCode.Instruction code;
+		final int start;
+		final int end;
+
+		Block(ThreadedCode.Instruction code, int start, int end) {
+			this.code = code;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * A value the block has pushed but not yet written to the data stack: a
+	 * raw int (a number computed by the block) or a whole cell
+	 */
+	private static final class Value {
+		final int slot;
+		final boolean isInt;
+
+		Value(int slot, boolean isInt) {
+			this.slot = slot;
+			this.isInt = isInt;
+		}
+	}
+
+	final int threshold;
+	private final ForthEngine engine;
+	// pop and peek the real stacks without underflow checks (verified code)
+	private final String pop;
+	private final String peek;
+	private final int mask;
+	private int compiled = 0;
+
+	// the state of the block being compiled
+	private ClassFileWriter writer;
+	private ClassFileWriter.Code code;
+	private ArrayList<Value> stack;
+	private int locals;
+
+	/**
+	 * @param engine
+	 *            the engine whose RAM is compiled
+	 * @param threshold
+	 *            how many times a block is interpreted before it is compiled
+	 */
+	BlockCompiler(ForthEngine engine, int threshold) {
+		this.engine = engine;
+		this.mask = engine.getAddressMask();
+		this.threshold = threshold;
+		this.pop = engine.isVerified() ? "popUnchecked" : "pop";
+		this.peek = engine.isVerified() ? "peekUnchecked" : "peek";
+	}
+
+	/**
+	 * Returns the number of blocks in the cache shared by every engine
+	 */
+	static int getCachedCount() {
+		return CACHE.size();
+	}
+
+	/**
+	 * Returns the number of blocks compiled so far
+	 */
+	int getCompiledCount() {
+		return compiled;
+	}
+
+	/**
+	 * Compiles the block starting at an address
+	 *
+	 * @param start
+	 *            the address of the block's first cell
+	 * @return the compiled block, or null if the first cell cannot be
+	 *         compiled, in which case it should stay interpreted
+	 */
+	Block compile(int start) {
+		int end = extent(start);
+		if (end < start)
+			return null;
+		for (int address = start; address < end; address++) {
+			if (storesAhead(cell(address), address, end)) {
+				end = address;
+				break;
+			}
+		}
+
+		long[] cells = new long[end - start + 1];
+		for (int address = start; address <= end; address++)
+			cells[address - start] = cell(address);
+		Key key = new Key(cells, start, mask, engine.isVerified());
+		ThreadedCode.Instruction cached = CACHE.get(key);
+		if (cached != null) {
+			compiled++;
+			return new Block(cached, start, end);
+		}
+
+		writer = new ClassFileWriter(NAME, "java/lang/Object", INSTRUCTION);
+		code = writer.new Code();
+		stack = new ArrayList<Value>();
+		locals = ENGINE_SLOT + 1;
+		boolean terminated = false;
+		for (int address = start; address <= end; address++)
+			terminated = emit(cells[address - start], address);
+		if (!terminated) {
+			flush();
+			code.iconst((end + 1) & mask).op(ClassFileWriter.IRETURN);
+		}
+
+		ThreadedCode.Instruction instruction = define();
+		writer = null;
+		code = null;
+		stack = null;
+		if (instruction == null)
+			return null;
+		if (CACHE.size() < CACHE_SIZE) {
+			// another engine may have compiled the same block meanwhile
+			ThreadedCode.Instruction raced = CACHE.putIfAbsent(key, instruction);
+			if (raced != null)
+				instruction = raced;
+		}
+		compiled++;
+		return new Block(instruction, start, end);
+	}
+
+	/**
+	 * Returns the cell at an address. A superinstruction is compiled as the
+	 * first instruction of its sequence, followed by the rest of the
+	 * sequence, which is still in RAM after it.
+	 */
+	private long cell(int address) {
+		return Superinstructions.unfuse(engine.read(address));
+	}
+
+	private static boolean compilable(long cell) {
+		if (cell == Cell.EMPTY)
+			return false;
+		if (!Cell.isInstruction(cell))
+			return true; // data cells are no-ops
+		switch (Cell.opcode(cell)) {
+		case Opcodes.CIN:
+			// CIN may suspend the engine, which has to be able to resume at
+			// the CIN itself rather than somewhere inside a block
+			return false;
+		case Opcodes.STORE:
+		case Opcodes.FETCH:
+		case Opcodes.IF:
+		case Opcodes.CALL:
+		case Opcodes.SOUT:
+		case Opcodes.ENTER:
+		case Opcodes.JUMP:
+			return Cell.operand(cell) >= 0;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the last cell of the block starting at an address, or start - 1
+	 * if the first cell cannot be compiled
+	 */
+	private int extent(int start) {
+		int address = start;
+		while (address - start < MAX_BLOCK) {
+			long cell = cell(address);
+			if (!compilable(cell))
+				return address - 1;
+			if (address == mask || terminates(cell))
+				return address;
+			address++;
+		}
+		return address - 1;
+	}
+
+	private static boolean terminates(long cell) {
+		if (!Cell.isInstruction(cell))
+			return false;
+		switch (Cell.opcode(cell)) {
+		case Opcodes.IF:
+		case Opcodes.CALL:
+		case Opcodes.EXIT:
+		case Opcodes.ENTER:
+		case Opcodes.RETURN:
+		case Opcodes.JUMP:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * A STORE into a cell of the block that has not run yet has to be seen by
+	 * the cells after it, so the block stops at the STORE
+	 */
+	private static boolean storesAhead(long cell, int address, int end) {
+		if (!Cell.isInstruction(cell) || Cell.opcode(cell) != Opcodes.STORE)
+			return false;
+		int target = Cell.operand(cell);
+		return target > address && target <= end;
+	}
+
+	/**
+	 * Emits the bytecode for one cell
+	 *
+	 * @return true if the cell ends the block (the code returns)
+	 */
+	private boolean emit(long cell, int address) {
+		if (!Cell.isInstruction(cell))
+			return false;
+		int operand = Cell.operand(cell);
+		int next = (address + 1) & mask;
+		switch (Cell.opcode(cell)) {
+		case Opcodes.STORE:
+			code.aload(ENGINE_SLOT).iconst(operand);
+			popCell();
+			code.invokevirtual(ENGINE, "write", "(IJ)V");
+			return false;
+		case Opcodes.ADD:
+			return arithmetic(ClassFileWriter.IADD);
+		case Opcodes.SUB:
+			return arithmetic(ClassFileWriter.ISUB);
+		case Opcodes.AND:
+			return arithmetic(ClassFileWriter.IAND);
+		case Opcodes.OR:
+			return arithmetic(ClassFileWriter.IOR);
+		case Opcodes.XOR:
+			return arithmetic(ClassFileWriter.IXOR);
+		case Opcodes.RSTORE:
+			code.aload(ENGINE_SLOT).getfield(ENGINE, "ReturnStack", STACK_TYPE);
+			popCell();
+			code.invokevirtual(STACK, "push", "(J)V");
+			return false;
+		case Opcodes.FETCH:
+			code.aload(ENGINE_SLOT).iconst(operand)
+					.invokevirtual(ENGINE, "read", "(I)J");
+			pushCell();
+			return false;
+		case Opcodes.DROP:
+			if (!stack.isEmpty())
+				stack.remove(stack.size() - 1);
+			else
+				code.aload(ENGINE_SLOT)
+						.getfield(ENGINE, "DataStack", STACK_TYPE)
+						.invokevirtual(STACK, pop, "()J")
+						.op(ClassFileWriter.POP2);
+			return false;
+		case Opcodes.DUP:
+			if (!stack.isEmpty()) {
+				stack.add(stack.get(stack.size() - 1));
+			} else {
+				code.aload(ENGINE_SLOT)
+						.getfield(ENGINE, "DataStack", STACK_TYPE)
+						.invokevirtual(STACK, peek, "()J");
+				pushCell();
+			}
+			return false;
+		case Opcodes.RFETCH:
+			code.aload(ENGINE_SLOT).getfield(ENGINE, "ReturnStack", STACK_TYPE)
+					.invokevirtual(STACK, pop, "()J");
+			pushCell();
+			return false;
+		case Opcodes.SWAP:
+			// only the depth check has an effect, see the DECODED SWAP
+			if (stack.size() < 2 && !engine.isVerified())
+				code.aload(ENGINE_SLOT).iconst(2 - stack.size())
+						.invokevirtual(ENGINE, "requireDepth", "(I)V");
+			return false;
+		case Opcodes.IF:
+			return branch((operand + 1) & mask, next);
+		case Opcodes.CALL:
+			flush();
+			code.aload(ENGINE_SLOT).iconst((operand + 1) & mask);
+			return branched();
+		case Opcodes.ENTER:
+			flush();
+			code.aload(ENGINE_SLOT).aload(ENGINE_SLOT).iconst(address)
+					.iconst(operand).invokevirtual(ENGINE, "enter", "(II)I");
+			return branched();
+		case Opcodes.RETURN:
+			flush();
+			code.aload(ENGINE_SLOT).aload(ENGINE_SLOT)
+					.invokevirtual(ENGINE, "leave", "()I");
+			return branched();
+		case Opcodes.JUMP:
+			flush();
+			code.aload(ENGINE_SLOT).iconst(operand);
+			return branched();
+		case Opcodes.EXIT:
+			flush();
+			code.aload(ENGINE_SLOT).iconst(1).putfield(ENGINE, "done", "Z")
+					.iconst(-1).op(ClassFileWriter.IRETURN);
+			return true;
+		case Opcodes.LIT:
+			code.aload(ENGINE_SLOT).iconst(next)
+					.invokevirtual(ENGINE, "read", "(I)J");
+			pushCell();
+			return false;
+		case Opcodes.COUT:
+			code.aload(ENGINE_SLOT);
+			popCell();
+			code.invokevirtual(ENGINE, "printCell", "(J)V");
+			return false;
+		case Opcodes.SOUT:
+			code.aload(ENGINE_SLOT).aload(ENGINE_SLOT).iconst(operand)
+					.invokevirtual(ENGINE, "read", "(I)J")
+					.invokevirtual(ENGINE, "printCell", "(J)V");
+			return false;
+		default:
+			// NOP, S" and OVER do nothing
+			return false;
+		}
+	}
+
+	/**
+	 * Pops the top two values as ints, top first, applies an int operation and
+	 * pushes the result as a raw int
+	 */
+	private boolean arithmetic(int operation) {
+		popInt();
+		popInt();
+		code.op(operation);
+		int slot = allocate(1);
+		code.istore(slot);
+		stack.add(new Value(slot, true));
+		return false;
+	}
+
+	/**
+	 * IF: numbers are always true, so a condition the block computed itself
+	 * branches unconditionally; anything else is tested at run time
+	 */
+	private boolean branch(int target, int next) {
+		if (!stack.isEmpty() && stack.get(stack.size() - 1).isInt) {
+			stack.remove(stack.size() - 1);
+			flush();
+			code.aload(ENGINE_SLOT).iconst(target);
+			return branched();
+		}
+		popCell();
+		int condition = allocate(2);
+		code.lstore(condition);
+		flush();
+		code.aload(ENGINE_SLOT).lload(condition).iconst(target).iconst(next)
+				.invokestatic(ENGINE, "branchTarget", "(JII)I");
+		return branched();
+	}
+
+	/**
+	 * Ends the block with a transfer of control: with the engine and the
+	 * address to go to on the operand stack, returns what engine.branch()
+	 * makes of it, so that the run's budget is checked
+	 */
+	private boolean branched() {
+		code.invokevirtual(ENGINE, "branch", "(I)I").op(
+				ClassFileWriter.IRETURN);
+		return true;
+	}
+
+	private int allocate(int slots) {
+		int slot = locals;
+		locals += slots;
+		return slot;
+	}
+
+	/**
+	 * Stores the cell on top of the operand stack in a new local and pushes it
+	 */
+	private void pushCell() {
+		int slot = allocate(2);
+		code.lstore(slot);
+		stack.add(new Value(slot, false));
+	}
+
+	/**
+	 * Pops a value onto the operand stack as a cell
+	 */
+	private void popCell() {
+		if (stack.isEmpty()) {
+			code.aload(ENGINE_SLOT).getfield(ENGINE, "DataStack", STACK_TYPE)
+					.invokevirtual(STACK, pop, "()J");
+			return;
+		}
+		load(stack.remove(stack.size() - 1));
+	}
+
+	/**
+	 * Pops a value onto the operand stack as an int, going through
+	 * ForthEngine.intValue() for anything that is not known to be a number
+	 */
+	private void popInt() {
+		if (!stack.isEmpty() && stack.get(stack.size() - 1).isInt) {
+			code.iload(stack.remove(stack.size() - 1).slot);
+			return;
+		}
+		code.aload(ENGINE_SLOT);
+		popCell();
+		code.invokevirtual(ENGINE, "intValue", "(J)I");
+	}
+
+	private void load(Value value) {
+		if (value.isInt)
+			code.iload(value.slot).invokestatic(CELL, "number", "(I)J");
+		else
+			code.lload(value.slot);
+	}
+
+	/**
+	 * Pushes the values the block is still holding onto the data stack,
+	 * bottom first
+	 */
+	private void flush() {
+		for (Value value : stack) {
+			code.aload(ENGINE_SLOT).getfield(ENGINE, "DataStack", STACK_TYPE);
+			load(value);
+			code.invokevirtual(STACK, "push", "(J)V");
+		}
+		stack.clear();
+	}
+
+	/**
+	 * Finishes the class, defines it as a hidden class next to the engine and
+	 * instantiates it
+	 *
+	 * @return the compiled instruction, or null if the class was rejected
+	 */
+	private ThreadedCode.Instruction define() {
+		ClassFileWriter.Code init = writer.new Code();
+		init.aload(0).invokespecial("java/lang/Object", "<init>", "()V")
+				.op(ClassFileWriter.RETURN);
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", init, 1, 1);
+		// the deepest expression is an int, the engine, a stack and a cell
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "exec", "(L" + ENGINE
+				+ ";)I", code, 6, locals);
+		try {
+			MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(
+					writer.toByteArray(), true);
+			return (ThreadedCode.Instruction) lookup.lookupClass()
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * BufferedSink.java
+ * An OutputSink that collects output as bytes in one array and hands it on
+ * in chunks. Text and numbers are encoded straight into the array, so
+ * printing a cell costs no Strings and no locking. The buffer is drained
+ * when it holds at least flushSize bytes or when maxDelay has passed since
+ * it was last drained, both checked only at the end of a line so that the
+ * drained chunks are whole lines; and whenever flush() is called.
+ * 
+ * @author hawk
+ */
+public abstract class BufferedSink implements OutputSink {
+
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator()
+			.getBytes();
+	private static final Charset CHARSET = Charset.defaultCharset();
+	// the most a buffer is given up front; a larger flushSize grows it
+	private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+	private final int flushSize;
+	private final long maxDelay;
+	private byte[] buffer;
+	private int count = 0;
+	private long lastFlush = System.nanoTime();
+
+	/**
+	 * Creates a sink
+	 * 
+	 * @param flushSize
+	 *            the number of bytes held before they are drained
+	 * @param maxDelay
+	 *            the longest time in nanoseconds a finished line is held, or
+	 *            Long.MAX_VALUE to hold lines until flushSize is reached
+	 */
+	protected BufferedSink(int flushSize, long maxDelay) {
+		this(flushSize, maxDelay, (int) Math.max(64,
+				Math.min(flushSize + 64L, MAX_INITIAL_CAPACITY)));
+	}
+
+	/**
+	 * Creates a sink whose buffer starts at the given size rather than one
+	 * sized from flushSize
+	 * 
+	 * @param flushSize
+	 *            the number of bytes held before they are drained
+	 * @param maxDelay
+	 *            the longest time in nanoseconds a finished line is held, or
+	 *            Long.MAX_VALUE to hold lines until flushSize is reached
+	 * @param initialCapacity
+	 *            the size of the buffer before it first grows
+	 */
+	protected BufferedSink(int flushSize, long maxDelay, int initialCapacity) {
+		this.flushSize = flushSize;
+		this.maxDelay = maxDelay;
+		this.buffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * Hands on drained bytes
+	 * 
+	 * @throws IOException
+	 *             if the bytes cannot be written
+	 */
+	protected abstract void drain(byte[] bytes, int offset, int length)
+			throws IOException;
+
+	@Override
+	public void print(CharSequence text) {
+		int length = text.length();
+		ensure(length);
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				// only S" strings can hold anything but ASCII
+				byte[] encoded = text.subSequence(i, length).toString()
+						.getBytes(CHARSET);
+				ensure(encoded.length);
+				System.arraycopy(encoded, 0, buffer, count, encoded.length);
+				count += encoded.length;
+				return;
+			}
+			buffer[count++] = (byte) c;
+		}
+	}
+
+	@Override
+	public void print(int number) {
+		ensure(11); // "-2147483648"
+		long value = number; // so that -Integer.MIN_VALUE fits
+		if (value < 0) {
+			buffer[count++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10)
+			digits++;
+		for (int i = count + digits - 1; i >= count; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		count += digits;
+	}
+
+	@Override
+	public void println() {
+		ensure(LINE_SEPARATOR.length);
+		for (byte b : LINE_SEPARATOR)
+			buffer[count++] = b;
+		if (count >= flushSize
+				|| (maxDelay != Long.MAX_VALUE && System.nanoTime() - lastFlush >= maxDelay))
+			flush();
+	}
+
+	@Override
+	public void flush() {
+		lastFlush = System.nanoTime();
+		if (count == 0)
+			return;
+		try {
+			drain(buffer, 0, count);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			count = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes printed but not yet drained
+	 */
+	public int getBuffered() {
+		return count;
+	}
+
+	/**
+	 * Makes room for more bytes. A line longer than the buffer grows it
+	 * rather than being drained in pieces.
+	 */
+	private void ensure(int more) {
+		if (count + more > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(count + more,
+					buffer.length * 2));
+	}
+}
@@ -0,0 +1,60 @@
+package com.hawkw.ForthEngine;
+
+import java.util.Arrays;
+
+/**
+ * ByteArraySink.java
+ * A BufferedSink that keeps everything printed in memory, for capturing a
+ * program's output. Nothing is drained until flush() or toString() is
+ * called.
+ * 
+ * @author hawk
+ */
+public class ByteArraySink extends BufferedSink {
+
+	private static final int INITIAL_SIZE = 256;
+
+	private byte[] bytes = new byte[INITIAL_SIZE];
+	private int size = 0;
+
+	/**
+	 * Creates an empty sink
+	 */
+	public ByteArraySink() {
+		super(Integer.MAX_VALUE, Long.MAX_VALUE, INITIAL_SIZE);
+	}
+
+	@Override
+	protected void drain(byte[] drained, int offset, int length) {
+		if (size + length > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(size + length,
+					bytes.length * 2));
+		System.arraycopy(drained, offset, bytes, size, length);
+		size += length;
+	}
+
+	/**
+	 * Returns a copy of everything printed so far
+	 */
+	public byte[] toByteArray() {
+		flush();
+		return Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 * Forgets everything printed so far
+	 */
+	public void reset() {
+		flush();
+		size = 0;
+	}
+
+	/**
+	 * Returns everything printed so far, decoded with the default charset
+	 */
+	@Override
+	public String toString() {
+		flush();
+		return new String(bytes, 0, size);
+	}
+}
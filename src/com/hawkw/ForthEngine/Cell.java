@@ -0,0 +1,120 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * Cell.java
+ * Static helpers for the tagged 64-bit cells that make up the ForthEngine's
+ * RAM and stacks. A cell is laid out as:
+ *
+ * <pre>
+ *  63      56 55    48 47          32 31                     0
+ * +----------+--------+--------------+------------------------+
+ * |   tag    | opcode | raw address  | value / operand        |
+ * +----------+--------+--------------+------------------------+
+ * </pre>
+ *
+ * A NUMBER keeps its int value in the low 32 bits, a STRING keeps its index
+ * in the engine's string pool, and an INSTRUCTION keeps its opcode, the
+ * two-byte address it was written with, and the operand that address
+ * resolves to. The all-zero cell is EMPTY, the equivalent of a null Word.
+ *
+ * @author hawk
+ * @see Word
+ */
+public final class Cell {
+
+	public static final int TAG_EMPTY = 0;
+	public static final int TAG_NUMBER = 1;
+	public static final int TAG_INSTRUCTION = 2;
+	public static final int TAG_STRING = 3;
+
+	public static final long EMPTY = 0L;
+
+	private static final long NUMBER_BITS = (long) TAG_NUMBER << 56;
+	private static final long INSTRUCTION_BITS = (long) TAG_INSTRUCTION << 56;
+	private static final long STRING_BITS = (long) TAG_STRING << 56;
+
+	private Cell() {
+	}
+
+	/**
+	 * Builds a number cell
+	 *
+	 * @param value
+	 *            the int value of the cell
+	 * @return a NUMBER cell holding that value
+	 */
+	public static long number(int value) {
+		return NUMBER_BITS | (value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Builds a string cell
+	 *
+	 * @param index
+	 *            the index of the string in the engine's string pool
+	 * @return a STRING cell referencing that string
+	 */
+	public static long string(int index) {
+		return STRING_BITS | (index & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Builds an instruction cell
+	 *
+	 * @param opcode
+	 *            the one-byte opcode
+	 * @param rawAddress
+	 *            the two-byte RAM address the instruction was written with
+	 * @param operand
+	 *            the operand that address resolves to
+	 * @return an INSTRUCTION cell
+	 */
+	public static long instruction(int opcode, int rawAddress, int operand) {
+		return INSTRUCTION_BITS | ((long) (opcode & 0xFF) << 48)
+				| ((long) (rawAddress & 0xFFFF) << 32)
+				| (operand & 0xFFFFFFFFL);
+	}
+
+	public static int tag(long cell) {
+		return (int) (cell >>> 56);
+	}
+
+	public static boolean isNumber(long cell) {
+		return (cell >>> 56) == TAG_NUMBER;
+	}
+
+	public static boolean isInstruction(long cell) {
+		return (cell >>> 56) == TAG_INSTRUCTION;
+	}
+
+	public static boolean isString(long cell) {
+		return (cell >>> 56) == TAG_STRING;
+	}
+
+	/**
+	 * Returns the value of a NUMBER cell, or the string pool index of a STRING
+	 * cell
+	 */
+	public static int value(long cell) {
+		return (int) cell;
+	}
+
+	public static int opcode(long cell) {
+		return (int) (cell >>> 48) & 0xFF;
+	}
+
+	public static int rawAddress(long cell) {
+		return (int) (cell >>> 32) & 0xFFFF;
+	}
+
+	public static int operand(long cell) {
+		return (int) cell;
+	}
+
+	/**
+	 * Returns a copy of an instruction cell with a different operand
+	 */
+	public static long withOperand(long cell, int operand) {
+		return (cell & 0xFFFFFFFF00000000L) | (operand & 0xFFFFFFFFL);
+	}
+}
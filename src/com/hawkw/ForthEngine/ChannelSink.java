@@ -0,0 +1,53 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ChannelSink.java
+ * A BufferedSink that drains into a channel, typically a FileChannel, so
+ * that output bound for a file skips the PrintStream and its locking
+ * altogether.
+ * 
+ * @author hawk
+ */
+public class ChannelSink extends BufferedSink {
+
+	private final WritableByteChannel channel;
+
+	/**
+	 * Creates a sink that holds up to StreamSink.DEFAULT_FLUSH_SIZE bytes
+	 * and never drains on a timer
+	 * 
+	 * @param channel
+	 *            the channel to write to
+	 */
+	public ChannelSink(WritableByteChannel channel) {
+		this(channel, StreamSink.DEFAULT_FLUSH_SIZE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a sink
+	 * 
+	 * @param channel
+	 *            the channel to write to
+	 * @param flushSize
+	 *            the number of bytes held before they are written
+	 * @param maxDelay
+	 *            the longest time in nanoseconds a finished line is held
+	 */
+	public ChannelSink(WritableByteChannel channel, int flushSize,
+			long maxDelay) {
+		super(flushSize, maxDelay);
+		this.channel = channel;
+	}
+
+	@Override
+	protected void drain(byte[] bytes, int offset, int length)
+			throws IOException {
+		ByteBuffer chunk = ByteBuffer.wrap(bytes, offset, length);
+		while (chunk.hasRemaining())
+			channel.write(chunk);
+	}
+}
@@ -0,0 +1,290 @@
+package com.hawkw.ForthEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * ClassFileWriter.java
+ * Just enough of a JVM class file writer for the BlockCompiler: a constant
+ * pool, methods with a Code attribute, and the handful of instructions the
+ * compiler emits. Methods are straight-line (no branches), so no
+ * StackMapTable is needed.
+ *
+ * @author hawk
+ * @see BlockCompiler
+ */
+final class ClassFileWriter {
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+	private static final int VERSION = 52; // Java 8
+
+	// constant pool tags
+	private static final int UTF8 = 1;
+	private static final int INTEGER = 3;
+	private static final int CLASS = 7;
+	private static final int FIELDREF = 9;
+	private static final int METHODREF = 10;
+	private static final int NAME_AND_TYPE = 12;
+
+	// opcodes
+	static final int ICONST_0 = 0x03;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int ILOAD = 0x15;
+	static final int LLOAD = 0x16;
+	static final int ALOAD = 0x19;
+	static final int ISTORE = 0x36;
+	static final int LSTORE = 0x37;
+	static final int POP2 = 0x58;
+	static final int IADD = 0x60;
+	static final int ISUB = 0x64;
+	static final int IAND = 0x7E;
+	static final int IOR = 0x80;
+	static final int IXOR = 0x82;
+	static final int IRETURN = 0xAC;
+	static final int RETURN = 0xB1;
+	static final int GETFIELD = 0xB4;
+	static final int PUTFIELD = 0xB5;
+	static final int INVOKEVIRTUAL = 0xB6;
+	static final int INVOKESPECIAL = 0xB7;
+	static final int INVOKESTATIC = 0xB8;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+	private int poolCount = 1;
+	private final List<byte[]> methods = new ArrayList<byte[]>();
+
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+
+	/**
+	 * @param name
+	 *            the internal name of the class to write
+	 * @param superName
+	 *            the internal name of its superclass
+	 * @param interfaceNames
+	 *            the internal names of the interfaces it implements
+	 */
+	ClassFileWriter(String name, String superName, String... interfaceNames) {
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+		interfaces = new int[interfaceNames.length];
+		for (int i = 0; i < interfaceNames.length; i++)
+			interfaces[i] = classRef(interfaceNames[i]);
+	}
+
+	private int entry(String key, int tag, Object... parts) {
+		Integer index = entries.get(key);
+		if (index != null)
+			return index;
+		try {
+			poolOut.writeByte(tag);
+			for (Object part : parts) {
+				if (part instanceof String)
+					poolOut.writeUTF((String) part);
+				else if (tag == INTEGER)
+					poolOut.writeInt((Integer) part);
+				else
+					poolOut.writeShort((Integer) part);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		entries.put(key, poolCount);
+		return poolCount++;
+	}
+
+	int utf8(String s) {
+		return entry("U" + s, UTF8, s);
+	}
+
+	int integer(int value) {
+		return entry("I" + value, INTEGER, value);
+	}
+
+	int classRef(String internalName) {
+		return entry("C" + internalName, CLASS, utf8(internalName));
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return entry("N" + name + ":" + descriptor, NAME_AND_TYPE, utf8(name),
+				utf8(descriptor));
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return entry("M" + owner + "." + name + descriptor, METHODREF,
+				classRef(owner), nameAndType(name, descriptor));
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return entry("F" + owner + "." + name + ":" + descriptor, FIELDREF,
+				classRef(owner), nameAndType(name, descriptor));
+	}
+
+	/**
+	 * Adds a method to the class
+	 *
+	 * @param access
+	 *            the method's access flags
+	 * @param name
+	 *            the method's name
+	 * @param descriptor
+	 *            the method's descriptor
+	 * @param code
+	 *            the method's bytecode
+	 * @param maxStack
+	 *            the deepest the operand stack gets
+	 * @param maxLocals
+	 *            the number of local variable slots, including arguments
+	 */
+	void addMethod(int access, String name, String descriptor, Code code,
+			int maxStack, int maxLocals) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		byte[] body = code.toByteArray();
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1); // one attribute: Code
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + body.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(body.length);
+			out.write(body);
+			out.writeShort(0); // no exception table
+			out.writeShort(0); // no attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	/**
+	 * Returns the finished class file
+	 */
+	byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolCount);
+			out.write(pool.toByteArray());
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for (int i : interfaces)
+				out.writeShort(i);
+			out.writeShort(0); // no fields
+			out.writeShort(methods.size());
+			for (byte[] method : methods)
+				out.write(method);
+			out.writeShort(0); // no attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * The bytecode of one method
+	 */
+	final class Code {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		Code op(int opcode) {
+			out.write(opcode);
+			return this;
+		}
+
+		private Code op(int opcode, int u2) {
+			out.write(opcode);
+			out.write(u2 >>> 8);
+			out.write(u2);
+			return this;
+		}
+
+		private Code local(int opcode, int slot) {
+			if (slot > 0xFF) {
+				out.write(0xC4); // wide
+				return op(opcode, slot);
+			}
+			out.write(opcode);
+			out.write(slot);
+			return this;
+		}
+
+		Code aload(int slot) {
+			return local(ALOAD, slot);
+		}
+
+		Code iload(int slot) {
+			return local(ILOAD, slot);
+		}
+
+		Code lload(int slot) {
+			return local(LLOAD, slot);
+		}
+
+		Code istore(int slot) {
+			return local(ISTORE, slot);
+		}
+
+		Code lstore(int slot) {
+			return local(LSTORE, slot);
+		}
+
+		/**
+		 * Pushes an int constant with the shortest instruction that fits
+		 */
+		Code iconst(int value) {
+			if (value >= -1 && value <= 5)
+				return op(ICONST_0 + value);
+			if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				out.write(BIPUSH);
+				out.write(value);
+				return this;
+			}
+			if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+				return op(SIPUSH, value & 0xFFFF);
+			return op(LDC_W, integer(value));
+		}
+
+		Code getfield(String owner, String name, String descriptor) {
+			return op(GETFIELD, fieldRef(owner, name, descriptor));
+		}
+
+		Code putfield(String owner, String name, String descriptor) {
+			return op(PUTFIELD, fieldRef(owner, name, descriptor));
+		}
+
+		Code invokevirtual(String owner, String name, String descriptor) {
+			return op(INVOKEVIRTUAL, methodRef(owner, name, descriptor));
+		}
+
+		Code invokespecial(String owner, String name, String descriptor) {
+			return op(INVOKESPECIAL, methodRef(owner, name, descriptor));
+		}
+
+		Code invokestatic(String owner, String name, String descriptor) {
+			return op(INVOKESTATIC, methodRef(owner, name, descriptor));
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+	}
+}
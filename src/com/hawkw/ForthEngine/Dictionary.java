@@ -0,0 +1,118 @@
+package com.hawkw.ForthEngine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary.java
+ * The words a program has defined with colon definitions, and where in RAM
+ * each one's code starts. Names are looked up in a hash table, so finding a
+ * word costs the same however many are defined. A word defined again
+ * replaces the old definition for everything compiled afterwards; code that
+ * already calls the old one keeps calling it.
+ *
+ * A program compiled as an ObjectModule may also call words it does not
+ * define; the dictionary records where each such call is, for the Linker to
+ * fill in.
+ *
+ * @author hawk
+ * @see ForthParser#load(ForthEngine, java.io.Reader)
+ * @see ObjectModule
+ */
+public final class Dictionary {
+
+	/**
+	 * Returned by lookup() for a name that is not defined
+	 */
+	public static final int UNDEFINED = -1;
+
+	private final HashMap<String, Integer> words = new HashMap<String, Integer>();
+	// the other way round, for naming code in profiles and traces
+	private final HashMap<Integer, String> names = new HashMap<Integer, String>();
+	// the ENTERs of calls to undefined words, or null if they are an error
+	private HashMap<Integer, String> references = null;
+
+	/**
+	 * Defines a word
+	 *
+	 * @param name
+	 *            the word's name, case-sensitive
+	 * @param address
+	 *            the address of the word's first instruction
+	 */
+	public void define(String name, int address) {
+		words.put(name, address);
+		names.put(address, name);
+	}
+
+	/**
+	 * Looks a word up
+	 *
+	 * @param name
+	 *            the word's name
+	 * @return the address of the word's first instruction, or UNDEFINED
+	 */
+	public int lookup(String name) {
+		Integer address = words.get(name);
+		return address == null ? UNDEFINED : address;
+	}
+
+	/**
+	 * Returns the name of the word whose code starts at an address
+	 *
+	 * @param address
+	 *            the address of a word's first instruction
+	 * @return the word's name, or null if no word starts there
+	 */
+	public String nameOf(int address) {
+		return names.get(address);
+	}
+
+	/**
+	 * Returns the number of words defined
+	 */
+	public int size() {
+		return words.size();
+	}
+
+	/**
+	 * Returns every word defined, by name, with its current address
+	 */
+	Map<String, Integer> getWords() {
+		return Collections.unmodifiableMap(words);
+	}
+
+	/**
+	 * Lets the program call words it does not define, to be resolved when it
+	 * is linked
+	 */
+	void allowReferences() {
+		if (references == null)
+			references = new HashMap<Integer, String>();
+	}
+
+	/**
+	 * Records a call to a word that is not defined
+	 *
+	 * @param name
+	 *            the word's name
+	 * @param address
+	 *            the address of the ENTER that calls it
+	 * @return false if calls to undefined words are not allowed
+	 */
+	boolean refer(String name, int address) {
+		if (references == null)
+			return false;
+		references.put(address, name);
+		return true;
+	}
+
+	/**
+	 * Returns the calls to undefined words, by the address of their ENTER
+	 */
+	Map<Integer, String> getReferences() {
+		return references == null ? Collections.<Integer, String> emptyMap()
+				: Collections.unmodifiableMap(references);
+	}
+}
@@ -0,0 +1,38 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * DiscardingSink.java
+ * An OutputSink that throws its output away, for benchmarks that should
+ * measure the engine rather than the terminal. It only counts the lines it
+ * was given.
+ * 
+ * @author hawk
+ */
+public class DiscardingSink implements OutputSink {
+
+	private long lines = 0;
+
+	@Override
+	public void print(CharSequence text) {
+	}
+
+	@Override
+	public void print(int number) {
+	}
+
+	@Override
+	public void println() {
+		lines++;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Returns the number of lines printed
+	 */
+	public long getLineCount() {
+		return lines;
+	}
+}
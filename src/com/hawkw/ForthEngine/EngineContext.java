@@ -0,0 +1,145 @@
+package com.hawkw.ForthEngine;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Scanner;
+
+/**
+ * EngineContext.java
+ * Everything a ForthEngine needs from the outside world: where CIN reads its
+ * tokens from, where COUT, SOUT and the traces print to, and whether debug
+ * and verbose tracing are on. Each engine has its own context, so any number
+ * of engines can run side by side, on as many threads, without sharing
+ * state. A context is immutable, so one can also be shared by engines that
+ * should read and print through the same streams.
+ *
+ * A context created without an input stream never blocks: CIN reads only
+ * the tokens fed to its engine, and suspends the program when there are
+ * none.
+ *
+ * @author hawk
+ * @see ForthEngine#ForthEngine(EngineContext)
+ */
+public final class EngineContext {
+
+	// System.in can only be buffered by one Scanner, so every context that
+	// reads standard input shares this one
+	private static Scanner standardInput;
+
+	private final Scanner input;
+	private final PrintStream output;
+	private final boolean debug;
+	private final boolean verbose;
+
+	/**
+	 * Creates a context that reads standard input and prints to standard
+	 * output, with tracing off
+	 */
+	public EngineContext() {
+		this(false, false);
+	}
+
+	/**
+	 * Creates a context that reads standard input and prints to standard
+	 * output
+	 *
+	 * @param debug
+	 *            true to print the stacks after every instruction
+	 * @param verbose
+	 *            true to trace every step of loading and running
+	 */
+	public EngineContext(boolean debug, boolean verbose) {
+		this(standardInput(), System.out, debug, verbose);
+	}
+
+	/**
+	 * Creates a context with no input stream, with tracing off. Its engines'
+	 * CIN suspends the program rather than wait for input.
+	 *
+	 * @param out
+	 *            the stream the engine prints to
+	 * @see ForthEngine#feed(String)
+	 */
+	public EngineContext(PrintStream out) {
+		this((Scanner) null, out, false, false);
+	}
+
+	/**
+	 * Creates a context with its own streams, with tracing off
+	 *
+	 * @param in
+	 *            the stream CIN reads its tokens from
+	 * @param out
+	 *            the stream the engine prints to
+	 */
+	public EngineContext(InputStream in, PrintStream out) {
+		this(new Scanner(in), out, false, false);
+	}
+
+	/**
+	 * Creates a context with its own streams
+	 *
+	 * @param in
+	 *            the stream CIN reads its tokens from
+	 * @param out
+	 *            the stream the engine prints to
+	 * @param debug
+	 *            true to print the stacks after every instruction
+	 * @param verbose
+	 *            true to trace every step of loading and running
+	 */
+	public EngineContext(InputStream in, PrintStream out, boolean debug,
+			boolean verbose) {
+		this(new Scanner(in), out, debug, verbose);
+	}
+
+	private EngineContext(Scanner input, PrintStream output, boolean debug,
+			boolean verbose) {
+		this.input = input;
+		this.output = output;
+		this.debug = debug;
+		this.verbose = verbose;
+	}
+
+	private static synchronized Scanner standardInput() {
+		if (standardInput == null)
+			standardInput = new Scanner(System.in);
+		return standardInput;
+	}
+
+	/**
+	 * Reads the next token for CIN. Engines sharing an input stream take
+	 * whole tokens in turn.
+	 *
+	 * @return the next whitespace-separated token, or null if this context
+	 *         has no input stream
+	 */
+	public String nextToken() {
+		if (input == null)
+			return null;
+		synchronized (input) {
+			return input.next();
+		}
+	}
+
+	/**
+	 * Returns the stream the engine prints to
+	 */
+	public PrintStream getOutput() {
+		return output;
+	}
+
+	/**
+	 * Returns true if the stacks are printed after every instruction
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * Returns true if every step of loading and running is traced
+	 */
+	public boolean isVerbose() {
+		return verbose;
+	}
+}
@@ -0,0 +1,357 @@
+package com.hawkw.ForthEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EngineExecutor.java
+ * Runs large numbers of small FORTH programs, each on its own ForthEngine
+ * with its own EngineContext, so that a program's CIN reads only its own
+ * input and its COUT and SOUT are captured for it alone.
+ *
+ * Where the JVM has virtual threads, every program gets one, and a program
+ * waiting for its turn costs no platform thread. At most the given number
+ * of programs run at once; the rest wait on a semaphore. On older JVMs the
+ * programs queue for a fixed pool of that many platform threads instead.
+ * Either way tens of thousands of programs can be in flight at once.
+ *
+ * @author hawk
+ */
+public final class EngineExecutor implements AutoCloseable {
+
+	private final ExecutorService executor;
+	private final Semaphore permits;
+	private final boolean virtual;
+	private final int concurrency;
+	private final long started = System.nanoTime();
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * What a program left behind when it stopped
+	 */
+	public static final class Result {
+		private final String output;
+		private final long[] dataStack;
+		private final RuntimeException failure;
+		private final long instructions;
+		private final long nanos;
+
+		private Result(String output, long[] dataStack,
+				RuntimeException failure, long instructions, long nanos) {
+			this.output = output;
+			this.dataStack = dataStack;
+			this.failure = failure;
+			this.instructions = instructions;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * Returns everything the program printed
+		 */
+		public String getOutput() {
+			return output;
+		}
+
+		/**
+		 * Returns the cells left on the DataStack, from the bottom of the
+		 * stack to the top
+		 */
+		public long[] getDataStack() {
+			return dataStack.clone();
+		}
+
+		/**
+		 * Returns true if the program ran to its EXIT
+		 */
+		public boolean isCompleted() {
+			return failure == null;
+		}
+
+		/**
+		 * Returns the exception the program died with, or null if it ran to
+		 * its EXIT
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Returns the number of instructions the program executed
+		 */
+		public long getInstructionCount() {
+			return instructions;
+		}
+
+		/**
+		 * Returns the wall time the program took to load and run, not
+		 * counting the time it waited for its turn
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+	}
+
+	/**
+	 * Creates an executor that runs up to concurrency programs at once
+	 *
+	 * @param concurrency
+	 *            the greatest number of programs running at any moment
+	 */
+	public EngineExecutor(int concurrency) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency must be positive");
+		this.concurrency = concurrency;
+		ExecutorService perTask = virtualThreadPerTaskExecutor();
+		virtual = perTask != null;
+		if (virtual) {
+			executor = perTask;
+			permits = new Semaphore(concurrency);
+		} else {
+			executor = Executors.newFixedThreadPool(concurrency);
+			permits = null; // the pool's size is the limit
+		}
+	}
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor(), which only
+	 * exists on JVMs with virtual threads
+	 */
+	private static ExecutorService virtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (UnsupportedOperationException e) {
+			return null; // a preview JVM without --enable-preview
+		}
+	}
+
+	/**
+	 * Loads a program and runs it in the DECODED mode
+	 *
+	 * @param source
+	 *            the program's FORTH source
+	 * @param input
+	 *            the tokens its CIN reads
+	 * @return the program's result, once it stops
+	 */
+	public CompletableFuture<Result> submit(String source, String input) {
+		return submit(source, input, ExecutionMode.DECODED);
+	}
+
+	/**
+	 * Loads a program and runs it. The future fails only if the program
+	 * cannot be loaded or an Error, such as an OutOfMemoryError, stops it;
+	 * a program that dies of a RuntimeException while running still has a
+	 * Result.
+	 *
+	 * @param source
+	 *            the program's FORTH source
+	 * @param input
+	 *            the tokens its CIN reads
+	 * @param mode
+	 *            the ExecutionMode to run it in
+	 * @return the program's result, once it stops
+	 */
+	public CompletableFuture<Result> submit(final String source,
+			String input, ExecutionMode mode) {
+		return submit(new Loader() {
+			@Override
+			public ForthEngine load(EngineContext context) throws Exception {
+				ForthEngine engine = new ForthEngine(context);
+				ForthParser.load(engine, new StringReader(source));
+				return engine;
+			}
+		}, input, mode);
+	}
+
+	/**
+	 * Runs a shared program on an engine of its own. Nothing is parsed, and
+	 * the engine holds only the data the program writes.
+	 *
+	 * @param program
+	 *            the program to run
+	 * @param input
+	 *            the tokens its CIN reads
+	 * @param mode
+	 *            the ExecutionMode to run it in
+	 * @return the program's result, once it stops
+	 */
+	public CompletableFuture<Result> submit(final SharedProgram program,
+			String input, ExecutionMode mode) {
+		return submit(new Loader() {
+			@Override
+			public ForthEngine load(EngineContext context) {
+				return program.newEngine(context);
+			}
+		}, input, mode);
+	}
+
+	/**
+	 * Builds the engine a submitted program runs on
+	 */
+	private interface Loader {
+		ForthEngine load(EngineContext context) throws Exception;
+	}
+
+	private CompletableFuture<Result> submit(final Loader loader,
+			final String input, final ExecutionMode mode) {
+		final CompletableFuture<Result> result = new CompletableFuture<Result>();
+		queued.incrementAndGet();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (permits != null)
+						permits.acquire();
+				} catch (InterruptedException e) {
+					queued.decrementAndGet();
+					result.completeExceptionally(e);
+					return;
+				}
+				queued.decrementAndGet();
+				running.incrementAndGet();
+				Result done = null;
+				Throwable error = null;
+				try {
+					done = execute(loader, input, mode);
+				} catch (Throwable e) {
+					// an Error too, or the future would never complete
+					failed.incrementAndGet();
+					error = e;
+				} finally {
+					// the counters are settled before anyone waiting on the
+					// future can read them
+					running.decrementAndGet();
+					completed.incrementAndGet();
+					if (permits != null)
+						permits.release();
+				}
+				if (error == null)
+					result.complete(done);
+				else
+					result.completeExceptionally(error);
+			}
+		});
+		return result;
+	}
+
+	private Result execute(Loader loader, String input, ExecutionMode mode)
+			throws Exception {
+		long start = System.nanoTime();
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		ForthEngine engine = loader.load(new EngineContext(
+				new ByteArrayInputStream(input.getBytes()), new PrintStream(
+						captured, true)));
+		engine.setExecutionMode(mode);
+		RuntimeException failure = null;
+		try {
+			engine.run();
+		} catch (RuntimeException e) {
+			failure = e;
+			failed.incrementAndGet();
+		}
+		return new Result(captured.toString(), engine.getDataStack(), failure,
+				engine.getInstructionCount(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns true if programs run on virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Returns the greatest number of programs running at any moment
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Returns the number of programs submitted but not yet started
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * Returns the number of programs running right now
+	 */
+	public int getRunningCount() {
+		return running.get();
+	}
+
+	/**
+	 * Returns the number of programs that have stopped, including the ones
+	 * that failed
+	 */
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	/**
+	 * Returns the number of programs that died or could not be loaded
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns the number of programs stopped per second since the executor
+	 * was created
+	 */
+	public double getThroughput() {
+		long elapsed = System.nanoTime() - started;
+		return elapsed == 0 ? 0 : completed.get() * 1e9 / elapsed;
+	}
+
+	/**
+	 * Stops taking programs; the ones already submitted still run
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits for every submitted program to stop after a shutdown
+	 *
+	 * @return true if they all stopped before the timeout
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Shuts down and waits for every submitted program to stop. If the
+	 * waiting thread is interrupted it stops waiting and keeps its interrupt
+	 * status.
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		boolean terminated = false;
+		try {
+			while (!terminated)
+				terminated = awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package com.hawkw.ForthEngine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EngineScheduler.java
+ * Time-slices any number of loaded engines over a fixed set of worker
+ * threads. Each turn runs an engine for a quantum of instructions with
+ * ForthEngine.run(long) or resume(long); an engine that yields goes to the
+ * back of a single FIFO queue, so the engines take turns round-robin and one
+ * that never reaches EXIT cannot hold a worker for longer than a quantum.
+ *
+ * An engine's priority is the number of quanta it runs per turn, so an
+ * engine of priority 4 gets four times the instructions of one of priority
+ * 1, and no engine starves. An engine that suspends at a CIN leaves the
+ * queue until it is fed. Engines should have contexts without input (see
+ * EngineContext(PrintStream)): a CIN that reads a stream blocks its worker.
+ *
+ * @author hawk
+ * @see ForthEngine#run(long)
+ */
+public final class EngineScheduler implements AutoCloseable {
+
+	/**
+	 * The default number of instructions in a quantum
+	 */
+	public static final long DEFAULT_QUANTUM = 10000;
+
+	private final ExecutorService workers;
+	private final int workerCount;
+	private final long quantum;
+	private final AtomicLong turns = new AtomicLong();
+
+	/**
+	 * One engine's place in the schedule
+	 */
+	public final class Task {
+		private final ForthEngine engine;
+		private final int priority;
+		private final CompletableFuture<ForthEngine> result = new CompletableFuture<ForthEngine>();
+		private boolean started = false;
+		private volatile long taskTurns = 0;
+		private volatile long instructions = 0;
+		// guarded by this: input fed while the engine was running, and
+		// whether the task is off the queue waiting for input
+		private final StringBuilder pending = new StringBuilder();
+		private boolean parked = false;
+
+		private Task(ForthEngine engine, int priority) {
+			this.engine = engine;
+			this.priority = priority;
+		}
+
+		/**
+		 * Runs the engine for one turn, on a worker
+		 */
+		private void turn() {
+			if (result.isDone())
+				return; // cancelled
+			String input;
+			synchronized (this) {
+				input = pending.toString();
+				pending.setLength(0);
+			}
+			if (!input.isEmpty())
+				engine.feed(input);
+
+			RunStatus status;
+			try {
+				long budget = quantum * priority;
+				status = started ? engine.resume(budget) : engine.run(budget);
+			} catch (Throwable e) {
+				// an Error too, or the future would never complete
+				result.completeExceptionally(e);
+				return;
+			}
+			started = true;
+			instructions = engine.getInstructionCount();
+			taskTurns++;
+			turns.incrementAndGet();
+
+			switch (status) {
+			case FINISHED:
+				result.complete(engine);
+				break;
+			case YIELDED:
+				schedule(this);
+				break;
+			case SUSPENDED:
+				synchronized (this) {
+					if (pending.length() == 0) {
+						parked = true;
+						return;
+					}
+				}
+				schedule(this); // fed while this turn ran
+				break;
+			}
+		}
+
+		/**
+		 * Queues tokens for the engine's CIN, and puts the task back in the
+		 * schedule if it was waiting for them
+		 *
+		 * @param input
+		 *            the tokens
+		 */
+		public void feed(String input) {
+			synchronized (this) {
+				pending.append(input).append(' ');
+				if (!parked)
+					return;
+				parked = false;
+			}
+			schedule(this);
+		}
+
+		/**
+		 * Takes the task out of the schedule. A turn that is running
+		 * finishes first.
+		 *
+		 * @return true if the task had not already finished
+		 */
+		public boolean cancel() {
+			return result.cancel(false);
+		}
+
+		/**
+		 * Returns the engine, which is only safe to look at once the task
+		 * has finished
+		 */
+		public ForthEngine getEngine() {
+			return engine;
+		}
+
+		/**
+		 * Returns a future that completes with the engine when it reaches
+		 * EXIT, or with the exception it died of
+		 */
+		public CompletableFuture<ForthEngine> getResult() {
+			return result;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Returns true if the task is waiting for input
+		 */
+		public synchronized boolean isWaiting() {
+			return parked;
+		}
+
+		/**
+		 * Returns the number of turns the engine has run
+		 */
+		public long getTurns() {
+			return taskTurns;
+		}
+
+		/**
+		 * Returns the number of instructions the engine had run at the end
+		 * of its last turn, which is safe to read while it is running
+		 */
+		public long getInstructionCount() {
+			return instructions;
+		}
+	}
+
+	/**
+	 * Creates a scheduler with DEFAULT_QUANTUM
+	 *
+	 * @param workerCount
+	 *            the number of worker threads
+	 */
+	public EngineScheduler(int workerCount) {
+		this(workerCount, DEFAULT_QUANTUM);
+	}
+
+	/**
+	 * Creates a scheduler
+	 *
+	 * @param workerCount
+	 *            the number of worker threads
+	 * @param quantum
+	 *            the number of instructions an engine of priority 1 runs per
+	 *            turn
+	 */
+	public EngineScheduler(int workerCount, long quantum) {
+		if (workerCount < 1 || quantum < 1)
+			throw new IllegalArgumentException(workerCount + " workers, "
+					+ quantum + " instruction quantum");
+		this.workerCount = workerCount;
+		this.quantum = quantum;
+		this.workers = Executors.newFixedThreadPool(workerCount);
+	}
+
+	/**
+	 * Schedules a loaded engine with priority 1
+	 *
+	 * @param engine
+	 *            the engine, which is run from its first cell
+	 * @return its task
+	 */
+	public Task submit(ForthEngine engine) {
+		return submit(engine, 1);
+	}
+
+	/**
+	 * Schedules a loaded engine
+	 *
+	 * @param engine
+	 *            the engine, which is run from its first cell
+	 * @param priority
+	 *            the number of quanta it runs per turn, at least 1
+	 * @return its task
+	 */
+	public Task submit(ForthEngine engine, int priority) {
+		if (priority < 1)
+			throw new IllegalArgumentException("Priority " + priority);
+		Task task = new Task(engine, priority);
+		schedule(task);
+		return task;
+	}
+
+	private void schedule(final Task task) {
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					task.turn();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed: the task stays where its last turn left it
+		}
+	}
+
+	/**
+	 * Returns the number of worker threads
+	 */
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	/**
+	 * Returns the number of instructions an engine of priority 1 runs per
+	 * turn
+	 */
+	public long getQuantum() {
+		return quantum;
+	}
+
+	/**
+	 * Returns the number of turns run so far, by every engine
+	 */
+	public long getTurnCount() {
+		return turns.get();
+	}
+
+	/**
+	 * Stops the workers. Engines that have not finished are left where their
+	 * last turn stopped. If the closing thread is interrupted it stops
+	 * waiting for the workers and keeps its interrupt status.
+	 */
+	@Override
+	public void close() {
+		workers.shutdownNow();
+		try {
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
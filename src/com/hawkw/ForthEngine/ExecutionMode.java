@@ -0,0 +1,39 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * ExecutionMode.java
+ * Selects how a ForthEngine dispatches the instructions stored in its RAM.
+ * 
+ * @author hawk
+ * @see ForthEngine#setExecutionMode(ExecutionMode)
+ */
+public enum ExecutionMode {
+	/**
+	 * The original dispatch: each instruction's hex value is built with
+	 * Word.getHexValue() and switched on as a String. Kept as the reference
+	 * that the other modes must match.
+	 */
+	REFERENCE,
+
+	/**
+	 * Each instruction's opcode and operand are decoded to ints when the word
+	 * is written to RAM, and eval() switches on the int opcode.
+	 */
+	DECODED,
+
+	/**
+	 * The program is translated once into an array of handlers with their
+	 * operands already bound (direct-threaded code), and each step just runs
+	 * the handler at the program counter. Verbose and debug tracing are
+	 * ignored in this mode.
+	 */
+	THREADED,
+
+	/**
+	 * Runs as THREADED, but a block of straight-line code that has run more
+	 * often than the compile threshold is compiled to JVM bytecode and loaded
+	 * as a hidden class. Anything the compiler cannot handle stays threaded.
+	 * Verbose and debug tracing are ignored in this mode.
+	 */
+	COMPILED
+}
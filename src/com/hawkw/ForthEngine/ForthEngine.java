@@ -1,35 +1,104 @@
 package com.hawkw.ForthEngine;
 
-import java.util.Scanner;
-import com.hawkw.Stack.NodeStack;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.List;
+
+import com.hawkw.Stack.LongStack;
+import com.hawkw.Stack.OverflowPolicy;
 
 public class ForthEngine {
-	// Our Forth Engine's "memory" consists of an array of
-	// MEMORY_MODULE_SIZE-index byte arrays. The default size of a memory module
-	// is 1 kB. A location in memory is addressed as ram[x][y]
+	// Our Forth Engine's "memory" is a single flat array of cells, addressed
+	// by one int. It is 'installed' in modules of MEMORY_MODULE_SIZE cells;
+	// the default size of a memory module is 1 kB. Programs that think in
+	// modules can still address a location as the ordered pair (x, y) through
+	// RAMLocation, which maps to cell x * MEMORY_MODULE_SIZE + y.
 	//
 	// for example,
 	// 0x0000 - 0x0400 : module 0
 	// 0x1000 - 0x1400 : module 1
 	// 0x2000 - 0x2400 : module 2
 	// ...ad nauseum
+	//
+	// Each location holds a tagged cell (see Cell) rather than a Word, so
+	// numbers and decoded instructions are stored as raw longs. An
+	// instruction cell carries its opcode and its operand resolved once, when
+	// it is written, to the flat address that parseHex() would produce.
+	// Strings live in the string pool and are referenced by index.
+	//
+	// The cells themselves are kept by a Memory: a long[] on the heap by
+	// default, or an off-heap MappedMemory for large or persistent address
+	// spaces. Its size is a power of two so that the program counter can wrap
+	// around with a mask instead of module/index carry logic.
 
 	protected static final int DEFAULT_MEMORY_MODULES = 2;
 	protected static final int MEMORY_MODULE_SIZE = 1024;
-	protected static int moduleCount;
-	private Word[][] ram;
+	protected final int moduleCount;
+	private Memory ram;
+	private int addressMask;
+	private static final int UNRESOLVED = -1;
+	private List<String> strings = new ArrayList<String>();
+	private HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+	// true while strings is a SharedProgram's pool, which is copied before
+	// anything is added to it
+	private boolean stringsShared = false;
+	// the words defined by colon definitions in the loaded program
+	private final Dictionary dictionary = new Dictionary();
+	protected ExecutionMode mode = ExecutionMode.DECODED;
+	// the pre-bound handlers for THREADED and COMPILED mode, built on the
+	// first run
+	private ThreadedCode threadedCode;
+	public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+	private int compileThreshold = DEFAULT_COMPILE_THRESHOLD;
+	// set by verify() once the loaded program is proven not to underflow, so
+	// THREADED and COMPILED code can skip the stacks' underflow checks
+	private boolean verified = false;
+	// the instructions executed by the last run, counting every cell a
+	// superinstruction or compiled block covers
+	private long steps = 0;
+	// tokens fed to CIN ahead of the context's input; waiting is set while
+	// the program is suspended at a CIN that found none, and prompted once
+	// that CIN has printed its prompt
+	private final ArrayDeque<String> fed = new ArrayDeque<String>();
+	private boolean waiting = false;
+	private boolean prompted = false;
+	// counts every run and resume, so a Suspension can tell whether the
+	// engine has moved on since it stopped there
+	private long generation = 0;
+	// the step count at which a budgeted run yields, checked only when
+	// control is transferred; yielded is set once it has
+	private long budgetEnd = Long.MAX_VALUE;
+	private boolean yielded = false;
+	// counts what runs, if profiling is on
+	private Profiler profiler;
+	// records every step, if tracing is on
+	private TraceBuffer trace;
 
 	// the Forth Engine consists of three primary variables:
 	// the DataStack, to which numbers are pushed
 	// the ReturnStack, used for subroutines
-	// and the ProgramCounter, which stores the address of the current location
-	// in memory
-	protected NodeStack<Word> DataStack = new NodeStack<Word>();
-	protected NodeStack<Word> ReturnStack = new NodeStack<Word>();
-	protected ProgramCounter counter = new ProgramCounter(0, 0);
-	protected static Scanner scan = new Scanner(System.in);
+	// and the program counter, which stores the address of the current
+	// location in memory. here is the address the next fillRAM() writes to.
+	protected static final int DEFAULT_STACK_SIZE = 64;
+	protected LongStack DataStack = new LongStack(DEFAULT_STACK_SIZE,
+			OverflowPolicy.GROW);
+	protected LongStack ReturnStack = new LongStack(DEFAULT_STACK_SIZE,
+			OverflowPolicy.GROW);
+	protected int pc = 0;
+	protected int here = 0;
 	protected boolean done = false;
 
+	// where this engine reads and prints, and how much it traces; nothing
+	// here is shared with other engines
+	private final EngineContext context;
+	private final PrintStream out;
+	private OutputSink sink;
+	private final boolean debug;
+	private final boolean verbose;
+
 	/**
 	 * 0-argument constructor: creates a ForthEngine with the default amount of
 	 * 'installed' RAM modules
@@ -37,7 +106,20 @@ public class ForthEngine {
 	 * @throws TooMuchRAMRequestedError
 	 */
 	public ForthEngine() throws TooMuchRAMRequestedError {
-		this(DEFAULT_MEMORY_MODULES);
+		this(new EngineContext(), DEFAULT_MEMORY_MODULES);
+	}
+
+	/**
+	 * Context constructor: creates a ForthEngine with the default amount of
+	 * 'installed' RAM modules that reads, prints and traces as the context
+	 * says
+	 * 
+	 * @param context
+	 *            this engine's I/O streams and tracing options
+	 * @throws TooMuchRAMRequestedError
+	 */
+	public ForthEngine(EngineContext context) throws TooMuchRAMRequestedError {
+		this(context, DEFAULT_MEMORY_MODULES);
 	}
 
 	/**
@@ -51,26 +133,577 @@ public class ForthEngine {
 	 *             RAM-addressing system supports up to 16 RAM modules)
 	 */
 	public ForthEngine(int requestedModules) throws TooMuchRAMRequestedError {
+		this(new EngineContext(), requestedModules);
+	}
+
+	/**
+	 * Creates a ForthEngine with a user-requested number of 'installed' RAM
+	 * modules that reads, prints and traces as the context says
+	 * 
+	 * @param context
+	 *            this engine's I/O streams and tracing options
+	 * @param requestedModules
+	 *            the number of RAM modules 'installed' in this ForthEngine
+	 * @throws TooMuchRAMRequestedError
+	 *             if the number of requested modules is greater than 16
+	 */
+	public ForthEngine(EngineContext context, int requestedModules)
+			throws TooMuchRAMRequestedError {
+		this(context, checkModules(requestedModules), new HeapMemory(
+				requestedModules * MEMORY_MODULE_SIZE));
+	}
+
+	private static int checkModules(int requestedModules)
+			throws TooMuchRAMRequestedError {
 		if (requestedModules > 16)
 			throw new TooMuchRAMRequestedError();
-		moduleCount = requestedModules;
-		ram = new Word[moduleCount][MEMORY_MODULE_SIZE];
+		return requestedModules;
+	}
+
+	/**
+	 * Memory constructor: creates a ForthEngine whose RAM is the given
+	 * Memory, for instance a MappedMemory, or a PagedMemory for a large
+	 * address space of which only the pages written are allocated. The
+	 * 16-module limit does not apply; the module view covers as many whole
+	 * modules as the memory holds.
+	 * 
+	 * @param memory
+	 *            the Memory that holds this engine's cells
+	 */
+	public ForthEngine(Memory memory) {
+		this(new EngineContext(), memory);
+	}
+
+	/**
+	 * Creates a ForthEngine whose RAM is the given Memory and that reads,
+	 * prints and traces as the context says
+	 * 
+	 * @param context
+	 *            this engine's I/O streams and tracing options
+	 * @param memory
+	 *            the Memory that holds this engine's cells
+	 */
+	public ForthEngine(EngineContext context, Memory memory) {
+		this(context, Math.max(1, memory.size() / MEMORY_MODULE_SIZE), memory);
+	}
+
+	private ForthEngine(EngineContext context, int modules, Memory memory) {
+		this.context = context;
+		this.out = context.getOutput();
+		this.sink = new StreamSink(out);
+		this.debug = context.isDebug();
+		this.verbose = context.isVerbose();
+		moduleCount = modules;
+		ram = memory;
+		addressMask = ram.size() - 1;
+	}
+
+	/**
+	 * Returns the words defined by the loaded program
+	 * 
+	 * @return this engine's Dictionary
+	 */
+	public Dictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Returns this engine's I/O streams and tracing options
+	 * 
+	 * @return this engine's EngineContext
+	 */
+	public EngineContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Sets where COUT, SOUT and the CIN prompt print, in place of the
+	 * StreamSink over the context's output. Anything the old sink holds is
+	 * flushed first. Traces still go to the context's output.
+	 * 
+	 * @param sink
+	 *            the OutputSink to print to
+	 */
+	public void setOutputSink(OutputSink sink) {
+		this.sink.flush();
+		this.sink = sink;
+	}
+
+	/**
+	 * Returns where COUT, SOUT and the CIN prompt print
+	 * 
+	 * @return this engine's OutputSink
+	 */
+	public OutputSink getOutputSink() {
+		return sink;
+	}
+
+	/**
+	 * Turns profiling on, or off with null. A profiler can be shared by runs
+	 * of several programs on this engine, one after another, to add up their
+	 * counts; it must not be used by two engines at once.
+	 * 
+	 * @param profiler
+	 *            the Profiler to count with, or null
+	 */
+	public void setProfiler(Profiler profiler) {
+		if (profiler != null)
+			profiler.attach(ram.extent());
+		this.profiler = profiler;
+		threadedCode = null; // compiled blocks cannot be counted
+	}
+
+	/**
+	 * Returns the Profiler counting this engine's instructions
+	 * 
+	 * @return the Profiler, or null if profiling is off
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Turns binary tracing on, or off with null. Unlike verbose mode,
+	 * tracing costs a few array stores per step and prints nothing.
+	 * 
+	 * @param trace
+	 *            the TraceBuffer to record every step in, or null
+	 */
+	public void setTraceBuffer(TraceBuffer trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * Returns the TraceBuffer recording this engine's steps
+	 * 
+	 * @return the TraceBuffer, or null if tracing is off
+	 */
+	public TraceBuffer getTraceBuffer() {
+		return trace;
+	}
+
+	/**
+	 * Selects how this engine dispatches instructions
+	 * 
+	 * @param mode
+	 *            the ExecutionMode to use from the next eval() on
+	 */
+	public void setExecutionMode(ExecutionMode mode) {
+		if (mode != this.mode)
+			threadedCode = null;
+		this.mode = mode;
+	}
+
+	/**
+	 * Sets how many times a block is interpreted in COMPILED mode before it
+	 * is compiled to bytecode; 0 compiles every block the first time it runs
+	 * 
+	 * @param threshold
+	 *            the number of interpreted runs before a block is compiled
+	 */
+	public void setCompileThreshold(int threshold) {
+		compileThreshold = threshold;
+		threadedCode = null;
+	}
+
+	/**
+	 * Verifies that the program in RAM cannot underflow either stack (see
+	 * StackVerifier). If it passes, THREADED and COMPILED code run it
+	 * without checking for underflow. Loading a program clears this, but
+	 * changing code with write() does not, so verify after all changes.
+	 * 
+	 * @return the stack depths proven for the program
+	 * @throws UnverifiableProgramException
+	 *             if the program cannot be verified; the message says where
+	 *             and why
+	 */
+	public StackVerifier.Result verify() throws UnverifiableProgramException {
+		verified = false;
+		threadedCode = null;
+		StackVerifier.Result result = StackVerifier.verify(this);
+		verified = true;
+		return result;
+	}
+
+	/**
+	 * Returns true if the program in RAM has passed verify()
+	 * 
+	 * @return true if the program runs without underflow checks
+	 */
+	public boolean isVerified() {
+		return verified;
+	}
+
+	/**
+	 * Returns the number of blocks compiled to bytecode since the program was
+	 * loaded or the execution mode was last changed
+	 * 
+	 * @return the number of compiled blocks
+	 */
+	public int getCompiledBlockCount() {
+		return threadedCode == null ? 0 : threadedCode.getCompiledCount();
+	}
+
+	/**
+	 * Returns the ExecutionMode this engine dispatches with
+	 * 
+	 * @return this engine's ExecutionMode
+	 */
+	public ExecutionMode getExecutionMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the number of instructions the last run executed. A
+	 * superinstruction or compiled block counts as every cell it covers.
+	 * 
+	 * @return the number of instructions executed
+	 */
+	public long getInstructionCount() {
+		return steps;
+	}
+
+	/**
+	 * Returns a copy of the cells on the DataStack, from the bottom of the
+	 * stack to the top
+	 * 
+	 * @return the DataStack's cells
+	 */
+	public long[] getDataStack() {
+		long[] cells = new long[DataStack.size()];
+		for (int i = 0; i < cells.length; i++)
+			cells[i] = DataStack.get(cells.length - 1 - i);
+		return cells;
+	}
+
+	/**
+	 * Returns a copy of the cells on the ReturnStack, from the bottom of the
+	 * stack to the top
+	 * 
+	 * @return the ReturnStack's cells
+	 */
+	public long[] getReturnStack() {
+		long[] cells = new long[ReturnStack.size()];
+		for (int i = 0; i < cells.length; i++)
+			cells[i] = ReturnStack.get(cells.length - 1 - i);
+		return cells;
 	}
 
 	/**
 	 * Runs the program currently stored in memory by resetting the counter to
-	 * (0,0) and evaling and incrementing for each location in RAM
+	 * 0 and evaling and incrementing for each location in RAM
+	 * 
+	 * @return null once the program has reached EXIT, or the Suspension it
+	 *         is waiting in if a CIN found no input
+	 */
+	public Suspension run() {
+		restart();
+		budgetEnd = Long.MAX_VALUE;
+		return proceed();
+	}
+
+	/**
+	 * Runs the program currently stored in memory until EXIT, a CIN with no
+	 * input, or the budget is spent. The budget is only checked when control
+	 * is transferred (IF, CALL, and entering, leaving or jumping over a colon
+	 * definition), so a run may overshoot it by one straight-line stretch of
+	 * code.
+	 * 
+	 * @param instructionBudget
+	 *            the number of instructions to execute before yielding
+	 * @return FINISHED at EXIT, SUSPENDED at a CIN with no input, or YIELDED
+	 *         when the budget ran out; resume(long) continues the program
+	 */
+	public RunStatus run(long instructionBudget) {
+		restart();
+		return proceed(instructionBudget);
+	}
+
+	private void restart() {
+		done = false;
+		steps = 0;
+		pc = 0; // reset the program counter to (0,0)
+		waiting = false;
+		prompted = false;
+		yielded = false;
+	}
+
+	/**
+	 * Continues a suspended program from the CIN it stopped at, which reads
+	 * the tokens fed since
+	 * 
+	 * @return null once the program has reached EXIT, or the Suspension it
+	 *         is waiting in if a CIN found no input
+	 * @throws IllegalStateException
+	 *             if the program is not suspended
+	 */
+	public Suspension resume() {
+		if (!waiting)
+			throw new IllegalStateException("The program is not suspended");
+		done = false;
+		waiting = false;
+		budgetEnd = Long.MAX_VALUE;
+		return proceed();
+	}
+
+	/**
+	 * Continues a program that yielded, or that is suspended at a CIN, with a
+	 * new budget
+	 * 
+	 * @param instructionBudget
+	 *            the number of instructions to execute before yielding
+	 * @return FINISHED, SUSPENDED or YIELDED, as for run(long)
+	 * @throws IllegalStateException
+	 *             if the program has neither yielded nor been suspended
 	 */
-	public void run() {
+	public RunStatus resume(long instructionBudget) {
+		if (!waiting && !yielded)
+			throw new IllegalStateException(
+					"The program has neither yielded nor been suspended");
 		done = false;
-		counter.reset(); // reset the ProgramCounter to (0,0)
-		while (!done) {
-			eval(); // eval the current instruction
-			counter.increment(); // increment the ProgramCounter to the next
-									// position
-			if (ForthParser.verboseMode)
-				System.out.println("-> ProgramCounter incremented to " + "("
-						+ counter.getModule() + "," + counter.getIndex() + ")");
+		waiting = false;
+		yielded = false;
+		return proceed(instructionBudget);
+	}
+
+	private RunStatus proceed(long instructionBudget) {
+		if (instructionBudget < 1)
+			throw new IllegalArgumentException("Instruction budget "
+					+ instructionBudget);
+		budgetEnd = instructionBudget > Long.MAX_VALUE - steps ? Long.MAX_VALUE
+				: steps + instructionBudget;
+		proceed();
+		budgetEnd = Long.MAX_VALUE;
+		if (waiting)
+			return RunStatus.SUSPENDED;
+		return yielded ? RunStatus.YIELDED : RunStatus.FINISHED;
+	}
+
+	/**
+	 * Queues whitespace-separated tokens for CIN. They are read before the
+	 * context's input, and a CIN in an engine whose context has no input
+	 * suspends the program once they run out.
+	 * 
+	 * @param input
+	 *            the tokens to queue
+	 */
+	public void feed(String input) {
+		for (String token : input.trim().split("\\s+"))
+			if (!token.isEmpty())
+				fed.add(token);
+	}
+
+	/**
+	 * Returns true if the program is suspended at a CIN
+	 */
+	public boolean isSuspended() {
+		return waiting;
+	}
+
+	/**
+	 * Returns true if the program stopped because its budget ran out
+	 */
+	public boolean isYielded() {
+		return yielded;
+	}
+
+	/**
+	 * Runs from the program counter until EXIT or a CIN with no input
+	 */
+	private Suspension proceed() {
+		generation++;
+		try {
+			if (mode == ExecutionMode.THREADED
+					|| mode == ExecutionMode.COMPILED)
+				runThreaded();
+			else
+				while (!done) {
+					if (trace != null)
+						trace(pc);
+					if (profiler == null)
+						eval(); // eval the current instruction
+					else
+						profiledEval();
+					steps++;
+					pc = (pc + 1) & addressMask; // increment the program
+													// counter to the next
+													// position
+					if (verbose)
+						out.println("-> ProgramCounter incremented to " + "("
+								+ pc / MEMORY_MODULE_SIZE + "," + pc
+								% MEMORY_MODULE_SIZE + ")");
+				}
+		} catch (RuntimeException e) {
+			if (trace != null)
+				trace.failed(e);
+			throw e;
+		} finally {
+			// whatever stopped the program, nothing it printed is held back
+			sink.flush();
+		}
+		return waiting ? new Suspension(this, generation, pc,
+				getDataStack(), getReturnStack()) : null;
+	}
+
+	/**
+	 * Returns the number of times the engine has run or resumed
+	 */
+	long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Records the step about to run at an address
+	 */
+	private void trace(int address) {
+		long cell = ram.read(address);
+		int depth = DataStack.size();
+		trace.record(address, Cell.isInstruction(cell) ? Cell.opcode(cell)
+				: Opcodes.NOP, Cell.operand(cell), depth,
+				depth == 0 ? 0 : DataStack.peek());
+	}
+
+	/**
+	 * Evaluates the command at the program counter and counts it
+	 */
+	private void profiledEval() {
+		long cell = ram.read(pc);
+		int opcode = Cell.isInstruction(cell) ? Cell.opcode(cell)
+				: Opcodes.NOP;
+		if (!profiler.count(pc, opcode)) {
+			eval();
+			return;
+		}
+		String stack = callStack(opcode);
+		long start = System.nanoTime();
+		eval();
+		profiler.sample(opcode, System.nanoTime() - start, stack);
+	}
+
+	/**
+	 * Executes a threaded handler and counts it
+	 */
+	private int profiledExec(ThreadedCode.Instruction handler, int address) {
+		long cell = ram.read(address);
+		int opcode = Cell.isInstruction(cell) ? Cell.opcode(cell)
+				: Opcodes.NOP;
+		if (!profiler.count(address, opcode))
+			return handler.exec(this);
+		String stack = callStack(opcode);
+		long start = System.nanoTime();
+		int next = handler.exec(this);
+		profiler.sample(opcode, System.nanoTime() - start, stack);
+		return next;
+	}
+
+	/**
+	 * Returns the colon definitions being run, outermost first, and then an
+	 * opcode, in the folded form "main;word;OPCODE". Cells on the ReturnStack
+	 * that were not pushed by an ENTER are skipped.
+	 */
+	private String callStack(int opcode) {
+		StringBuilder stack = new StringBuilder("main");
+		for (int i = ReturnStack.size() - 1; i >= 0; i--) {
+			long enter = ram.read((Cell.value(ReturnStack.get(i)) - 1)
+					& addressMask);
+			if (!Cell.isInstruction(enter) || Cell.opcode(enter) != Opcodes.ENTER)
+				continue;
+			String name = dictionary.nameOf(Cell.operand(enter));
+			stack.append(';').append(
+					name == null ? position(Cell.operand(enter)) : name);
+		}
+		return stack.append(';').append(Opcodes.name(opcode)).toString();
+	}
+
+	/**
+	 * Stops the program at the CIN being executed, which found no input. The
+	 * CIN is run again, as if for the first time, on resume().
+	 * 
+	 * @return -1, for a handler to stop the threaded code with
+	 */
+	int suspend() {
+		waiting = true;
+		done = true;
+		steps--; // the CIN did not execute
+		return -1;
+	}
+
+	/**
+	 * Transfers control to an address, unless the budget is spent, in which
+	 * case the run stops there. Called by the threaded handlers and compiled
+	 * blocks that branch, call, enter, leave or jump.
+	 * 
+	 * @return the address, or -1 to stop the threaded code with
+	 */
+	int branch(int target) {
+		if (steps < budgetEnd)
+			return target;
+		yielded = true;
+		done = true;
+		pc = target; // where resume() carries on
+		return -1;
+	}
+
+	/**
+	 * The decoded evaluator's check of the budget, made after it has moved
+	 * the program counter for a transfer of control
+	 */
+	private void checkBudget() {
+		if (steps >= budgetEnd) {
+			yielded = true;
+			done = true;
+		}
+	}
+
+	/**
+	 * Runs the program as threaded code: each cell is translated once into a
+	 * handler with its operands already bound, and every step is a single
+	 * call that returns the address of the next handler. In COMPILED mode hot
+	 * blocks of handlers are replaced by bytecode. Verbose and debug tracing
+	 * are not checked here.
+	 */
+	private void runThreaded() {
+		if (threadedCode == null)
+			threadedCode = new ThreadedCode(this,
+					mode == ExecutionMode.COMPILED && profiler == null ? new BlockCompiler(
+							this, compileThreshold) : null);
+		ThreadedCode.Instruction[] code = threadedCode.code;
+		int[] weight = threadedCode.weight;
+		int limit = threadedCode.limit;
+		int next = pc;
+		if (profiler != null || trace != null) {
+			// the same loop, recording or counting every step
+			while (next >= 0) {
+				int address = next;
+				if (address >= limit) {
+					threadedCode.reach(address);
+					code = threadedCode.code;
+					weight = threadedCode.weight;
+					limit = threadedCode.limit;
+				}
+				pc = address;
+				if (trace != null)
+					trace(address);
+				next = profiler == null ? code[address].exec(this)
+						: profiledExec(code[address], address);
+				steps += weight[address];
+			}
+			return;
+		}
+		while (next >= 0) {
+			int address = next;
+			if (address >= limit) {
+				// past the tables, which only cover the code run so far
+				threadedCode.reach(address);
+				code = threadedCode.code;
+				weight = threadedCode.weight;
+				limit = threadedCode.limit;
+			}
+			pc = address;
+			next = code[address].exec(this);
+			// read after exec, which may have just translated or compiled
+			// the cell
+			steps += weight[address];
 		}
 	}
 
@@ -78,16 +711,33 @@ public class ForthEngine {
 	 * Evaluates the command at the program counter.
 	 */
 	public void eval() {
+		// the reference path predates superinstructions and colon
+		// definitions, so it leaves them to the decoded one
+		if (mode == ExecutionMode.REFERENCE
+				&& Cell.opcode(ram.read(pc)) <= Opcodes.SOUT)
+			evalReference();
+		else
+			evalDecoded();
+		if (done)
+			sink.flush();
+	}
 
-		Word currentInstruction = ram[counter.getModule()][counter.getIndex()];
+	/**
+	 * Evaluates the command at the program counter by switching on the
+	 * String returned by the getHexValue() of its Word view.
+	 */
+	private void evalReference() {
+
+		Word currentInstruction = toWord(ram.read(pc));
 		Word tempA;
-		Word tempB;
+		long tempCellA;
+		long tempCellB;
 		int tempInt;
 		String address;
 		String bigEnd = currentInstruction.getHexValue().substring(0, 4);
 
-		if (ForthParser.verboseMode)
-			System.out.println("-> evaling " + currentInstruction);
+		if (verbose)
+			out.println("-> evaling " + currentInstruction);
 
 		switch (bigEnd) {
 		case "0x01": // STORE
@@ -95,14 +745,14 @@ public class ForthEngine {
 			writeToRAM(DataStack.pop(), parseHex(address));
 			break;
 		case "0x02": // ADD
-			tempInt = Integer.parseInt(DataStack.pop().getString())
-					+ Integer.parseInt(DataStack.pop().getString());
-			DataStack.push(new Word("" + tempInt));
+			tempInt = Integer.parseInt(popWord().getString())
+					+ Integer.parseInt(popWord().getString());
+			push(new Word("" + tempInt));
 			break;
 		case "0x03": // SUBTRACT
-			tempInt = Integer.parseInt(DataStack.pop().getString())
-					- Integer.parseInt(DataStack.pop().getString());
-			DataStack.push(new Word("" + tempInt));
+			tempInt = Integer.parseInt(popWord().getString())
+					- Integer.parseInt(popWord().getString());
+			push(new Word("" + tempInt));
 			break;
 		case "0x04": // RSTORE
 			ReturnStack.push(DataStack.pop());
@@ -112,22 +762,22 @@ public class ForthEngine {
 			DataStack.push(readFromRAM(parseHex(address)));
 			break;
 		case "0x06": // AND
-			tempInt = Integer.parseInt(DataStack.pop().getString())
-					& Integer.parseInt(DataStack.pop().getString());
-			DataStack.push(new Word("" + tempInt));
+			tempInt = Integer.parseInt(popWord().getString())
+					& Integer.parseInt(popWord().getString());
+			push(new Word("" + tempInt));
 			break;
 		case "0x07": // DROP
 			DataStack.pop();
 			break;
 		case "0x08": // DUP
-			if (ForthParser.verboseMode)
-				System.out.println("-> DUP " + DataStack.peek());
+			if (verbose)
+				out.println("-> DUP " + toWord(DataStack.peek()));
 			DataStack.push(DataStack.peek());
 			break;
 		case "0x09": // OR
-			tempInt = Integer.parseInt(DataStack.pop().getString())
-					| Integer.parseInt(DataStack.pop().getString());
-			DataStack.push(new Word("" + tempInt));
+			tempInt = Integer.parseInt(popWord().getString())
+					| Integer.parseInt(popWord().getString());
+			push(new Word("" + tempInt));
 			break;
 		case "0x0A": // OVER
 			// FIXME: implement this
@@ -136,91 +786,675 @@ public class ForthEngine {
 			DataStack.push(ReturnStack.pop());
 			break;
 		case "0x0C": // SWAP
-			tempA = DataStack.pop();
-			tempB = DataStack.pop();
-			DataStack.push(tempB);
-			DataStack.push(tempA);
+			tempCellA = DataStack.pop();
+			tempCellB = DataStack.pop();
+			DataStack.push(tempCellB);
+			DataStack.push(tempCellA);
 			break;
 		case "0x0D": // XOR
-			tempInt = Integer.parseInt(DataStack.pop().getString())
-					^ Integer.parseInt(DataStack.pop().getString());
-			DataStack.push(new Word("" + tempInt));
+			tempInt = Integer.parseInt(popWord().getString())
+					^ Integer.parseInt(popWord().getString());
+			push(new Word("" + tempInt));
 			break;
 		case "0x0E": // IF
-			if ((DataStack.pop().getHexValue()).substring(0, 3).equals("0x1")) { // if
-																					// N1
-																					// ==
-																					// true;
+			if ((popWord().getHexValue()).substring(0, 3).equals("0x1")) { // if
+																			// N1
+																			// ==
+																			// true;
 				address = currentInstruction.getAddress(); // take the address
 															// from the word
-				if (ForthParser.verboseMode)
-					System.out.println("-> IF branching to " + address);
-				counter.branch(parseHex(address)); // branch to the address
+				if (verbose)
+					out.println("-> IF branching to " + address);
+				pc = location(parseHex(address)); // branch to the address
 			}
-			if (ForthParser.verboseMode)
-				System.out.println("-> IF false, not branching");
+			if (verbose)
+				out.println("-> IF false, not branching");
+			checkBudget();
 			break;
 		case "0x0F": // CALL
 			address = currentInstruction.getAddress(); // take the address from
 														// the word
-			if (ForthParser.verboseMode)
-				System.out.println("-> CALL " + address);
-			counter.branch(parseHex(address)); // branch to the address
+			if (verbose)
+				out.println("-> CALL " + address);
+			pc = location(parseHex(address)); // branch to the address
+			checkBudget();
 			break;
 		case "0x10": // EXIT
-			if (ForthParser.verboseMode)
-				System.out.println("-> EXIT");
+			if (verbose)
+				out.println("-> EXIT");
 			done = true;
 			break;
 		case "0x11": // LIT
-			if (ForthParser.verboseMode)
-				System.out.println("-> LIT " + counter.getNext());
-			DataStack.push(counter.getNext());
+			if (verbose)
+				out.println("-> LIT " + toWord(getNext()));
+			DataStack.push(getNext());
 			break;
 		case "0x12": // COUT
-			if (ForthParser.verboseMode)
-				System.out.println("-> COUT " + DataStack.peek());
-			System.out.println(" > " + DataStack.pop());
+			if (verbose)
+				out.println("-> COUT " + toWord(DataStack.peek()));
+			sink.print(" > " + popWord());
+			sink.println();
+			if (debug || verbose)
+				sink.flush(); // keep it in order with the traces
 			break;
 		case "0x13": // CIN
-			tempA = new Word(getCIN());
-			if (ForthParser.verboseMode)
-				System.out.println("-> CIN " + tempA);
-			DataStack.push(tempA);
+			String token = getCIN();
+			if (token == null) {
+				suspend();
+				pc = (pc - 1) & addressMask; // stay on the CIN
+				break;
+			}
+			tempA = new Word(token);
+			if (verbose)
+				out.println("-> CIN " + tempA);
+			push(tempA);
 			break;
 		case "0x14": // S"
 			break;
 		case "0x15": // SOUT
 			address = currentInstruction.getAddress();
-			System.out.println(" > " + readFromRAM(parseHex(address)));
+			sink.print(" > " + toWord(readFromRAM(parseHex(address))));
+			sink.println();
+			if (debug || verbose)
+				sink.flush();
+			break;
+		}
+
+		if (debug || verbose)
+			printStacks();
+	}
+
+	/**
+	 * Evaluates the command at the program counter by switching on the opcode
+	 * that was decoded when it was written to RAM. Behaves exactly like
+	 * evalReference(), but numbers never leave their cells.
+	 */
+	void evalDecoded() {
+		long currentInstruction = ram.read(pc);
+		int operand;
+		long tempA;
+
+		if (currentInstruction == Cell.EMPTY)
+			throw new IllegalStateException("No instruction at (" + pc
+					/ MEMORY_MODULE_SIZE + "," + pc % MEMORY_MODULE_SIZE + ")");
+		if (verbose)
+			out.println("-> evaling " + toWord(currentInstruction));
+
+		// numbers and strings stored in RAM decode to NOP, just as their
+		// Words evaluate to the no-op S" in the reference path
+		switch (Cell.opcode(currentInstruction)) {
+		case Opcodes.STORE:
+			operand = operandOf(currentInstruction);
+			store(operand, DataStack.pop());
+			break;
+		case Opcodes.ADD:
+			DataStack.push(Cell.number(intValue(DataStack.pop())
+					+ intValue(DataStack.pop())));
+			break;
+		case Opcodes.SUB:
+			DataStack.push(Cell.number(intValue(DataStack.pop())
+					- intValue(DataStack.pop())));
+			break;
+		case Opcodes.RSTORE:
+			ReturnStack.push(DataStack.pop());
+			break;
+		case Opcodes.FETCH:
+			operand = operandOf(currentInstruction);
+			DataStack.push(ram.read(operand));
+			break;
+		case Opcodes.AND:
+			DataStack.push(Cell.number(intValue(DataStack.pop())
+					& intValue(DataStack.pop())));
+			break;
+		case Opcodes.DROP:
+			DataStack.pop();
+			break;
+		case Opcodes.DUP:
+			if (verbose)
+				out.println("-> DUP " + toWord(DataStack.peek()));
+			DataStack.push(DataStack.peek());
+			break;
+		case Opcodes.OR:
+			DataStack.push(Cell.number(intValue(DataStack.pop())
+					| intValue(DataStack.pop())));
+			break;
+		case Opcodes.OVER:
+			// FIXME: implement this
+			break;
+		case Opcodes.RFETCH:
+			DataStack.push(ReturnStack.pop());
+			break;
+		case Opcodes.SWAP:
+			// the reference SWAP pushes both cells back in the order it
+			// popped them, leaving the stack as it was; only the depth check
+			// has any effect
+			requireDepth(2);
+			break;
+		case Opcodes.XOR:
+			DataStack.push(Cell.number(intValue(DataStack.pop())
+					^ intValue(DataStack.pop())));
+			break;
+		case Opcodes.IF:
+			if (isTrue(DataStack.pop())) {
+				operand = operandOf(currentInstruction);
+				if (verbose)
+					out.println("-> IF branching to "
+							+ toWord(currentInstruction).getAddress());
+				pc = operand;
+			}
+			if (verbose)
+				out.println("-> IF false, not branching");
+			checkBudget();
+			break;
+		case Opcodes.CALL:
+			operand = operandOf(currentInstruction);
+			if (verbose)
+				out.println("-> CALL "
+						+ toWord(currentInstruction).getAddress());
+			pc = operand;
+			checkBudget();
+			break;
+		case Opcodes.EXIT:
+			if (verbose)
+				out.println("-> EXIT");
+			done = true;
+			break;
+		case Opcodes.LIT:
+			if (verbose)
+				out.println("-> LIT " + toWord(getNext()));
+			DataStack.push(getNext());
+			break;
+		case Opcodes.COUT:
+			if (verbose)
+				out.println("-> COUT " + toWord(DataStack.peek()));
+			printCell(DataStack.pop());
+			break;
+		case Opcodes.CIN:
+			String token = getCIN();
+			if (token == null) {
+				suspend();
+				pc = (pc - 1) & addressMask; // stay on the CIN
+				break;
+			}
+			tempA = toCell(token);
+			if (verbose)
+				out.println("-> CIN " + format(tempA));
+			DataStack.push(tempA);
+			break;
+		case Opcodes.S:
+			break;
+		case Opcodes.SOUT:
+			operand = operandOf(currentInstruction);
+			printCell(ram.read(operand));
+			break;
+		case Opcodes.ENTER:
+			if (verbose)
+				out.println("-> ENTER "
+						+ position(Cell.operand(currentInstruction)));
+			pc = (enter(pc, Cell.operand(currentInstruction)) - 1)
+					& addressMask;
+			checkBudget();
+			break;
+		case Opcodes.RETURN:
+			pc = (leave() - 1) & addressMask;
+			if (verbose)
+				out.println("-> RETURN to " + position((pc + 1) & addressMask));
+			checkBudget();
+			break;
+		case Opcodes.JUMP:
+			pc = (Cell.operand(currentInstruction) - 1) & addressMask;
+			checkBudget();
+			break;
+		case Opcodes.FETCH_FETCH_ADD_STORE:
+		case Opcodes.LIT_ADD:
+		case Opcodes.DUP_IF:
+		case Opcodes.ADD_STORE:
+		case Opcodes.FETCH_COUT:
+			evalFused(Cell.opcode(currentInstruction),
+					Cell.operand(currentInstruction));
 			break;
 		}
 
-		if (ForthParser.debugMode || ForthParser.verboseMode) {
-			if (!DataStack.empty())
-				System.out
-						.println("Debug: DataStack = " + DataStack.toString());
-			if (!ReturnStack.empty())
-				System.out.println("Debug: ReturnStack = "
-						+ ReturnStack.toString());
+		if (debug || verbose)
+			printStacks();
+	}
+
+	/**
+	 * Evaluates a superinstruction written by Superinstructions.fuse(), and
+	 * leaves the program counter on the last cell of the sequence it replaced
+	 * (or on the branch target, for a DUP IF that branches)
+	 */
+	private void evalFused(int opcode, int operand) {
+		switch (opcode) {
+		case Opcodes.FETCH_FETCH_ADD_STORE:
+			long a = ram.read(operand);
+			long b = ram.read(tailOperand(1));
+			store(tailOperand(3), Cell.number(intValue(b) + intValue(a)));
+			break;
+		case Opcodes.LIT_ADD:
+			DataStack.push(Cell.number(operand + intValue(DataStack.pop())));
+			break;
+		case Opcodes.DUP_IF:
+			checkBudget();
+			if (isTrue(DataStack.peek())) {
+				pc = operand;
+				steps++;
+				return;
+			}
+			break;
+		case Opcodes.ADD_STORE:
+			store(operand, Cell.number(intValue(DataStack.pop())
+					+ intValue(DataStack.pop())));
+			break;
+		case Opcodes.FETCH_COUT:
+			printCell(ram.read(operand));
+			break;
+		}
+		pc = (pc + Superinstructions.length(opcode) - 1) & addressMask;
+		steps += Superinstructions.length(opcode) - 1;
+	}
+
+	/**
+	 * Returns the operand of the cell a given distance after the program
+	 * counter
+	 */
+	private int tailOperand(int offset) {
+		return Cell.operand(ram.read((pc + offset) & addressMask));
+	}
+
+	private void printStacks() {
+		if (!DataStack.empty())
+			out.println("Debug: DataStack = " + stackString(DataStack));
+		if (!ReturnStack.empty())
+			out.println("Debug: ReturnStack = "
+					+ stackString(ReturnStack));
+	}
+
+	/**
+	 * returns a String representing the state of a stack, top first
+	 */
+	private String stackString(LongStack stack) {
+		StringBuilder returnString = new StringBuilder("[ ");
+		for (int i = 0; i < stack.size(); i++) {
+			if (i > 0)
+				returnString.append(", ");
+			returnString.append(format(stack.get(i)));
 		}
+		return returnString.append(" ]").toString();
+	}
+
+	/**
+	 * Returns the int value of a cell for arithmetic. Only numbers take the
+	 * fast path; anything else is parsed from its Word view, exactly as the
+	 * reference path does (and fails the same way).
+	 */
+	int intValue(long cell) {
+		if (Cell.isNumber(cell))
+			return Cell.value(cell);
+		return Integer.parseInt(toWord(cell).getString());
+	}
+
+	/**
+	 * Tests a cell the way IF does: true if the hex value of its Word view
+	 * begins with "0x1". Numbers and strings are Words carrying the S" opcode
+	 * (0x14), so only instructions with opcodes outside 0x10 - 0x1F are false.
+	 * 
+	 * @param cell
+	 *            the cell to test
+	 * @return true if IF should branch on this cell
+	 */
+	static boolean isTrue(long cell) {
+		if (Cell.isNumber(cell) || Cell.isString(cell))
+			return true;
+		if (cell == Cell.EMPTY)
+			throw new NullPointerException("IF on an empty cell");
+		return (Cell.opcode(cell) >>> 4) == 1;
+	}
+
+	/**
+	 * Returns where IF continues: target if the cell is true, next otherwise
+	 */
+	static int branchTarget(long cell, int target, int next) {
+		return isTrue(cell) ? target : next;
+	}
+
+	/**
+	 * Returns an address as the (module,index) pair it is printed as
+	 */
+	static String position(int address) {
+		return "(" + address / MEMORY_MODULE_SIZE + ","
+				+ address % MEMORY_MODULE_SIZE + ")";
+	}
+
+	/**
+	 * Enters a colon definition: pushes the address after the ENTER onto the
+	 * ReturnStack
+	 * 
+	 * @return the address of the definition's first instruction
+	 */
+	int enter(int address, int target) {
+		ReturnStack.push(Cell.number((address + 1) & addressMask));
+		return target;
+	}
+
+	/**
+	 * Leaves a colon definition: pops the address to return to off the
+	 * ReturnStack
+	 * 
+	 * @return the address to continue at
+	 */
+	int leave() {
+		return Cell.value(ReturnStack.pop()) & addressMask;
+	}
+
+	/**
+	 * Throws an EmptyStackException unless the DataStack holds at least depth
+	 * cells
+	 */
+	void requireDepth(int depth) {
+		if (DataStack.size() < depth)
+			throw new EmptyStackException();
+	}
+
+	/**
+	 * Prints a cell the way COUT and SOUT do
+	 */
+	void printCell(long cell) {
+		sink.print(" > ");
+		if (Cell.tag(cell) == Cell.TAG_NUMBER)
+			sink.print(Cell.value(cell));
+		else
+			sink.print(format(cell));
+		sink.println();
+		if (debug || verbose)
+			sink.flush(); // keep it in order with the traces
+	}
+
+	/**
+	 * Returns the resolved operand of an instruction cell. If the operand
+	 * could not be resolved when it was written to RAM, the reference path is
+	 * run so that the same exception is thrown.
+	 */
+	int operandOf(long instruction) {
+		int operand = Cell.operand(instruction);
+		if (operand == UNRESOLVED) {
+			readFromRAM(parseHex(toWord(instruction).getAddress()));
+			throw new IllegalStateException("Unresolved address "
+					+ toWord(instruction).getAddress());
+		}
+		return operand;
+	}
+
+	/**
+	 * Resolves the operand of a word once, the same way parseHex() would at
+	 * run time.
+	 * 
+	 * @return the flat address, or UNRESOLVED if parseHex() would throw or
+	 *         the location would be out of bounds
+	 */
+	private int resolve(Word word) {
+		RAMLocation r;
+		try {
+			r = parseLocation(word.getAddress());
+		} catch (NumberFormatException e) {
+			return UNRESOLVED;
+		}
+		if (r.getModule() >= moduleCount || r.getIndex() >= MEMORY_MODULE_SIZE)
+			return UNRESOLVED;
+		return r.toAddress();
+	}
+
+	/**
+	 * Converts a Word into the cell that represents it in RAM. Strings that
+	 * are exactly the decimal form of an int become numbers; other strings
+	 * are added to the string pool.
+	 * 
+	 * @param word
+	 *            the Word to convert
+	 * @return the equivalent cell
+	 */
+	public long toCell(Word word) {
+		if (word == null)
+			return Cell.EMPTY;
+		if (word.getString() != null)
+			return toCell(word.getString());
+		return Cell.instruction(word.getOpcode(), word.getOperand(),
+				resolve(word));
+	}
+
+	/**
+	 * Converts a String into a NUMBER cell if it is the decimal form of an
+	 * int, or a STRING cell otherwise
+	 */
+	long toCell(String string) {
+		try {
+			int value = Integer.parseInt(string);
+			if (Integer.toString(value).equals(string))
+				return Cell.number(value);
+		} catch (NumberFormatException e) {
+			// not a number, so it goes in the string pool
+		}
+		if (stringsShared)
+			setStringPool(strings);
+		Integer index = stringIndices.get(string);
+		if (index == null) {
+			index = strings.size();
+			strings.add(string);
+			stringIndices.put(string, index);
+		}
+		return Cell.string(index);
+	}
+
+	/**
+	 * Boxes a cell into its Word view, for debugging and the reference path
+	 * 
+	 * @param cell
+	 *            the cell to box
+	 * @return the equivalent Word, or null for an empty cell
+	 */
+	public Word toWord(long cell) {
+		switch (Cell.tag(cell)) {
+		case Cell.TAG_NUMBER:
+			return new Word(Integer.toString(Cell.value(cell)));
+		case Cell.TAG_STRING:
+			return new Word(strings.get(Cell.value(cell)));
+		case Cell.TAG_INSTRUCTION:
+			return Word.wordBuilder(Cell.opcode(cell), Cell.rawAddress(cell));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the String a cell prints as, the same as its Word view's
+	 * toString()
+	 */
+	String format(long cell) {
+		switch (Cell.tag(cell)) {
+		case Cell.TAG_NUMBER:
+			return Integer.toString(Cell.value(cell));
+		case Cell.TAG_STRING:
+			return strings.get(Cell.value(cell));
+		default:
+			return String.valueOf(toWord(cell));
+		}
+	}
+
+	private Word popWord() {
+		return toWord(DataStack.pop());
 	}
 
 	public void fillRAM(Word word) {
-		ram[counter.getModule()][counter.getIndex()] = word;
-		counter.increment();
+		verified = false;
+		store(here, toCell(word));
+		here = (here + 1) & addressMask;
+	}
+
+	/**
+	 * Writes a cell the compiler built itself at the here pointer
+	 */
+	void fillRAM(long cell) {
+		verified = false;
+		store(here, cell);
+		here = (here + 1) & addressMask;
 	}
 
 	public void push(Word instruction) {
-		this.DataStack.push(instruction);
+		this.DataStack.push(toCell(instruction));
+	}
+
+	/**
+	 * Returns the cell at a flat address
+	 * 
+	 * @param address
+	 *            the address of the cell
+	 * @return the cell at that address
+	 */
+	public long read(int address) {
+		return ram.read(address);
+	}
+
+	/**
+	 * Writes a cell to a flat address
+	 * 
+	 * @param address
+	 *            the address of the cell
+	 * @param cell
+	 *            the cell to write
+	 */
+	public void write(int address, long cell) {
+		store(address, cell);
+	}
+
+	/**
+	 * Writes a cell to memory, discarding any threaded code translated from
+	 * the cell it replaces
+	 */
+	private void store(int address, long cell) {
+		ram.write(address, cell);
+		if (threadedCode != null)
+			threadedCode.invalidate(address);
+	}
+
+	/**
+	 * Discards all threaded code and any verification, after memory has been
+	 * changed behind the engine's back (for instance by a bulk load)
+	 */
+	void discardCompiledCode() {
+		threadedCode = null;
+		verified = false;
+	}
+
+	/**
+	 * returns the value of the cell after the program counter
+	 * 
+	 * @return the value of the next cell in RAM
+	 */
+	private long getNext() {
+		return ram.read((pc + 1) & addressMask);
+	}
+
+	/**
+	 * Returns the flat address of a location in the module view, failing the
+	 * same way indexing the old RAM matrix did if it is out of bounds
+	 */
+	private int location(RAMLocation r) {
+		if (r.getModule() < 0 || r.getModule() >= moduleCount
+				|| r.getIndex() < 0 || r.getIndex() >= MEMORY_MODULE_SIZE)
+			throw new ArrayIndexOutOfBoundsException("(" + r.getModule()
+					+ "," + r.getIndex() + ")");
+		return r.toAddress();
 	}
 
-	private Word readFromRAM(RAMLocation r) {
-		return ram[r.getModule()][r.getIndex()];
+	private long readFromRAM(RAMLocation r) {
+		return ram.read(location(r));
 	}
 
 	public void writeToRAM(Word s, RAMLocation r) {
-		ram[r.getModule()][r.getIndex()] = s;
+		writeToRAM(toCell(s), r);
+	}
+
+	private void writeToRAM(long cell, RAMLocation r) {
+		store(location(r), cell);
+	}
+
+	int getAddressMask() {
+		return addressMask;
+	}
+
+	/**
+	 * Returns the Memory that holds this engine's cells
+	 * 
+	 * @return this engine's Memory
+	 */
+	public Memory getMemory() {
+		return ram;
+	}
+
+	/**
+	 * Returns the strings referenced by STRING cells, in pool order
+	 */
+	List<String> getStringPool() {
+		return strings;
+	}
+
+	/**
+	 * Replaces the string pool, for instance with one loaded from an image
+	 */
+	void setStringPool(List<String> pool) {
+		strings = new ArrayList<String>(pool);
+		stringsShared = false;
+		stringIndices.clear();
+		for (int i = 0; i < strings.size(); i++)
+			stringIndices.put(strings.get(i), i);
+	}
+
+	/**
+	 * Reads strings from a pool shared with other engines, until this engine
+	 * adds one of its own
+	 */
+	void shareStringPool(List<String> pool) {
+		strings = pool;
+		stringIndices.clear();
+		stringsShared = true;
+	}
+
+	/**
+	 * Marks the loaded program as verified without verifying it again, for a
+	 * program that was verified before it was shared
+	 */
+	void markVerified() {
+		verified = true;
+		threadedCode = null;
+	}
+
+	/**
+	 * Returns the address the next fillRAM() writes to
+	 */
+	int getHere() {
+		return here;
+	}
+
+	void setHere(int address) {
+		here = address & addressMask;
+	}
+
+	/**
+	 * Returns the number of 'installed' RAM modules
+	 * 
+	 * @return the number of RAM modules in this engine
+	 */
+	public int getModuleCount() {
+		return moduleCount;
+	}
+
+	/**
+	 * Returns the number of addressable cells in RAM
+	 * 
+	 * @return the size of RAM in cells
+	 */
+	public int getMemorySize() {
+		return moduleCount * MEMORY_MODULE_SIZE;
 	}
 
 	/**
@@ -236,7 +1470,7 @@ public class ForthEngine {
 	 * @author hawk
 	 * 
 	 */
-	class RAMLocation {
+	public static class RAMLocation {
 		protected int module, index;
 
 		public RAMLocation(int m, int i) {
@@ -259,6 +1493,28 @@ public class ForthEngine {
 		public void setModule(int module) {
 			this.module = module;
 		}
+
+		/**
+		 * Returns the flat address of this location
+		 * 
+		 * @return module * MEMORY_MODULE_SIZE + index
+		 */
+		public int toAddress() {
+			return module * MEMORY_MODULE_SIZE + index;
+		}
+
+		/**
+		 * Returns the location of a flat address in the module view
+		 * 
+		 * @param address
+		 *            a flat address
+		 * @return the RAMLocation (address / MEMORY_MODULE_SIZE, address %
+		 *         MEMORY_MODULE_SIZE)
+		 */
+		public static RAMLocation fromAddress(int address) {
+			return new RAMLocation(address / MEMORY_MODULE_SIZE, address
+					% MEMORY_MODULE_SIZE);
+		}
 	}
 
 	/**
@@ -271,6 +1527,10 @@ public class ForthEngine {
 	 * @return a RAMLocation representing the location in the RAM matrix
 	 */
 	public RAMLocation parseHex(String address) {
+		return parseLocation(address);
+	}
+
+	private static RAMLocation parseLocation(String address) {
 		int module;
 		int index;
 		if (address.length() == 3) {
@@ -284,81 +1544,25 @@ public class ForthEngine {
 	}
 
 	/**
-	 * The ProgramCounter is a special instance of RAMLocation that represents
-	 * the current location in memory. The programCounter has access to the
-	 * increment method, which moves the program counter to the next location in
-	 * the RAM matrix.
-	 * 
-	 * @see RAMLocation
+	 * Prompts for and reads the next token from this engine's input: a token
+	 * fed to the engine if there is one, otherwise the context's next token.
+	 * A CIN that is suspended and resumed prompts only once.
 	 * 
+	 * @return the token CIN pushes, or null if the context has no input and
+	 *         nothing has been fed
 	 */
-	class ProgramCounter extends RAMLocation {
-
-		public ProgramCounter(int m, int i) {
-			super(m, i);
-		}
-
-		/**
-		 * Increments the PC to the next loc in the memory matrix.
-		 */
-		public void increment() {
-			if (this.index == 1023 && this.module == moduleCount) {
-				// if the index of the program counter is at the 1023rd (final)
-				// location in the last memory module in the matrix, then it is
-				// time to 'wrap around' and go back to index [0][0]
-				this.reset();
-			} else if (this.index >= MEMORY_MODULE_SIZE) {
-				// if the program counter currently points to the last index in
-				// the memory module, then it is time to go to the 0th location
-				// in the next module
-				this.module += 1;
-				this.index = 0;
-			} else if (this.index < MEMORY_MODULE_SIZE) {
-				// if the index that the program counter currently points to is
-				// less than the size of the memory module, then we just
-				// increment to the next index in the module
-				this.index += 1;
-			}
-		}
-
-		/**
-		 * returns the value of the cell after the ProgramCounter
-		 * 
-		 * @return the value of the next cell in RAM
-		 */
-		public Word getNext() {
-			if (this.index == 1023 && this.module == moduleCount) {
-				return ram[0][0];
-			} else if (this.index >= MEMORY_MODULE_SIZE) {
-				return ram[module + 1][0];
-			} else {
-				return ram[module][index + 1];
-			}
-		}
-
-		/**
-		 * resets the program counter to (0,0)
-		 */
-		public void reset() {
-			this.index = 0;
-			this.module = 0;
+	public String getCIN() {
+		if (!prompted) {
+			sink.print(" > ");
+			prompted = true;
 		}
-
-		/**
-		 * sets the program counter equal to the RAMLocation given as a
-		 * parameter
-		 * 
-		 * @param r
-		 *            the RAMLocation to branch to
-		 */
-		public void branch(RAMLocation r) {
-			this.module = r.getModule();
-			this.index = r.getIndex();
+		String token = fed.poll();
+		if (token == null) {
+			sink.flush(); // the prompt has to show before CIN waits
+			token = context.nextToken();
 		}
-	}
-
-	public static String getCIN() {
-		System.out.print(" > ");
-		return scan.next();
+		if (token != null)
+			prompted = false;
+		return token;
 	}
 }
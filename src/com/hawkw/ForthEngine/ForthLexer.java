@@ -0,0 +1,84 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * ForthLexer.java
+ * Splits FORTH source into whitespace-separated tokens as it reads it. The
+ * source is read through one fixed CharBuffer and only the current token is
+ * ever held, so a source of any size is tokenized in constant memory.
+ *
+ * @author hawk
+ * @see ForthParser#load(ForthEngine, Reader)
+ */
+public final class ForthLexer {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader in;
+	private final CharBuffer buffer = CharBuffer.allocate(BUFFER_SIZE);
+	private final StringBuilder token = new StringBuilder();
+	private boolean ended = false;
+	private int line = 1;
+	private int tokenLine = 1;
+
+	/**
+	 * Creates a lexer over a source
+	 *
+	 * @param in
+	 *            the source to read; it need not be buffered
+	 */
+	public ForthLexer(Reader in) {
+		this.in = in;
+		buffer.flip(); // start out empty
+	}
+
+	/**
+	 * Reads the next token
+	 *
+	 * @return the next token, or null at the end of the source
+	 * @throws IOException
+	 *             if the source cannot be read
+	 */
+	public String next() throws IOException {
+		token.setLength(0);
+		while (buffer.hasRemaining() || fill()) {
+			char c = buffer.get();
+			if (Character.isWhitespace(c)) {
+				if (c == '\n')
+					line++;
+				if (token.length() > 0)
+					break;
+			} else {
+				if (token.length() == 0)
+					tokenLine = line;
+				token.append(c);
+			}
+		}
+		return token.length() == 0 ? null : token.toString();
+	}
+
+	/**
+	 * Returns the line the last token returned by next() started on,
+	 * counting from 1
+	 */
+	public int getLine() {
+		return tokenLine;
+	}
+
+	private boolean fill() throws IOException {
+		if (ended)
+			return false;
+		buffer.clear();
+		int read;
+		do {
+			read = in.read(buffer);
+		} while (read == 0);
+		buffer.flip();
+		if (read < 0)
+			ended = true;
+		return read > 0;
+	}
+}
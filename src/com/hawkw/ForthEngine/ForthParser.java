@@ -1,16 +1,16 @@
 package com.hawkw.ForthEngine;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 import com.hawkw.Queue.EmptyQueueException;
-import com.hawkw.Queue.NodeQueue;
 
 public class ForthParser {
 
-	public static boolean debugMode = false;
-	public static boolean verboseMode = false;
-	public static Scanner stream;
+	// the size of a memory file created by --mmap=<file>: 1M cells (8 MB)
+	private static final int DEFAULT_MAPPED_CELLS = 1 << 20;
 
 	/**
 	 * Gets the opcode for a FORTH command from the OpcodeLibrary
@@ -48,7 +48,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x00;
+				return Opcodes.NOP;
 			}
 
 			@Override
@@ -61,7 +61,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x01;
+				return Opcodes.STORE;
 			}
 
 			@Override
@@ -74,7 +74,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x02;
+				return Opcodes.ADD;
 			}
 
 			@Override
@@ -87,7 +87,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x03;
+				return Opcodes.SUB;
 			}
 
 			@Override
@@ -100,7 +100,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x04;
+				return Opcodes.RSTORE;
 			}
 
 			@Override
@@ -113,7 +113,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x05;
+				return Opcodes.FETCH;
 			}
 
 			@Override
@@ -126,7 +126,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x06;
+				return Opcodes.AND;
 			}
 
 			@Override
@@ -139,7 +139,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x07;
+				return Opcodes.DROP;
 			}
 
 			@Override
@@ -152,7 +152,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x08;
+				return Opcodes.DUP;
 			}
 
 			@Override
@@ -165,7 +165,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x09;
+				return Opcodes.OR;
 			}
 
 			@Override
@@ -178,7 +178,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x0A;
+				return Opcodes.OVER;
 			}
 
 			@Override
@@ -191,7 +191,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x0B;
+				return Opcodes.RFETCH;
 			}
 
 			@Override
@@ -205,7 +205,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x0C;
+				return Opcodes.SWAP;
 			}
 
 			@Override
@@ -218,7 +218,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x0D;
+				return Opcodes.XOR;
 			}
 
 			@Override
@@ -231,7 +231,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x0E;
+				return Opcodes.IF;
 			}
 
 			@Override
@@ -243,7 +243,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x0F;
+				return Opcodes.CALL;
 			}
 
 			@Override
@@ -255,7 +255,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x10;
+				return Opcodes.EXIT;
 			}
 
 			@Override
@@ -267,7 +267,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x11;
+				return Opcodes.LIT;
 			}
 
 			@Override
@@ -279,7 +279,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x12;
+				return Opcodes.COUT;
 			}
 
 			@Override
@@ -291,7 +291,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x13;
+				return Opcodes.CIN;
 			}
 
 			@Override
@@ -303,7 +303,7 @@ public class ForthParser {
 
 			@Override
 			int opcode() {
-				return 0x14;
+				return Opcodes.S;
 			}
 
 			@Override
@@ -318,152 +318,404 @@ public class ForthParser {
 		abstract int requiredArgs();
 	}
 
+	/**
+	 * Where the compiler gets its tokens from
+	 */
+	private interface Tokens {
+		/**
+		 * Returns the next token, or null at the end of the source
+		 */
+		String next() throws IOException;
+
+		/**
+		 * Describes where the last token came from, for error messages
+		 */
+		String where();
+	}
+
+	/**
+	 * Reads a FORTH program from a stream, filters out the comments and
+	 * compiles it into the given engine's RAM.
+	 * 
+	 * @param engine
+	 *            the ForthEngine whose RAM the program is loaded into
+	 * @param stream
+	 *            a Scanner over the program's source
+	 * @throws EmptyQueueException
+	 *             if the source ends in the middle of an instruction
+	 */
+	public static void load(ForthEngine engine, final Scanner stream)
+			throws EmptyQueueException {
+		try {
+			compile(engine, new Tokens() {
+				@Override
+				public String next() {
+					return stream.hasNext() ? stream.next() : null;
+				}
+
+				@Override
+				public String where() {
+					return "";
+				}
+			});
+		} catch (IOException e) {
+			// a Scanner keeps its I/O errors to itself
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads a FORTH program from a Reader and compiles it into the given
+	 * engine's RAM in a single pass: each token is compiled as soon as it is
+	 * read, so memory use does not grow with the size of the source.
+	 * 
+	 * @param engine
+	 *            the ForthEngine whose RAM the program is loaded into
+	 * @param source
+	 *            the program's source; it need not be buffered
+	 * @throws EmptyQueueException
+	 *             if the source ends in the middle of an instruction
+	 * @throws IOException
+	 *             if the source cannot be read
+	 */
+	public static void load(ForthEngine engine, Reader source)
+			throws EmptyQueueException, IOException {
+		final ForthLexer lexer = new ForthLexer(source);
+		compile(engine, new Tokens() {
+			@Override
+			public String next() throws IOException {
+				return lexer.next();
+			}
+
+			@Override
+			public String where() {
+				return "line " + lexer.getLine() + ": ";
+			}
+		});
+	}
+
+	/**
+	 * Compiles tokens into RAM as they arrive, skipping comments: a comment
+	 * runs from a token containing "(" to the first token, possibly the same
+	 * one, containing ")"
+	 */
+	private static void compile(ForthEngine engine, Tokens tokens)
+			throws EmptyQueueException, IOException {
+		PrintStream out = engine.getContext().getOutput();
+		boolean debugMode = engine.getContext().isDebug();
+		boolean verboseMode = engine.getContext().isVerbose();
+		int currentInstruction = 0x00;
+		int currentAddress = 0x0000;
+
+		if (debugMode && !verboseMode)
+			out.print("Debug: compiling instructions...");
+
+		Dictionary dictionary = engine.getDictionary();
+		// the JUMP over the definition being compiled, or -1 outside one
+		int definition = -1;
+
+		String token;
+		while ((token = tokens.next()) != null) {
+			if (verboseMode)
+				out.println("-> read \"" + token + "\"");
+			if (token.contains("(")) {
+				// skip to the end of the comment
+				while (token != null && !token.contains(")"))
+					token = tokens.next();
+			} else if (token.contains("S\"")) {
+				// a string: the tokens up to the one holding the closing
+				// quote, which is dropped, then the string's address
+				StringBuilder s = new StringBuilder();
+				token = required(tokens);
+				do {
+					s.append(token).append(' ');
+					token = required(tokens);
+				} while (!token.contains("\""));
+				currentAddress = Integer.parseInt(required(tokens), 16);
+				if (verboseMode)
+					out.println("-> fillRAM "
+							+ Word.wordBuilder(0x14, currentAddress));
+				engine.fillRAM(Word.wordBuilder(0x14, currentAddress));
+				engine.writeToRAM(Word.wordBuilder(s.toString()), engine
+						.parseHex(Integer.toHexString(currentAddress)));
+			} else if (token.equals(":")) {
+				// a colon definition is compiled in place, behind a JUMP
+				// that the code around it takes over it
+				if (definition >= 0)
+					throw new IllegalArgumentException(tokens.where()
+							+ "a definition cannot contain another");
+				String name = required(tokens);
+				if (name.equals(":") || name.equals(";"))
+					throw new IllegalArgumentException(tokens.where()
+							+ "\"" + name + "\" cannot be defined");
+				definition = engine.getHere();
+				emit(engine, out, verboseMode, Cell.instruction(Opcodes.JUMP,
+						0, 0));
+				dictionary.define(name, engine.getHere());
+			} else if (token.equals(";")) {
+				if (definition < 0)
+					throw new IllegalArgumentException(tokens.where()
+							+ "; outside a definition");
+				emit(engine, out, verboseMode,
+						Cell.instruction(Opcodes.RETURN, 0, 0));
+				engine.write(definition, flat(Opcodes.JUMP, engine.getHere()));
+				definition = -1;
+			} else if (dictionary.lookup(token) != Dictionary.UNDEFINED) {
+				emit(engine, out, verboseMode,
+						flat(Opcodes.ENTER, dictionary.lookup(token)));
+			} else {
+				int requiredArgs;
+				try {
+					requiredArgs = getReqArgs(token);
+				} catch (IllegalArgumentException e) {
+					// a module may call a word that another module defines
+					if (dictionary.refer(token, engine.getHere())) {
+						emit(engine, out, verboseMode, Cell.instruction(
+								Opcodes.ENTER, 0, Dictionary.UNDEFINED));
+						continue;
+					}
+					throw new IllegalArgumentException(tokens.where()
+							+ "unknown word \"" + token + "\"", e);
+				}
+				currentInstruction = getOpcode(token);
+				if (requiredArgs == 1) {
+					currentAddress = Integer.parseInt(required(tokens), 16);
+					if (verboseMode)
+						out.println("-> fillRAM "
+								+ Word.wordBuilder(currentInstruction,
+										currentAddress));
+					engine.fillRAM(Word.wordBuilder(currentInstruction,
+							currentAddress));
+				} else if (requiredArgs == 0) {
+					if (verboseMode)
+						out.println("-> fillRAM "
+								+ Word.wordBuilder(currentInstruction));
+					engine.fillRAM(Word.wordBuilder(currentInstruction));
+				} else {
+					throw new IllegalArgumentException(tokens.where() + token
+							+ " is only valid as S\"");
+				}
+			}
+		}
+		if (definition >= 0)
+			throw new EmptyQueueException(tokens.where()
+					+ "the source ends in the middle of a definition");
+		if (debugMode && !verboseMode)
+			out.print("done!\n");
+	}
+
+	/**
+	 * Builds an instruction whose operand is a flat address
+	 */
+	private static long flat(int opcode, int address) {
+		return Cell.instruction(opcode, address & 0xFFFF, address);
+	}
+
+	private static void emit(ForthEngine engine, PrintStream out,
+			boolean verboseMode, long cell) {
+		if (verboseMode)
+			out.println("-> fillRAM " + engine.toWord(cell));
+		engine.fillRAM(cell);
+	}
+
+	/**
+	 * Returns the next token of an instruction that is not finished yet
+	 */
+	private static String required(Tokens tokens) throws EmptyQueueException,
+			IOException {
+		String token = tokens.next();
+		if (token == null)
+			throw new EmptyQueueException(tokens.where()
+					+ "the source ends in the middle of an instruction");
+		return token;
+	}
+
+	/**
+	 * Compiles a source file into an ObjectModule, in an engine the size of
+	 * the one it will be linked into
+	 */
+	private static ObjectModule compileModule(File file, EngineContext context,
+			ForthEngine engine) throws EmptyQueueException, IOException {
+		try (Reader source = new FileReader(file)) {
+			return ObjectModule.compile(file.getName(), source,
+					new ForthEngine(context, new HeapMemory(engine
+							.getMemorySize())));
+		}
+	}
+
 	public static void main(String[] argv) {
 
 		ForthEngine engine = null;
 		File target = null;
-
-		NodeQueue<String> filterQueue = new NodeQueue<String>();
-		boolean engineRunning = false;
+		File image = null;
+		ExecutionMode mode = ExecutionMode.DECODED;
+		boolean fuse = false;
+		boolean verify = false;
+		boolean profile = false;
+		File folded = null;
+		File traceFile = null;
+		boolean debugMode = false;
+		boolean verboseMode = false;
+		String memoryOption = null;
+		String[] libraries = null;
+
+		for (String s : argv) {
+			if (s.startsWith("--batch=")) {
+				// a whole directory of programs at once
+				try {
+					BatchRunner.main(argv);
+				} catch (IOException e) {
+					System.err.println("I/O error: " + e.getMessage());
+				}
+				return;
+			}
+		}
 
 		// really gross and ugly way of handling input
 		if (argv.length == 0) {
-			System.out
-					.println("Please enter the name of the file to be interpreted.");
+			System.out.println("Please enter the name of the file to be interpreted.");
 
 		} else {
 			try {
 				for (String s : argv) {
-					if (s.contains("--mem")) {
-						engine = new ForthEngine(Integer.parseInt(s.substring(
-								4, 6)));
-						engineRunning = true;
+					if (s.contains("--mem") || s.startsWith("--mmap=")
+							|| s.startsWith("--paged=")) {
+						memoryOption = s;
 					} else if (s.equals("--debug") || s.equals("-d")) {
 						debugMode = true;
 						System.out.println("Debug mode set.");
 					} else if (s.equals("--verbose") || s.equals("-v")) {
 						verboseMode = true;
 						System.out.println("Verbose mode set.");
-						System.out
-								.println("Warning: Verbose mode is really verbose.");
+						System.out.println("Warning: Verbose mode is really verbose.");
+					} else if (s.equals("--reference")) {
+						mode = ExecutionMode.REFERENCE;
+					} else if (s.equals("--threaded")) {
+						mode = ExecutionMode.THREADED;
+					} else if (s.equals("--jit")) {
+						mode = ExecutionMode.COMPILED;
+					} else if (s.equals("--fuse")) {
+						fuse = true;
+					} else if (s.equals("--verify")) {
+						verify = true;
+					} else if (s.equals("--profile")) {
+						profile = true;
+					} else if (s.startsWith("--profile=")) {
+						// the report, and the sampled stacks for a flame graph
+						profile = true;
+						folded = new File(s.substring(10));
+					} else if (s.startsWith("--trace=")) {
+						traceFile = new File(s.substring(8));
+					} else if (s.startsWith("--compile=")) {
+						image = new File(s.substring(10));
+					} else if (s.startsWith("--link=")) {
+						// libraries of words, linked in after the program
+						libraries = s.substring(7).split(",");
 					} else {
 						target = new File(s);
 					}
-
-					if (!engineRunning)
-						engine = new ForthEngine();
 				}
 
-				stream = new Scanner(target);
-				String token;
-
-				// enqueue instructions from the file stream into the
-				// filterStack
-				// in order to filter out the comments
-				if (debugMode && !verboseMode)
-					System.out
-							.print("Debug: reading instructions onto filterQueue...");
-
-				while (stream.hasNext()) {
-					token = stream.next();
-					if (verboseMode)
-						System.out.println("-> enqueueing \"" + token
-								+ "\" to filterQueue");
-					filterQueue.enqueue(token);
-
+				// the engine is built once every flag has been read, so that
+				// its context sees all of them
+				EngineContext context = new EngineContext(debugMode,
+						verboseMode);
+				if (memoryOption == null)
+					engine = new ForthEngine(context);
+				else if (memoryOption.startsWith("--mmap="))
+					engine = new ForthEngine(context, MappedMemory.open(
+							Paths.get(memoryOption.substring(7)),
+							DEFAULT_MAPPED_CELLS));
+				else if (memoryOption.startsWith("--paged=")) {
+					// --paged=<cells>[,<quota in cells>]; the source can
+					// still only address the first ten memory modules
+					String[] sizes = memoryOption.substring(8).split(",");
+					int cells = Integer.parseInt(sizes[0]);
+					engine = new ForthEngine(context,
+							sizes.length > 1 ? new PagedMemory(cells,
+									Integer.parseInt(sizes[1]))
+									: new PagedMemory(cells));
+				} else
+					engine = new ForthEngine(context,
+							Integer.parseInt(memoryOption.substring(4, 6)));
+
+				if (libraries != null) {
+					Linker linker = new Linker();
+					linker.add(compileModule(target, context, engine));
+					for (String library : libraries)
+						linker.add(compileModule(new File(library), context,
+								engine));
+					try {
+						linker.link(engine);
+					} catch (LinkException e) {
+						System.err.println(target.getName() + " rejected: "
+								+ e.getMessage());
+						return;
+					}
+				} else if (ProgramImage.isImage(target.toPath())) {
+					// a precompiled image goes straight into memory
+					ProgramImage.load(target.toPath(), engine);
+				} else {
+					try (Reader source = new FileReader(target)) {
+						load(engine, source);
+					}
 				}
-
-				if (debugMode && !verboseMode)
-					System.out.print("done!\n");
-
-				StringBuilder s;
-				String tempString;
-				int currentInstruction = 0x00;
-				int currentAddress = 0x0000;
-
-				if (debugMode && !verboseMode)
-					System.out
-							.print("Debug: enqueueing instructions to compileStack...");
-
-				while (!filterQueue.empty()) {
-					// if we find a comment-closing character...
-					if (filterQueue.front().contains("(")) {
-						// ...pop until we find a comment character
-						while (!filterQueue.empty()
-								&& !filterQueue.front().contains(")")) {
-							filterQueue.dequeue();
-						}
-						if (!filterQueue.empty())
-							filterQueue.dequeue();
-						// if we don't find a comment opening character...
-					} else if (filterQueue.front().contains("S\"")) { // ...but
-																		// we
-																		// do
-																		// find
-																		// a
-																		// string...
-						s = new StringBuilder();
-						filterQueue.dequeue();
-						do {
-							s.append(filterQueue.dequeue() + " ");
-						} while (!filterQueue.empty()
-								&& !filterQueue.front().contains("\""));
-						filterQueue.dequeue();
-						currentAddress = Integer.parseInt(
-								filterQueue.dequeue(), 16);
-						if (verboseMode)
-							System.out.println("-> fillRAM "
-									+ Word.wordBuilder(0x14, currentAddress));
-						engine.fillRAM(Word.wordBuilder(0x14, currentAddress));
-						engine.writeToRAM(Word.wordBuilder(s.toString()), engine.parseHex(Integer.toHexString(currentAddress)));
-
-					} else {
-						// ...everything is fine and good!
-						if (getReqArgs(filterQueue.front()) == 1) {
-							currentInstruction = getOpcode(filterQueue
-									.dequeue());
-							currentAddress = Integer.parseInt(
-									filterQueue.dequeue(), 16);
-							if (verboseMode)
-								System.out.println("-> fillRAM "
-										+ Word.wordBuilder(currentInstruction,
-												currentAddress));
-							engine.fillRAM(Word.wordBuilder(currentInstruction,
-									currentAddress));
-						} else if (getReqArgs(filterQueue.front()) == 0) {
-							currentInstruction = getOpcode(filterQueue
-									.dequeue());
-							if (verboseMode) {
-								System.out.println("-> fillRAM "
-										+ Word.wordBuilder(currentInstruction));
-							}
-							engine.fillRAM(Word.wordBuilder(currentInstruction));
-						}
+				if (fuse)
+					System.err.println(target.getName() + ": "
+							+ Superinstructions.fuse(engine));
+				if (verify) {
+					try {
+						engine.verify();
+					} catch (UnverifiableProgramException e) {
+						System.err.println(target.getName() + " rejected: "
+								+ e.getMessage());
+						return;
 					}
 				}
-				if (debugMode && !verboseMode)
-					System.out.print("done!\n");
+				engine.setExecutionMode(mode);
+				if (profile)
+					engine.setProfiler(new Profiler());
+				if (traceFile != null) {
+					// written when the program ends, however it ends
+					TraceBuffer trace = new TraceBuffer();
+					trace.dumpOnFailure(traceFile.toPath());
+					engine.setTraceBuffer(trace);
+				}
+
+				if (image != null) {
+					ProgramImage.write(engine, image.toPath());
+					if (debugMode)
+						System.out.println("Debug: wrote image " + image);
+					return;
+				}
 
-				filterQueue = null;
 				if (debugMode && !verboseMode) {
-					System.out
-							.print("Debug: Loading instructions into memory...");
+					System.out.print("Debug: Loading instructions into memory...");
 				} else if (verboseMode) {
-					System.out
-							.println("Debug: Loading instructions into memory...");
+					System.out.println("Debug: Loading instructions into memory...");
 				}
 
 				if (debugMode && !verboseMode) {
 					System.out.print("done!\n");
 				} else if (verboseMode) {
-					System.out
-							.println("Debug: Loading instructions into memory: done!");
+					System.out.println("Debug: Loading instructions into memory: done!");
 				}
 
 				// actually do the thing
 				if (debugMode)
 					System.out.println("Debug: running!");
-				engine.run();
+				try {
+					engine.run();
+					if (traceFile != null)
+						engine.getTraceBuffer().write(traceFile.toPath());
+				} finally {
+					if (profile) {
+						System.err.print(engine.getProfiler().report());
+						if (folded != null)
+							Files.write(folded.toPath(), engine.getProfiler()
+									.getFoldedStacks().getBytes());
+					}
+				}
 			}
 
 			catch (NumberFormatException e) {
@@ -480,6 +732,10 @@ public class ForthParser {
 						.println("File not found. Please enter the name of the file to be interpreted.");
 				if (debugMode)
 					e.printStackTrace(System.err);
+			} catch (IOException e) {
+				System.err.println("I/O error: " + e.getMessage());
+				if (debugMode)
+					e.printStackTrace(System.err);
 			} catch (EmptyQueueException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
@@ -0,0 +1,67 @@
+package com.hawkw.ForthEngine;
+
+import java.nio.LongBuffer;
+
+/**
+ * HeapMemory.java
+ * Memory backed by a long[] on the Java heap. This is what a ForthEngine
+ * uses unless it is given something else.
+ * 
+ * @author hawk
+ * @see Memory
+ */
+public class HeapMemory implements Memory {
+
+	private final long[] cells;
+
+	/**
+	 * 1-argument constructor: allocates at least the requested number of
+	 * cells, rounded up to a power of two
+	 * 
+	 * @param requestedCells
+	 *            the number of cells needed
+	 */
+	public HeapMemory(int requestedCells) {
+		cells = new long[roundUp(requestedCells)];
+	}
+
+	@Override
+	public long read(int address) {
+		return cells[address];
+	}
+
+	@Override
+	public void write(int address, long cell) {
+		cells[address] = cell;
+	}
+
+	@Override
+	public void write(int address, LongBuffer cells) {
+		cells.get(this.cells, address, cells.remaining());
+	}
+
+	@Override
+	public int size() {
+		return cells.length;
+	}
+
+	@Override
+	public int extent() {
+		return size();
+	}
+
+	/**
+	 * Rounds a number of cells up to the next power of two
+	 * 
+	 * @param cells
+	 *            a number of cells
+	 * @return the smallest power of two that is at least cells (and at least
+	 *         one)
+	 */
+	static int roundUp(int cells) {
+		int capacity = 1;
+		while (capacity < cells)
+			capacity <<= 1;
+		return capacity;
+	}
+}
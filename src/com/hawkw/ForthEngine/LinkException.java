@@ -0,0 +1,28 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * Thrown by the Linker when object modules cannot be merged into one image,
+ * or when an instruction's address is out of range or leads nowhere. The
+ * message says which module or instruction failed and why.
+ * 
+ * @author hawk
+ * @see Linker
+ */
+@SuppressWarnings("serial")
+public class LinkException extends Exception {
+
+	private final int address;
+
+	public LinkException(int address, String message) {
+		super(message);
+		this.address = address;
+	}
+
+	/**
+	 * Returns the flat address in the linked image of the instruction or cell
+	 * that failed, or -1 if the failure is not at one address
+	 */
+	public int getAddress() {
+		return address;
+	}
+}
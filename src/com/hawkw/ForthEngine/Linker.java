@@ -0,0 +1,272 @@
+package com.hawkw.ForthEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Linker.java
+ * Merges object modules into one program image in an engine. The modules'
+ * code is laid end to end in the order they were added, so the first one
+ * starts at cell 0 and is the one that runs. Every code address, the
+ * operand of an ENTER, JUMP, IF or CALL, is relocated by its module's base,
+ * every call to a word a module does not define is resolved through the
+ * symbol table of all the modules' exports, and the cells modules write
+ * outside their code are copied to where they were written. An IF or CALL
+ * must still land in the first memory module, the only one an address in
+ * the source can name.
+ *
+ * Linking then checks every operand once, before anything runs, instead of
+ * leaving a bad address to fail when (and if) its instruction executes:
+ * an address must be inside RAM; FETCH and SOUT must read a cell that holds
+ * something or that a STORE writes; IF and CALL must continue at a cell that
+ * holds something, as must ENTER and JUMP, except that a JUMP may go to the
+ * end of its module. Code is checked as compiled, so fuse it after linking.
+ *
+ * @author hawk
+ * @see ObjectModule
+ * @see ProgramImage
+ */
+public final class Linker {
+
+	private final List<ObjectModule> modules = new ArrayList<ObjectModule>();
+
+	/**
+	 * Adds a module after the ones already added
+	 *
+	 * @param module
+	 *            the module
+	 * @return this Linker
+	 */
+	public Linker add(ObjectModule module) {
+		modules.add(module);
+		return this;
+	}
+
+	/**
+	 * Links the modules into an engine
+	 *
+	 * @param engine
+	 *            a fresh engine, with nothing loaded
+	 * @throws LinkException
+	 *             if the modules do not fit, two modules define the same
+	 *             word or write the same cell differently, a word is called
+	 *             but never defined, or an address is out of range or leads
+	 *             nowhere
+	 */
+	public void link(ForthEngine engine) throws LinkException {
+		int size = engine.getMemorySize();
+		int[] bases = new int[modules.size()];
+		Set<Integer> ends = new HashSet<Integer>();
+		int end = 0;
+		for (int i = 0; i < bases.length; i++) {
+			bases[i] = end;
+			end += modules.get(i).getSize();
+			ends.add(end);
+		}
+		if (end > size)
+			throw new LinkException(-1, end + " cells of code do not fit in "
+					+ size + " cells of RAM");
+
+		Map<String, Integer> symbols = new HashMap<String, Integer>();
+		Map<String, ObjectModule> definers = new HashMap<String, ObjectModule>();
+		for (int i = 0; i < bases.length; i++) {
+			ObjectModule module = modules.get(i);
+			for (Map.Entry<String, Integer> e : module.getExports().entrySet()) {
+				ObjectModule other = definers.put(e.getKey(), module);
+				if (other != null)
+					throw new LinkException(bases[i] + e.getValue(), "\""
+							+ e.getKey() + "\" is defined by both "
+							+ other.getName() + " and " + module.getName());
+				symbols.put(e.getKey(), bases[i] + e.getValue());
+			}
+		}
+
+		engine.setStringPool(new ArrayList<String>());
+		Map<Integer, ObjectModule> writers = new HashMap<Integer, ObjectModule>();
+		for (ObjectModule module : modules) {
+			for (Map.Entry<Integer, Long> e : module.getData().entrySet()) {
+				int address = e.getKey();
+				if (address >= size)
+					throw new LinkException(address, module.getName()
+							+ " writes " + ForthEngine.position(address)
+							+ ", outside RAM");
+				if (address < end)
+					throw new LinkException(address, module.getName()
+							+ " writes " + ForthEngine.position(address)
+							+ ", inside the linked code");
+				long cell = relocate(engine, module, e.getValue());
+				ObjectModule other = writers.put(address, module);
+				if (other != null && engine.read(address) != cell)
+					throw new LinkException(address, other.getName() + " and "
+							+ module.getName() + " write different cells to "
+							+ ForthEngine.position(address));
+				engine.write(address, cell);
+			}
+		}
+
+		for (int i = 0; i < bases.length; i++) {
+			ObjectModule module = modules.get(i);
+			for (int offset = 0; offset < module.getSize(); offset++)
+				engine.write(bases[i] + offset, relocate(engine, module,
+						bases[i], offset, symbols));
+		}
+		engine.setHere(end);
+		for (Map.Entry<String, Integer> e : symbols.entrySet())
+			engine.getDictionary().define(e.getKey(), e.getValue());
+		engine.discardCompiledCode();
+		check(engine, ends);
+	}
+
+	/**
+	 * Checks the operands of a program loaded without linking, the same way
+	 * link() checks the ones it links
+	 *
+	 * @param engine
+	 *            the engine, whose program starts at cell 0 and is not fused
+	 * @throws LinkException
+	 *             if an address is out of range or leads nowhere
+	 */
+	public static void check(ForthEngine engine) throws LinkException {
+		Set<Integer> ends = new HashSet<Integer>();
+		ends.add(engine.getHere());
+		check(engine, ends);
+	}
+
+	/**
+	 * Relocates a code cell of a module that starts at base
+	 */
+	private static long relocate(ForthEngine engine, ObjectModule module,
+			int base, int offset, Map<String, Integer> symbols)
+			throws LinkException {
+		long cell = module.codeAt(offset);
+		if (!Cell.isInstruction(cell))
+			return relocate(engine, module, cell);
+		int opcode = Cell.opcode(cell);
+		if (opcode == Opcodes.ENTER) {
+			String word = module.getImports().get(offset);
+			if (word == null)
+				return flat(opcode, base + Cell.operand(cell));
+			Integer target = symbols.get(word);
+			if (target == null)
+				throw new LinkException(base + offset, module.getName()
+						+ " calls \"" + word + "\", which no module defines");
+			return flat(opcode, target);
+		}
+		if (opcode == Opcodes.JUMP)
+			return flat(opcode, base + Cell.operand(cell));
+		if ((opcode == Opcodes.IF || opcode == Opcodes.CALL)
+				&& Cell.operand(cell) >= 0) {
+			int target = base + Cell.operand(cell);
+			// the reference path reads the raw form, which can only name a
+			// cell of the first memory module
+			if (target >= ForthEngine.MEMORY_MODULE_SIZE)
+				throw new LinkException(base + offset, module.getName()
+						+ " branches to " + ForthEngine.position(target)
+						+ ", which the source cannot address");
+			return Cell.instruction(opcode,
+					Integer.parseInt(Integer.toString(target), 16), target);
+		}
+		return cell;
+	}
+
+	/**
+	 * Moves a module's string into the engine's string pool
+	 */
+	private static long relocate(ForthEngine engine, ObjectModule module,
+			long cell) {
+		return Cell.isString(cell) ? engine.toCell(module.stringOf(cell))
+				: cell;
+	}
+
+	/**
+	 * Builds an instruction whose operand is a flat address, as the compiler
+	 * does
+	 */
+	private static long flat(int opcode, int address) {
+		return Cell.instruction(opcode, address & 0xFFFF, address);
+	}
+
+	private static void check(ForthEngine engine, Set<Integer> ends)
+			throws LinkException {
+		int size = engine.getMemorySize();
+		int extent = Math.min(size, engine.getMemory().extent());
+		Set<Integer> stored = new HashSet<Integer>();
+		for (int address = 0; address < extent; address++) {
+			long cell = engine.read(address);
+			if (Cell.isInstruction(cell) && Cell.opcode(cell) == Opcodes.STORE)
+				stored.add(Cell.operand(cell));
+		}
+
+		for (int address = 0; address < extent; address++) {
+			long cell = engine.read(address);
+			if (!Cell.isInstruction(cell))
+				continue;
+			int opcode = Cell.opcode(cell);
+			int target = Cell.operand(cell);
+			switch (opcode) {
+			case Opcodes.STORE:
+			case Opcodes.FETCH:
+			case Opcodes.SOUT:
+			case Opcodes.IF:
+			case Opcodes.CALL:
+			case Opcodes.ENTER:
+			case Opcodes.JUMP:
+				if (target < 0 || target >= size)
+					throw new LinkException(address, describe(address, cell)
+							+ ": the address is outside RAM");
+				break;
+			default:
+				continue;
+			}
+
+			switch (opcode) {
+			case Opcodes.FETCH:
+			case Opcodes.SOUT:
+				if (engine.read(target) == Cell.EMPTY
+						&& !stored.contains(target))
+					throw new LinkException(address, describe(address, cell)
+							+ ": nothing is ever written to "
+							+ ForthEngine.position(target));
+				break;
+			case Opcodes.IF:
+			case Opcodes.CALL:
+				// both continue at the cell after their operand
+				target = (target + 1) & engine.getAddressMask();
+				if (engine.read(target) == Cell.EMPTY)
+					throw new LinkException(address, describe(address, cell)
+							+ ": it continues at "
+							+ ForthEngine.position(target)
+							+ ", which is empty");
+				break;
+			case Opcodes.JUMP:
+			case Opcodes.ENTER:
+				if (opcode == Opcodes.JUMP && ends.contains(target))
+					break;
+				if (engine.read(target) == Cell.EMPTY)
+					throw new LinkException(address, describe(address, cell)
+							+ ": " + ForthEngine.position(target)
+							+ " is empty");
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Describes an instruction for a link error: an operand the compiler
+	 * wrote as a flat address, and one from the source as it was written
+	 */
+	private static String describe(int address, long cell) {
+		int opcode = Cell.opcode(cell);
+		String operand;
+		if (opcode == Opcodes.ENTER || opcode == Opcodes.JUMP)
+			operand = ForthEngine.position(Cell.operand(cell));
+		else
+			operand = String.format("%04X", Cell.rawAddress(cell));
+		return ForthEngine.position(address) + " " + Opcodes.name(opcode)
+				+ " " + operand;
+	}
+}
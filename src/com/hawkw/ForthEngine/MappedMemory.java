@@ -0,0 +1,146 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedMemory.java
+ * Memory whose cells live off-heap in a memory-mapped file, so a large
+ * address space costs nothing on the Java heap and an engine's memory
+ * survives a restart: opening the same file again maps the cells that were
+ * left there.
+ * 
+ * The file starts with a 16-byte header (a magic number, a format version
+ * and the number of cells) followed by one 8-byte cell per address, all
+ * little-endian whatever the machine, so a file can be moved. Numbers
+ * and instructions persist as they are; string cells refer to the string
+ * pool of the engine that wrote them, which is rebuilt by loading the same
+ * program again.
+ * 
+ * @author hawk
+ * @see Memory
+ */
+public class MappedMemory implements Memory {
+
+	private static final long MAGIC = 0x464F5254484D454DL; // "FORTHMEM"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	/**
+	 * the most cells a single mapping can hold: the header and the cells
+	 * together must fit in an int-indexed buffer
+	 */
+	public static final int MAX_CELLS = 1 << 27;
+
+	private final MappedByteBuffer buffer;
+	private final int cells;
+
+	private MappedMemory(MappedByteBuffer buffer, int cells) {
+		this.buffer = buffer;
+		this.cells = cells;
+	}
+
+	/**
+	 * Maps a memory file, creating it if it does not exist yet. An existing
+	 * file keeps its cells and its size.
+	 * 
+	 * @param file
+	 *            the file that backs the memory
+	 * @param requestedCells
+	 *            the number of cells to create a new file with, rounded up to
+	 *            a power of two
+	 * @return the mapped memory
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a memory file
+	 */
+	public static MappedMemory open(Path file, int requestedCells)
+			throws IOException {
+		boolean exists = Files.exists(file) && Files.size(file) > 0;
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			int cells;
+			if (exists) {
+				MappedByteBuffer header = channel.map(
+						FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+				header.order(ByteOrder.LITTLE_ENDIAN);
+				if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION)
+					throw new IOException(file + " is not a ForthEngine memory file");
+				cells = header.getInt(12);
+				if (cells < 1 || cells > MAX_CELLS)
+					throw new IOException(file + " has a bad size of " + cells
+							+ " cells");
+				if (channel.size() < HEADER_SIZE + (long) cells * 8)
+					throw new IOException(file + " is truncated");
+			} else {
+				if (requestedCells < 1 || requestedCells > MAX_CELLS)
+					throw new IllegalArgumentException("Cannot map "
+							+ requestedCells + " cells");
+				cells = HeapMemory.roundUp(requestedCells);
+			}
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE
+							+ (long) cells * 8);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (!exists) {
+				buffer.putLong(0, MAGIC);
+				buffer.putInt(8, VERSION);
+				buffer.putInt(12, cells);
+			}
+			return new MappedMemory(buffer, cells);
+		}
+	}
+
+	@Override
+	public long read(int address) {
+		return buffer.getLong(offset(address));
+	}
+
+	@Override
+	public void write(int address, long cell) {
+		buffer.putLong(offset(address), cell);
+	}
+
+	@Override
+	public void write(int address, LongBuffer cells) {
+		if (address < 0 || address + cells.remaining() > this.cells)
+			throw new IndexOutOfBoundsException("Cannot write "
+					+ cells.remaining() + " cells at " + address);
+		ByteBuffer target = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		target.position(offset(address));
+		target.asLongBuffer().put(cells);
+	}
+
+	@Override
+	public int size() {
+		return cells;
+	}
+
+	@Override
+	public int extent() {
+		return size();
+	}
+
+	/**
+	 * Returns the byte offset of a cell, checking the address first so that
+	 * one far out of range cannot wrap around to another cell
+	 */
+	private int offset(int address) {
+		if (address < 0 || address >= cells)
+			throw new ArrayIndexOutOfBoundsException(address);
+		return HEADER_SIZE + (address << 3);
+	}
+
+	/**
+	 * Forces the cells written so far out to the file
+	 */
+	public void flush() {
+		buffer.force();
+	}
+}
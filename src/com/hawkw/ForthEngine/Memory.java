@@ -0,0 +1,61 @@
+package com.hawkw.ForthEngine;
+
+import java.nio.LongBuffer;
+
+/**
+ * Memory.java
+ * The cell store behind a ForthEngine's RAM. Addresses are flat cell
+ * indices; every implementation's size is a power of two so that the program
+ * counter can wrap around with a mask.
+ * 
+ * @author hawk
+ * @see HeapMemory
+ * @see MappedMemory
+ * @see PagedMemory
+ */
+public interface Memory {
+
+	/**
+	 * Returns the cell at an address
+	 * 
+	 * @param address
+	 *            the address of the cell
+	 * @return the cell at that address, or Cell.EMPTY if it was never written
+	 */
+	public long read(int address);
+
+	/**
+	 * Writes a cell to an address
+	 * 
+	 * @param address
+	 *            the address of the cell
+	 * @param cell
+	 *            the cell to write
+	 */
+	public void write(int address, long cell);
+
+	/**
+	 * Copies every remaining cell of a buffer into consecutive addresses
+	 * 
+	 * @param address
+	 *            the address of the first cell to write
+	 * @param cells
+	 *            the cells to write
+	 */
+	public void write(int address, LongBuffer cells);
+
+	/**
+	 * Returns the number of addressable cells
+	 * 
+	 * @return the size of this memory in cells, a power of two
+	 */
+	public int size();
+
+	/**
+	 * Returns one past the highest address that may hold a cell that is not
+	 * Cell.EMPTY, so that scans of the whole memory can stop there
+	 * 
+	 * @return the extent of this memory in cells, at most size()
+	 */
+	public int extent();
+}
@@ -0,0 +1,173 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.hawkw.Queue.EmptyQueueException;
+
+/**
+ * ObjectModule.java
+ * A separately compiled program that can be relocated: its code, which was
+ * compiled as if it started at cell 0, the cells it writes outside its code,
+ * its strings, and a symbol table of the words it defines (its exports) and
+ * the words it calls without defining (its imports). A Linker merges object
+ * modules into one image.
+ *
+ * Only code addresses are relative to the module: the targets of ENTER and
+ * JUMP, which the compiler wrote, and the operands of IF and CALL, which
+ * the source wrote as if the module started at cell 0. The data addresses
+ * in the source, the operands of STORE, FETCH and SOUT and the cells an S"
+ * fills, name fixed cells of RAM wherever the module ends up.
+ *
+ * @author hawk
+ * @see Linker
+ */
+public final class ObjectModule {
+
+	private final String name;
+	private final long[] code;
+	// the cells written outside the code, by absolute address
+	private final TreeMap<Integer, Long> data;
+	private final List<String> strings;
+	private final Map<String, Integer> exports;
+	private final Map<Integer, String> imports;
+
+	private ObjectModule(String name, long[] code,
+			TreeMap<Integer, Long> data, List<String> strings,
+			Map<String, Integer> exports, Map<Integer, String> imports) {
+		this.name = name;
+		this.code = code;
+		this.data = data;
+		this.strings = strings;
+		this.exports = exports;
+		this.imports = imports;
+	}
+
+	/**
+	 * Compiles a module's source into a default-sized engine
+	 *
+	 * @param name
+	 *            the module's name, for link errors
+	 * @param source
+	 *            the module's source, which may call words it does not define
+	 * @return the module
+	 * @throws EmptyQueueException
+	 *             if the source ends in the middle of an instruction
+	 * @throws IOException
+	 *             if the source cannot be read
+	 */
+	public static ObjectModule compile(String name, Reader source)
+			throws EmptyQueueException, IOException {
+		return compile(name, source, new ForthEngine(new EngineContext(
+				new PrintStream(OutputStream.nullOutputStream())),
+				new HeapMemory(ForthEngine.DEFAULT_MEMORY_MODULES
+						* ForthEngine.MEMORY_MODULE_SIZE)));
+	}
+
+	/**
+	 * Compiles a module's source
+	 *
+	 * @param name
+	 *            the module's name, for link errors
+	 * @param source
+	 *            the module's source, which may call words it does not define
+	 * @param engine
+	 *            a fresh engine to compile it in, as big as the cells it
+	 *            writes need
+	 * @return the module
+	 * @throws EmptyQueueException
+	 *             if the source ends in the middle of an instruction
+	 * @throws IOException
+	 *             if the source cannot be read
+	 */
+	public static ObjectModule compile(String name, Reader source,
+			ForthEngine engine) throws EmptyQueueException, IOException {
+		engine.getDictionary().allowReferences();
+		ForthParser.load(engine, source);
+		return of(name, engine);
+	}
+
+	/**
+	 * Makes a module of the program loaded in an engine
+	 *
+	 * @param name
+	 *            the module's name, for link errors
+	 * @param engine
+	 *            the engine, whose program starts at cell 0 and is not fused
+	 * @return the module
+	 */
+	public static ObjectModule of(String name, ForthEngine engine) {
+		long[] code = new long[engine.getHere()];
+		for (int i = 0; i < code.length; i++)
+			code[i] = engine.read(i);
+		TreeMap<Integer, Long> data = new TreeMap<Integer, Long>();
+		int extent = Math.min(engine.getMemorySize(), engine.getMemory()
+				.extent());
+		for (int i = code.length; i < extent; i++) {
+			long cell = engine.read(i);
+			if (cell != Cell.EMPTY)
+				data.put(i, cell);
+		}
+		Dictionary dictionary = engine.getDictionary();
+		return new ObjectModule(name, code, data, new ArrayList<String>(
+				engine.getStringPool()), new HashMap<String, Integer>(
+				dictionary.getWords()), new HashMap<Integer, String>(
+				dictionary.getReferences()));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of cells of code
+	 */
+	public int getSize() {
+		return code.length;
+	}
+
+	/**
+	 * Returns the words the module defines, with their addresses relative to
+	 * its first cell
+	 */
+	public Map<String, Integer> getExports() {
+		return Collections.unmodifiableMap(exports);
+	}
+
+	/**
+	 * Returns the calls to words the module does not define, by the address
+	 * of their ENTER relative to its first cell
+	 */
+	public Map<Integer, String> getImports() {
+		return Collections.unmodifiableMap(imports);
+	}
+
+	long codeAt(int offset) {
+		return code[offset];
+	}
+
+	Map<Integer, Long> getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the string a STRING cell of this module references
+	 */
+	String stringOf(long cell) {
+		return strings.get(Cell.value(cell));
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + code.length + " cells, " + exports.size()
+				+ " exports, " + imports.size() + " imports)";
+	}
+}
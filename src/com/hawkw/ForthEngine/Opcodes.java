@@ -0,0 +1,76 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * Opcodes.java
+ * The one-byte opcodes of the FORTH instruction set, as plain int constants
+ * so that the engine can dispatch on them with a tableswitch.
+ * 
+ * @author hawk
+ * @see ForthParser
+ * @see ForthEngine
+ */
+public final class Opcodes {
+
+	public static final int NOP = 0x00;
+	public static final int STORE = 0x01;
+	public static final int ADD = 0x02;
+	public static final int SUB = 0x03;
+	public static final int RSTORE = 0x04;
+	public static final int FETCH = 0x05;
+	public static final int AND = 0x06;
+	public static final int DROP = 0x07;
+	public static final int DUP = 0x08;
+	public static final int OR = 0x09;
+	public static final int OVER = 0x0A;
+	public static final int RFETCH = 0x0B;
+	public static final int SWAP = 0x0C;
+	public static final int XOR = 0x0D;
+	public static final int IF = 0x0E;
+	public static final int CALL = 0x0F;
+	public static final int EXIT = 0x10;
+	public static final int LIT = 0x11;
+	public static final int COUT = 0x12;
+	public static final int CIN = 0x13;
+	public static final int S = 0x14;
+	public static final int SOUT = 0x15;
+
+	// written by the compiler for colon definitions; their operands are flat
+	// addresses rather than source addresses
+	public static final int ENTER = 0x16;
+	public static final int RETURN = 0x17;
+	public static final int JUMP = 0x18;
+
+	// internal superinstructions, written only by Superinstructions.fuse()
+	public static final int FETCH_FETCH_ADD_STORE = 0x20;
+	public static final int LIT_ADD = 0x21;
+	public static final int DUP_IF = 0x22;
+	public static final int ADD_STORE = 0x23;
+	public static final int FETCH_COUT = 0x24;
+
+	private static final String[] NAMES = { "NOP", "STORE", "ADD", "SUB",
+			"RSTORE", "FETCH", "AND", "DROP", "DUP", "OR", "OVER", "RFETCH",
+			"SWAP", "XOR", "IF", "CALL", "EXIT", "LIT", "COUT", "CIN", "S\"",
+			"SOUT", "ENTER", "RETURN", "JUMP" };
+	private static final String[] FUSED_NAMES = { "FETCH_FETCH_ADD_STORE",
+			"LIT_ADD", "DUP_IF", "ADD_STORE", "FETCH_COUT" };
+
+	private Opcodes() {
+	}
+
+	/**
+	 * Returns the name of an opcode as it is written in FORTH source, or its
+	 * hex value if it has none
+	 * 
+	 * @param opcode
+	 *            the opcode
+	 * @return the opcode's name
+	 */
+	public static String name(int opcode) {
+		if (opcode >= 0 && opcode < NAMES.length)
+			return NAMES[opcode];
+		int fused = opcode - FETCH_FETCH_ADD_STORE;
+		if (fused >= 0 && fused < FUSED_NAMES.length)
+			return FUSED_NAMES[fused];
+		return String.format("0x%02X", opcode);
+	}
+}
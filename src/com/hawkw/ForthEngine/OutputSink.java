@@ -0,0 +1,44 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * OutputSink.java
+ * Where a ForthEngine's COUT, SOUT and CIN prompts are printed. An engine
+ * writes a line at a time through its sink and flushes it when the program
+ * reaches EXIT or stops running, and before CIN waits for input, so a sink
+ * is free to hold output back until then. Sinks are used by one engine at a
+ * time and need not be thread-safe.
+ * 
+ * @author hawk
+ * @see StreamSink
+ * @see ByteArraySink
+ * @see ChannelSink
+ * @see DiscardingSink
+ */
+public interface OutputSink {
+
+	/**
+	 * Prints text
+	 * 
+	 * @param text
+	 *            the characters to print
+	 */
+	public void print(CharSequence text);
+
+	/**
+	 * Prints a number in decimal, without building a String for it
+	 * 
+	 * @param number
+	 *            the number to print
+	 */
+	public void print(int number);
+
+	/**
+	 * Ends the current line
+	 */
+	public void println();
+
+	/**
+	 * Writes out anything held back
+	 */
+	public void flush();
+}
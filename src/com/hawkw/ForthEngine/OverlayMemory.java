@@ -0,0 +1,122 @@
+package com.hawkw.ForthEngine;
+
+import java.nio.LongBuffer;
+
+/**
+ * OverlayMemory.java
+ * Memory that reads through to the cells of a SharedProgram and keeps only
+ * what its own engine writes. RAM is split into pages of PAGE_SIZE cells,
+ * found through a two-level table as in PagedMemory; a page is copied out of
+ * the program the first time a cell in it is written, and a table of pages
+ * is allocated with its first page. An engine running a shared program
+ * therefore holds only the pages its data lives in, however large the
+ * program or its declared memory is, and never changes what other engines
+ * see.
+ *
+ * @author hawk
+ * @see SharedProgram
+ */
+public class OverlayMemory implements Memory {
+
+	/**
+	 * The number of cells copied out of the program at once
+	 */
+	public static final int PAGE_SIZE = 64;
+	private static final int PAGE_BITS = 6;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	// the pages in one table of the second level
+	private static final int TABLE_BITS = 12;
+	private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+	private final long[] base;
+	private final long[][][] tables;
+	private final int size;
+	private int privatePages = 0;
+	// one past the last page written
+	private int extentPages = 0;
+
+	/**
+	 * Creates an overlay on a program's cells
+	 *
+	 * @param program
+	 *            the program to read through to
+	 */
+	public OverlayMemory(SharedProgram program) {
+		this.base = program.cells;
+		this.size = program.getMemorySize();
+		int pages = (int) (((long) size + PAGE_MASK) >>> PAGE_BITS);
+		this.tables = new long[(pages + TABLE_SIZE - 1) >>> TABLE_BITS][][];
+	}
+
+	@Override
+	public long read(int address) {
+		long[][] table = tables[address >>> (PAGE_BITS + TABLE_BITS)];
+		if (table != null) {
+			long[] page = table[(address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+			if (page != null)
+				return page[address & PAGE_MASK];
+		}
+		if (address >= size)
+			throw new ArrayIndexOutOfBoundsException(address);
+		return address < base.length ? base[address] : Cell.EMPTY;
+	}
+
+	@Override
+	public void write(int address, long cell) {
+		page(address)[address & PAGE_MASK] = cell;
+	}
+
+	@Override
+	public void write(int address, LongBuffer cells) {
+		while (cells.hasRemaining())
+			write(address++, cells.get());
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int extent() {
+		return Math.min(size,
+				Math.max(base.length, extentPages << PAGE_BITS));
+	}
+
+	/**
+	 * Returns the number of cells this overlay has copied out of the program
+	 *
+	 * @return the cells held privately, a multiple of PAGE_SIZE
+	 */
+	public int getPrivateCells() {
+		return privatePages * PAGE_SIZE;
+	}
+
+	/**
+	 * Returns the page holding an address, copying it out of the program if
+	 * this is the first write to it
+	 */
+	private long[] page(int address) {
+		if (address < 0 || address >= size)
+			throw new ArrayIndexOutOfBoundsException(address);
+		int index = address >>> PAGE_BITS;
+		long[][] table = tables[index >>> TABLE_BITS];
+		if (table == null) {
+			table = new long[Math.min(TABLE_SIZE,
+					(size + PAGE_MASK) >>> PAGE_BITS)][];
+			tables[index >>> TABLE_BITS] = table;
+		}
+		long[] page = table[index & (TABLE_SIZE - 1)];
+		if (page == null) {
+			page = new long[PAGE_SIZE];
+			int first = index << PAGE_BITS;
+			if (first < base.length)
+				System.arraycopy(base, first, page, 0,
+						Math.min(PAGE_SIZE, base.length - first));
+			table[index & (TABLE_SIZE - 1)] = page;
+			privatePages++;
+			extentPages = Math.max(extentPages, index + 1);
+		}
+		return page;
+	}
+}
@@ -0,0 +1,167 @@
+package com.hawkw.ForthEngine;
+
+import java.nio.LongBuffer;
+
+/**
+ * PagedMemory.java
+ * Sparse memory for a large address space that a program only touches a
+ * little of. RAM is split into pages of PAGE_SIZE cells, one memory module
+ * each, found through a two-level table; a page is allocated the first time
+ * a non-empty cell is written to it, and reads of a page that has never been
+ * written return Cell.EMPTY. Declaring a billion cells therefore costs a
+ * table of a thousand references until the program writes somewhere.
+ *
+ * A quota caps the cells an engine may commit, counted in whole pages, so
+ * the declared size can be far larger than what the engine is allowed to
+ * use. A write that needs a page beyond the quota throws.
+ *
+ * An address in Forth source has a one-digit module number, so source can
+ * only name cells in the first ten memory modules. The rest of a large
+ * PagedMemory is reachable only through the API: ForthEngine.read() and
+ * write(), or the Memory itself.
+ *
+ * @author hawk
+ * @see Memory
+ * @see OverlayMemory
+ */
+public class PagedMemory implements Memory {
+
+	/**
+	 * The number of cells allocated at once
+	 */
+	public static final int PAGE_SIZE = ForthEngine.MEMORY_MODULE_SIZE;
+	/**
+	 * The largest size of a PagedMemory: 2^30 cells, the largest power of two
+	 * an int address can count
+	 */
+	public static final int MAX_CELLS = 1 << 30;
+
+	private static final int PAGE_BITS = 10;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	// the pages in one table of the second level
+	private static final int TABLE_BITS = 10;
+	private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+	private final long[][][] tables;
+	private final int size;
+	private final int quotaPages;
+	private int committedPages = 0;
+	// one past the last page committed
+	private int extentPages = 0;
+
+	/**
+	 * 1-argument constructor: declares at least the requested number of
+	 * cells, rounded up to a power of two, with no quota
+	 *
+	 * @param requestedCells
+	 *            the number of cells needed, up to MAX_CELLS
+	 */
+	public PagedMemory(int requestedCells) {
+		this(requestedCells, MAX_CELLS);
+	}
+
+	/**
+	 * Declares at least the requested number of cells, rounded up to a power
+	 * of two, of which only quotaCells may be committed
+	 *
+	 * @param requestedCells
+	 *            the number of cells needed, up to MAX_CELLS
+	 * @param quotaCells
+	 *            the number of cells that may be committed, rounded up to
+	 *            whole pages
+	 */
+	public PagedMemory(int requestedCells, int quotaCells) {
+		if (requestedCells < 0 || requestedCells > MAX_CELLS || quotaCells < 0)
+			throw new IllegalArgumentException(requestedCells
+					+ " cells with a quota of " + quotaCells);
+		size = HeapMemory.roundUp(Math.max(requestedCells, PAGE_SIZE));
+		int pages = size >>> PAGE_BITS;
+		tables = new long[(pages + TABLE_SIZE - 1) >>> TABLE_BITS][][];
+		quotaPages = (int) (((long) quotaCells + PAGE_MASK) >>> PAGE_BITS);
+	}
+
+	@Override
+	public long read(int address) {
+		long[][] table = tables[address >>> (PAGE_BITS + TABLE_BITS)];
+		if (table != null) {
+			long[] page = table[(address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+			if (page != null)
+				return page[address & PAGE_MASK];
+		}
+		if (address >= size)
+			throw new ArrayIndexOutOfBoundsException(address);
+		return Cell.EMPTY;
+	}
+
+	@Override
+	public void write(int address, long cell) {
+		long[] page = page(address, cell != Cell.EMPTY);
+		if (page != null)
+			page[address & PAGE_MASK] = cell;
+	}
+
+	@Override
+	public void write(int address, LongBuffer cells) {
+		while (cells.hasRemaining())
+			write(address++, cells.get());
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int extent() {
+		return extentPages << PAGE_BITS;
+	}
+
+	/**
+	 * Returns the number of cells in the pages written so far
+	 *
+	 * @return the committed cells, a multiple of PAGE_SIZE
+	 */
+	public int getCommittedCells() {
+		return committedPages << PAGE_BITS;
+	}
+
+	/**
+	 * Returns the number of cells that may be committed
+	 *
+	 * @return the quota in cells, a multiple of PAGE_SIZE
+	 */
+	public int getQuotaCells() {
+		return (int) Math.min((long) quotaPages << PAGE_BITS, size);
+	}
+
+	/**
+	 * Returns the page holding an address, allocating it if this is the
+	 * first write to it and commit is true
+	 *
+	 * @return the page, or null if it was never written and commit is false
+	 */
+	private long[] page(int address, boolean commit) {
+		if (address < 0 || address >= size)
+			throw new ArrayIndexOutOfBoundsException(address);
+		int index = address >>> PAGE_BITS;
+		long[][] table = tables[index >>> TABLE_BITS];
+		if (table == null) {
+			if (!commit)
+				return null;
+			table = new long[Math.min(TABLE_SIZE, size >>> PAGE_BITS)][];
+			tables[index >>> TABLE_BITS] = table;
+		}
+		long[] page = table[index & (TABLE_SIZE - 1)];
+		if (page == null && commit) {
+			if (committedPages >= quotaPages)
+				throw new IllegalStateException("Memory quota of "
+						+ getQuotaCells() + " cells exceeded writing "
+						+ ForthEngine.position(address));
+			page = new long[PAGE_SIZE];
+			table[index & (TABLE_SIZE - 1)] = page;
+			committedPages++;
+			extentPages = Math.max(extentPages, index + 1);
+		}
+		return page;
+	}
+}
@@ -0,0 +1,272 @@
+package com.hawkw.ForthEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiler.java
+ * Counts what a ForthEngine executes: how often each opcode, each address
+ * and each pair of consecutive opcodes runs, in plain long[] counters. One
+ * instruction in every sampleInterval is also timed with System.nanoTime()
+ * and has its call stack (the colon definitions it runs in) recorded, which
+ * is cheap enough to leave on for whole runs.
+ *
+ * The counts are exact in every mode. A profiled engine does not compile
+ * blocks in COMPILED mode, since a block executes many cells in one call;
+ * a superinstruction counts as itself, at the address of its first cell.
+ *
+ * report() sorts the counters into a table; getFoldedStacks() gives the
+ * sampled call stacks in the folded format flame graph tools read, one
+ * "main;word;OPCODE count" line per stack.
+ *
+ * @author hawk
+ * @see ForthEngine#setProfiler(Profiler)
+ */
+public final class Profiler {
+
+	/**
+	 * The default number of instructions per timed sample
+	 */
+	public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+	// the most addresses and pairs report() lists
+	private static final int REPORT_LIMIT = 20;
+	private static final int OPCODES = 256;
+
+	private final int sampleInterval;
+	private final long[] opcodeCounts = new long[OPCODES];
+	private final long[] pairCounts = new long[OPCODES * OPCODES];
+	private final long[] sampledNanos = new long[OPCODES];
+	private final long[] samples = new long[OPCODES];
+	private final HashMap<String, Long> stacks = new HashMap<String, Long>();
+	private long[] addressCounts = new long[0];
+	private long instructions = 0;
+	private int previous = -1;
+	private int countdown;
+
+	/**
+	 * Creates a profiler that times every DEFAULT_SAMPLE_INTERVAL-th
+	 * instruction
+	 */
+	public Profiler() {
+		this(DEFAULT_SAMPLE_INTERVAL);
+	}
+
+	/**
+	 * Creates a profiler
+	 *
+	 * @param sampleInterval
+	 *            the number of instructions per timed sample; 1 times every
+	 *            instruction
+	 */
+	public Profiler(int sampleInterval) {
+		if (sampleInterval < 1)
+			throw new IllegalArgumentException("Sample interval "
+					+ sampleInterval);
+		this.sampleInterval = sampleInterval;
+		this.countdown = sampleInterval;
+	}
+
+	/**
+	 * Makes room for the addresses of an engine's RAM that hold anything;
+	 * count() makes room for any others as they are reached
+	 */
+	void attach(int memorySize) {
+		if (addressCounts.length < memorySize) {
+			long[] grown = new long[memorySize];
+			System.arraycopy(addressCounts, 0, grown, 0, addressCounts.length);
+			addressCounts = grown;
+		}
+	}
+
+	/**
+	 * Counts an instruction that is about to execute
+	 *
+	 * @return true if this instruction should be timed and its stack
+	 *         recorded
+	 */
+	boolean count(int address, int opcode) {
+		instructions++;
+		opcodeCounts[opcode]++;
+		if (address >= addressCounts.length)
+			attach(HeapMemory.roundUp(address + 1));
+		addressCounts[address]++;
+		if (previous >= 0)
+			pairCounts[previous * OPCODES + opcode]++;
+		previous = opcode;
+		if (--countdown > 0)
+			return false;
+		countdown = sampleInterval;
+		return true;
+	}
+
+	/**
+	 * Records a timed sample
+	 *
+	 * @param opcode
+	 *            the opcode that was timed
+	 * @param nanos
+	 *            how long it took
+	 * @param stack
+	 *            its call stack, in folded form
+	 */
+	void sample(int opcode, long nanos, String stack) {
+		sampledNanos[opcode] += nanos;
+		samples[opcode]++;
+		Long count = stacks.get(stack);
+		stacks.put(stack, count == null ? 1L : count + 1);
+	}
+
+	/**
+	 * Forgets everything counted so far
+	 */
+	public void reset() {
+		Arrays.fill(opcodeCounts, 0);
+		Arrays.fill(pairCounts, 0);
+		Arrays.fill(sampledNanos, 0);
+		Arrays.fill(samples, 0);
+		Arrays.fill(addressCounts, 0);
+		stacks.clear();
+		instructions = 0;
+		previous = -1;
+		countdown = sampleInterval;
+	}
+
+	/**
+	 * Returns the number of instructions counted
+	 */
+	public long getInstructionCount() {
+		return instructions;
+	}
+
+	/**
+	 * Returns how many times an opcode was executed
+	 */
+	public long getOpcodeCount(int opcode) {
+		return opcodeCounts[opcode];
+	}
+
+	/**
+	 * Returns the counts of each opcode by name, for tools that want the
+	 * numbers rather than the table
+	 */
+	public Map<String, Long> getOpcodeCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (int opcode : sorted(opcodeCounts, OPCODES))
+			counts.put(Opcodes.name(opcode), opcodeCounts[opcode]);
+		return counts;
+	}
+
+	/**
+	 * Returns how many times the instruction at an address was executed
+	 */
+	public long getAddressCount(int address) {
+		return address < addressCounts.length ? addressCounts[address] : 0;
+	}
+
+	/**
+	 * Returns how many times one opcode was executed straight after another
+	 */
+	public long getPairCount(int first, int second) {
+		return pairCounts[first * OPCODES + second];
+	}
+
+	/**
+	 * Returns the number of timed samples of an opcode
+	 */
+	public long getSampleCount(int opcode) {
+		return samples[opcode];
+	}
+
+	/**
+	 * Estimates the total time spent in an opcode from its samples
+	 *
+	 * @return the mean sampled time times the opcode's count, in
+	 *         nanoseconds, or 0 if it was never sampled
+	 */
+	public long getEstimatedNanos(int opcode) {
+		if (samples[opcode] == 0)
+			return 0;
+		return sampledNanos[opcode] / samples[opcode] * opcodeCounts[opcode];
+	}
+
+	/**
+	 * Returns the sampled call stacks in folded form, one
+	 * "frame;frame;...;OPCODE count" line per stack, sorted by stack
+	 */
+	public String getFoldedStacks() {
+		List<String> keys = new ArrayList<String>(stacks.keySet());
+		Collections.sort(keys);
+		StringBuilder folded = new StringBuilder();
+		for (String stack : keys)
+			folded.append(stack).append(' ').append(stacks.get(stack))
+					.append('\n');
+		return folded.toString();
+	}
+
+	/**
+	 * Returns a table of the opcodes by count, then the hottest addresses
+	 * and opcode pairs
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%d instructions, %d timed (1 in %d)%n",
+				instructions, totalSamples(), sampleInterval));
+
+		report.append(String.format("%-24s %12s %7s %14s%n", "opcode",
+				"count", "%", "est. ns"));
+		for (int opcode : sorted(opcodeCounts, OPCODES))
+			report.append(String.format("%-24s %12d %6.2f%% %14d%n",
+					Opcodes.name(opcode), opcodeCounts[opcode],
+					percent(opcodeCounts[opcode]), getEstimatedNanos(opcode)));
+
+		report.append(String.format("%n%-24s %12s %7s%n", "address", "count",
+				"%"));
+		for (int address : sorted(addressCounts, REPORT_LIMIT))
+			report.append(String.format("%-24s %12d %6.2f%%%n",
+					ForthEngine.position(address), addressCounts[address],
+					percent(addressCounts[address])));
+
+		report.append(String.format("%n%-24s %12s %7s%n", "pair", "count",
+				"%"));
+		for (int pair : sorted(pairCounts, REPORT_LIMIT))
+			report.append(String.format("%-24s %12d %6.2f%%%n",
+					Opcodes.name(pair / OPCODES) + " "
+							+ Opcodes.name(pair % OPCODES), pairCounts[pair],
+					percent(pairCounts[pair])));
+		return report.toString();
+	}
+
+	private long totalSamples() {
+		long total = 0;
+		for (long count : samples)
+			total += count;
+		return total;
+	}
+
+	private double percent(long count) {
+		return instructions == 0 ? 0 : 100.0 * count / instructions;
+	}
+
+	/**
+	 * Returns the indices of the largest non-zero counters, largest first
+	 */
+	private static List<Integer> sorted(final long[] counts, int limit) {
+		List<Integer> indices = new ArrayList<Integer>();
+		for (int i = 0; i < counts.length; i++)
+			if (counts[i] > 0)
+				indices.add(i);
+		Collections.sort(indices, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(counts[b], counts[a]);
+			}
+		});
+		return indices.size() > limit ? indices.subList(0, limit) : indices;
+	}
+}
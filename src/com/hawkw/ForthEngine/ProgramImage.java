@@ -0,0 +1,183 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ProgramImage.java
+ * Reads and writes compiled program images: the loaded RAM of a ForthEngine
+ * (decoded instruction cells, literals and the string pool) saved in a
+ * compact binary file, so that running a program again skips tokenizing and
+ * opcode lookup entirely.
+ * 
+ * An image is little-endian and laid out as:
+ * 
+ * <pre>
+ * header  : magic "FORTHIMG" (8), version (4), cell count (4),
+ *           string count (4), here (4), highest operand (4), reserved (4)
+ * cells   : cell count * 8 bytes, loaded at address 0
+ * strings : string count * (length (4), UTF-8 bytes)
+ * </pre>
+ * 
+ * @author hawk
+ * @see ForthEngine
+ */
+public final class ProgramImage {
+
+	private static final long MAGIC = 0x464F525448494D47L; // "FORTHIMG"
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+
+	private ProgramImage() {
+	}
+
+	/**
+	 * Writes the program loaded in an engine's RAM to an image file. Only the
+	 * cells up to the last one in use are saved.
+	 * 
+	 * @param engine
+	 *            the engine whose RAM holds the program
+	 * @param file
+	 *            the image file to write
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void write(ForthEngine engine, Path file) throws IOException {
+		Memory memory = engine.getMemory();
+		int cellCount = memory.extent();
+		while (cellCount > 0 && memory.read(cellCount - 1) == Cell.EMPTY)
+			cellCount--;
+		int highestOperand = -1;
+		for (int i = 0; i < cellCount; i++) {
+			long cell = memory.read(i);
+			if (Cell.isInstruction(cell))
+				highestOperand = Math.max(highestOperand, Cell.operand(cell));
+		}
+		List<String> pool = engine.getStringPool();
+		List<byte[]> strings = new ArrayList<byte[]>(pool.size());
+		int stringBytes = 0;
+		for (String s : pool) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			strings.add(bytes);
+			stringBytes += 4 + bytes.length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(
+				HEADER_SIZE + cellCount * 8 + stringBytes).order(
+				ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(MAGIC).putInt(VERSION).putInt(cellCount)
+				.putInt(strings.size()).putInt(engine.getHere())
+				.putInt(highestOperand).putInt(0);
+		for (int i = 0; i < cellCount; i++)
+			buffer.putLong(memory.read(i));
+		for (byte[] bytes : strings)
+			buffer.putInt(bytes.length).put(bytes);
+		buffer.flip();
+
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Loads an image file into an engine's RAM. The cells are copied into
+	 * memory in one bulk transfer and the engine's string pool is replaced
+	 * with the image's.
+	 * 
+	 * @param file
+	 *            the image file to read
+	 * @param engine
+	 *            the engine to load it into
+	 * @throws IOException
+	 *             if the file is not an image of this version, is truncated,
+	 *             or does not fit in the engine's memory
+	 */
+	public static void load(Path file, ForthEngine engine) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+				throw new IOException(file + " is not a program image");
+			buffer = ByteBuffer.allocateDirect((int) channel.size()).order(
+					ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					break;
+			buffer.flip();
+		}
+		if (buffer.getLong() != MAGIC)
+			throw new IOException(file + " is not a program image");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException(file + " is a version " + version
+					+ " image, expected version " + VERSION);
+		int cellCount = buffer.getInt();
+		int stringCount = buffer.getInt();
+		int here = buffer.getInt();
+		int highestOperand = buffer.getInt();
+		buffer.getInt(); // reserved
+		if (cellCount < 0 || (long) cellCount * 8 > buffer.remaining())
+			throw new IOException(file + " is truncated in its cells");
+		if (cellCount > engine.getMemorySize()
+				|| highestOperand >= engine.getMemorySize())
+			throw new IOException(file + " needs more memory than the engine has");
+
+		// the strings are read first, so a bad image leaves the engine as
+		// it was
+		buffer.position(HEADER_SIZE + cellCount * 8);
+		// every string takes at least its 4-byte length
+		if (stringCount < 0 || (long) stringCount * 4 > buffer.remaining())
+			throw new IOException(file + " has a bad string count of "
+					+ stringCount);
+		List<String> pool = new ArrayList<String>(stringCount);
+		for (int i = 0; i < stringCount; i++) {
+			if (buffer.remaining() < 4)
+				throw new IOException(file + " is truncated in string " + i);
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining())
+				throw new IOException(file + " is truncated in string " + i
+						+ ", of " + length + " bytes");
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			pool.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+
+		buffer.position(HEADER_SIZE).limit(HEADER_SIZE + cellCount * 8);
+		engine.getMemory().write(0, buffer.asLongBuffer());
+		engine.discardCompiledCode();
+		engine.setStringPool(pool);
+		engine.setHere(here);
+	}
+
+	/**
+	 * Tests whether a file is a program image by checking its magic number
+	 * 
+	 * @param file
+	 *            the file to test
+	 * @return true if the file starts with the image magic number
+	 */
+	public static boolean isImage(Path file) {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(8).order(
+					ByteOrder.LITTLE_ENDIAN);
+			while (magic.hasRemaining())
+				if (channel.read(magic) < 0)
+					return false;
+			magic.flip();
+			return magic.getLong() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * RunStatus.java
+ * Why a budgeted run of a ForthEngine stopped.
+ *
+ * @author hawk
+ * @see ForthEngine#run(long)
+ */
+public enum RunStatus {
+	/**
+	 * The program reached EXIT
+	 */
+	FINISHED,
+
+	/**
+	 * The program spent its instruction budget; resume(long) continues it
+	 * where it stopped
+	 */
+	YIELDED,
+
+	/**
+	 * The program is waiting at a CIN for input; feed() it and resume
+	 */
+	SUSPENDED
+}
@@ -0,0 +1,143 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.hawkw.Queue.EmptyQueueException;
+
+/**
+ * SharedProgram.java
+ * A loaded program frozen into an immutable code segment: its cells, its
+ * string pool and the here pointer, parsed (and fused or verified, if the
+ * loading engine did so) exactly once. Any number of engines, on any number
+ * of threads, can run it at the same time. Each one gets an OverlayMemory
+ * that reads through to the shared cells and keeps only the pages the
+ * engine writes to, so an engine costs its stacks and its data rather than
+ * a copy of the program.
+ *
+ * @author hawk
+ * @see OverlayMemory
+ */
+public final class SharedProgram {
+
+	// never written after the constructor, so they can be read from any
+	// thread without locking
+	final long[] cells;
+	private final List<String> strings;
+	private final int here;
+	private final int memorySize;
+	private final boolean verified;
+
+	private SharedProgram(long[] cells, List<String> strings, int here,
+			int memorySize, boolean verified) {
+		this.cells = cells;
+		this.strings = Collections.unmodifiableList(new ArrayList<String>(
+				strings));
+		this.here = here;
+		this.memorySize = memorySize;
+		this.verified = verified;
+	}
+
+	/**
+	 * Freezes the program loaded in an engine. The engine can go on being
+	 * used; later changes to it are not seen by the shared program.
+	 *
+	 * @param engine
+	 *            the engine holding the program
+	 * @return the shared program
+	 */
+	public static SharedProgram of(ForthEngine engine) {
+		Memory memory = engine.getMemory();
+		int cellCount = memory.extent();
+		while (cellCount > 0 && memory.read(cellCount - 1) == Cell.EMPTY)
+			cellCount--;
+		long[] cells = new long[cellCount];
+		for (int i = 0; i < cellCount; i++)
+			cells[i] = memory.read(i);
+		return new SharedProgram(cells, engine.getStringPool(),
+				engine.getHere(), memory.size(), engine.isVerified());
+	}
+
+	/**
+	 * Parses a program's FORTH source into a shared program with the default
+	 * amount of RAM
+	 *
+	 * @param source
+	 *            the program's source
+	 * @return the shared program
+	 * @throws EmptyQueueException
+	 *             if the source ends in the middle of an instruction
+	 */
+	public static SharedProgram compile(String source)
+			throws EmptyQueueException {
+		ForthEngine engine = new ForthEngine(new HeapMemory(
+				ForthEngine.DEFAULT_MEMORY_MODULES * ForthEngine.MEMORY_MODULE_SIZE));
+		try {
+			ForthParser.load(engine, new StringReader(source));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // a StringReader never throws
+		}
+		return of(engine);
+	}
+
+	/**
+	 * Loads a program image into a shared program with the default amount of
+	 * RAM
+	 *
+	 * @param image
+	 *            the image file
+	 * @return the shared program
+	 * @throws IOException
+	 *             if the image cannot be read
+	 */
+	public static SharedProgram load(Path image) throws IOException {
+		ForthEngine engine = new ForthEngine(new HeapMemory(
+				ForthEngine.DEFAULT_MEMORY_MODULES * ForthEngine.MEMORY_MODULE_SIZE));
+		ProgramImage.load(image, engine);
+		return of(engine);
+	}
+
+	/**
+	 * Creates an engine that runs this program with its own stacks and its
+	 * own private data
+	 *
+	 * @param context
+	 *            the new engine's I/O streams and tracing options
+	 * @return the engine, ready to run
+	 */
+	public ForthEngine newEngine(EngineContext context) {
+		ForthEngine engine = new ForthEngine(context, new OverlayMemory(this));
+		engine.shareStringPool(strings);
+		engine.setHere(here);
+		if (verified)
+			engine.markVerified();
+		return engine;
+	}
+
+	/**
+	 * Returns the number of cells in the shared code segment
+	 */
+	public int getCellCount() {
+		return cells.length;
+	}
+
+	/**
+	 * Returns the number of cells of RAM each engine addresses
+	 */
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	/**
+	 * Returns true if the program was verified before it was frozen, so
+	 * engines running it skip the stacks' underflow checks
+	 */
+	public boolean isVerified() {
+		return verified;
+	}
+}
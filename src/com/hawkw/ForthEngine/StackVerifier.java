@@ -0,0 +1,368 @@
+package com.hawkw.ForthEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StackVerifier.java
+ * A load-time check that a program cannot underflow either stack. Starting
+ * at address 0 it follows every path through the program, including both
+ * ways out of each IF, and tracks the least and greatest depth the
+ * DataStack and ReturnStack can have when each instruction runs, using the
+ * stack effect of each opcode.
+ *
+ * A program is rejected if some instruction may find too few cells on a
+ * stack, if a path runs into an empty cell or an operand that could not be
+ * resolved, or if a STORE writes over an instruction the program may run
+ * (the verifier only knows the program as it was loaded). A program that
+ * passes can run with the stacks' underflow checks turned off.
+ *
+ * Each colon definition is followed once for all of its callers, so the
+ * DataStack depths a definition returns with are those of any call to it.
+ * Inside a definition the ReturnStack depth is counted from the address its
+ * ENTER pushed, which the definition's own RSTOREs and RFETCHes may not
+ * reach below; every RETURN must find the ReturnStack exactly as ENTER left
+ * it, so that the address it pops is the one ENTER pushed, and after a call
+ * the ReturnStack is as it was before the ENTER.
+ *
+ * @author hawk
+ * @see ForthEngine#verify()
+ */
+public final class StackVerifier {
+
+	/**
+	 * The greatest depth of a stack that grows around a loop
+	 */
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	// a join point whose greatest depth keeps growing is widened to
+	// UNBOUNDED after this many visits, so that loops terminate
+	private static final int WIDEN_AFTER = 8;
+
+	// the context of code that is not in a colon definition
+	private static final int MAIN = -1;
+
+	// DataStack pops and pushes, then ReturnStack pops and pushes, per opcode
+	private static final int[][] EFFECTS = {
+	/* NOP */{ 0, 0, 0, 0 },
+	/* STORE */{ 1, 0, 0, 0 },
+	/* ADD */{ 2, 1, 0, 0 },
+	/* SUB */{ 2, 1, 0, 0 },
+	/* RSTORE */{ 1, 0, 0, 1 },
+	/* FETCH */{ 0, 1, 0, 0 },
+	/* AND */{ 2, 1, 0, 0 },
+	/* DROP */{ 1, 0, 0, 0 },
+	/* DUP */{ 1, 2, 0, 0 },
+	/* OR */{ 2, 1, 0, 0 },
+	/* OVER */{ 0, 0, 0, 0 }, // unimplemented, does nothing
+	/* RFETCH */{ 0, 1, 1, 0 },
+	/* SWAP */{ 2, 2, 0, 0 },
+	/* XOR */{ 2, 1, 0, 0 },
+	/* IF */{ 1, 0, 0, 0 },
+	/* CALL */{ 0, 0, 0, 0 },
+	/* EXIT */{ 0, 0, 0, 0 },
+	/* LIT */{ 0, 1, 0, 0 },
+	/* COUT */{ 1, 0, 0, 0 },
+	/* CIN */{ 0, 1, 0, 0 },
+	/* S" */{ 0, 0, 0, 0 },
+	/* SOUT */{ 0, 0, 0, 0 },
+	/* ENTER */{ 0, 0, 0, 1 },
+	/* RETURN */{ 0, 0, 1, 0 },
+	/* JUMP */{ 0, 0, 0, 0 } };
+
+	/**
+	 * The depths proven for a verified program
+	 */
+	public static final class Result {
+		// minimum and maximum DataStack, then ReturnStack, depth per address
+		private final HashMap<Integer, int[]> depths;
+
+		private Result(HashMap<Integer, int[]> depths) {
+			this.depths = depths;
+		}
+
+		/**
+		 * Returns true if the instruction at an address can be reached
+		 */
+		public boolean isReachable(int address) {
+			return depths.containsKey(address);
+		}
+
+		/**
+		 * Returns the least DataStack depth when the instruction at an
+		 * address runs
+		 */
+		public int getMinDepth(int address) {
+			return depths.get(address)[0];
+		}
+
+		/**
+		 * Returns the greatest DataStack depth when the instruction at an
+		 * address runs, or UNBOUNDED
+		 */
+		public int getMaxDepth(int address) {
+			return depths.get(address)[1];
+		}
+
+		/**
+		 * Returns the least ReturnStack depth when the instruction at an
+		 * address runs; in a colon definition, above the address its ENTER
+		 * pushed
+		 */
+		public int getMinReturnDepth(int address) {
+			return depths.get(address)[2];
+		}
+
+		/**
+		 * Returns the greatest ReturnStack depth when the instruction at an
+		 * address runs, or UNBOUNDED; in a colon definition, above the
+		 * address its ENTER pushed
+		 */
+		public int getMaxReturnDepth(int address) {
+			return depths.get(address)[3];
+		}
+
+		/**
+		 * Returns the greatest DataStack depth anywhere in the program, or
+		 * UNBOUNDED
+		 */
+		public int getMaxDepth() {
+			int max = 0;
+			for (int[] depth : depths.values())
+				max = Math.max(max, depth[1]);
+			return max;
+		}
+	}
+
+	private StackVerifier() {
+	}
+
+	/**
+	 * Verifies the program in an engine's RAM, starting at address 0
+	 *
+	 * @param engine
+	 *            the engine holding the program
+	 * @return the depths proven at each reachable instruction
+	 * @throws UnverifiableProgramException
+	 *             if the program may underflow a stack, run into an empty
+	 *             cell, or overwrite its own code
+	 */
+	public static Result verify(ForthEngine engine)
+			throws UnverifiableProgramException {
+		int mask = engine.getAddressMask();
+		// states are kept per colon definition being run (its first
+		// address, or MAIN) and address
+		HashMap<Long, int[]> depths = new HashMap<Long, int[]>();
+		HashMap<Long, Integer> visits = new HashMap<Long, Integer>();
+		ArrayDeque<Long> work = new ArrayDeque<Long>();
+		// the ENTERs that call each definition, and the depths after each
+		// definition's RETURNs, merged
+		HashMap<Integer, ArrayList<Long>> callers = new HashMap<Integer, ArrayList<Long>>();
+		HashMap<Integer, int[]> returned = new HashMap<Integer, int[]>();
+		depths.put(key(MAIN, 0), new int[] { 0, 0, 0, 0 });
+		work.add(key(MAIN, 0));
+
+		while (!work.isEmpty()) {
+			long key = work.poll();
+			int context = context(key);
+			int address = (int) key;
+			int[] in = depths.get(key);
+			// a superinstruction is checked as the sequence it replaced,
+			// which is still in RAM after its first cell
+			long cell = Superinstructions.unfuse(engine.read(address));
+			if (cell == Cell.EMPTY)
+				throw reject(address, cell, "there is no instruction here");
+			int opcode = Cell.isInstruction(cell) ? Cell.opcode(cell)
+					: Opcodes.NOP; // data cells do nothing
+			if (opcode >= EFFECTS.length)
+				throw reject(address, cell, "unknown opcode");
+			if (usesOperand(opcode) && Cell.operand(cell) < 0)
+				throw reject(address, cell, "its address cannot be resolved");
+			if (opcode == Opcodes.RETURN && context == MAIN)
+				throw reject(address, cell, "it is not in a colon definition");
+			if (opcode == Opcodes.RETURN && (in[2] != 0 || in[3] != 0))
+				throw reject(address, cell, "the ReturnStack may hold "
+						+ in[2] + " to " + depth(in[3])
+						+ " cell(s) above the address ENTER pushed");
+
+			// RETURN pops the frame's own address, which is not counted
+			int[] effect = opcode == Opcodes.RETURN ? EFFECTS[Opcodes.NOP]
+					: EFFECTS[opcode];
+			if (in[0] < effect[0])
+				throw reject(address, cell, "it needs " + effect[0]
+						+ " cell(s) on the DataStack but there may be only "
+						+ in[0]);
+			if (in[2] < effect[2])
+				throw reject(address, cell, "it needs " + effect[2]
+						+ " cell(s) on the ReturnStack but there may be only "
+						+ in[2]);
+			int[] out = { in[0] - effect[0] + effect[1],
+					apply(in[1], effect[0], effect[1]),
+					in[2] - effect[2] + effect[3],
+					apply(in[3], effect[2], effect[3]) };
+
+			int next = (address + 1) & mask;
+			int target = (Cell.operand(cell) + 1) & mask;
+			switch (opcode) {
+			case Opcodes.EXIT:
+				break;
+			case Opcodes.CALL:
+				merge(depths, visits, work, key(context, target), out);
+				break;
+			case Opcodes.IF:
+				merge(depths, visits, work, key(context, target), out);
+				merge(depths, visits, work, key(context, next), out);
+				break;
+			case Opcodes.JUMP:
+				merge(depths, visits, work,
+						key(context, Cell.operand(cell)), out);
+				break;
+			case Opcodes.ENTER:
+				// the definition starts with nothing on the ReturnStack above
+				// the address just pushed
+				int entry = Cell.operand(cell);
+				merge(depths, visits, work, key(entry, entry), new int[] {
+						out[0], out[1], 0, 0 });
+				ArrayList<Long> sites = callers.get(entry);
+				if (sites == null) {
+					sites = new ArrayList<Long>();
+					callers.put(entry, sites);
+				}
+				if (!sites.contains(key))
+					sites.add(key);
+				if (returned.containsKey(entry))
+					afterCall(depths, visits, work, key, returned.get(entry),
+							mask);
+				break;
+			case Opcodes.RETURN:
+				int[] known = returned.get(context);
+				int[] joined = known == null ? out : join(known, out);
+				if (known == null || !Arrays.equals(known, joined)) {
+					returned.put(context, joined);
+					for (long site : callers.get(context))
+						afterCall(depths, visits, work, site, joined, mask);
+				}
+				break;
+			default:
+				merge(depths, visits, work, key(context, next), out);
+			}
+		}
+
+		// the depths at each address, whatever definition it was run in
+		HashMap<Integer, int[]> merged = new HashMap<Integer, int[]>();
+		for (Map.Entry<Long, int[]> state : depths.entrySet()) {
+			int address = (int) (long) state.getKey();
+			int[] known = merged.get(address);
+			merged.put(address, known == null ? state.getValue() : join(known,
+					state.getValue()));
+		}
+		for (int address : merged.keySet()) {
+			long cell = engine.read(address);
+			if (Cell.isInstruction(cell) && Cell.opcode(cell) == Opcodes.STORE
+					&& merged.containsKey(Cell.operand(cell)))
+				throw reject(address, cell, "it overwrites the instruction at "
+						+ location(Cell.operand(cell)));
+		}
+		return new Result(merged);
+	}
+
+	private static long key(int context, int address) {
+		return ((long) (context + 1) << 32) | address;
+	}
+
+	private static int context(long key) {
+		return (int) (key >>> 32) - 1;
+	}
+
+	/**
+	 * Continues after an ENTER once the definition it calls has returned:
+	 * the DataStack is as the definition left it, and the ReturnStack as it
+	 * was before the ENTER pushed the return address
+	 */
+	private static void afterCall(HashMap<Long, int[]> depths,
+			HashMap<Long, Integer> visits, ArrayDeque<Long> work, long site,
+			int[] returned, int mask) {
+		int[] before = depths.get(site);
+		merge(depths, visits, work, key(context(site),
+				((int) site + 1) & mask), new int[] { returned[0], returned[1],
+				before[2], before[3] });
+	}
+
+	/**
+	 * Returns the depths that cover both of two states
+	 */
+	private static int[] join(int[] a, int[] b) {
+		return new int[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]),
+				Math.min(a[2], b[2]), Math.max(a[3], b[3]) };
+	}
+
+	private static boolean usesOperand(int opcode) {
+		switch (opcode) {
+		case Opcodes.STORE:
+		case Opcodes.FETCH:
+		case Opcodes.IF:
+		case Opcodes.CALL:
+		case Opcodes.SOUT:
+		case Opcodes.ENTER:
+		case Opcodes.JUMP:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static String depth(int max) {
+		return max == UNBOUNDED ? "any number of" : Integer.toString(max);
+	}
+
+	private static int apply(int max, int pops, int pushes) {
+		return max == UNBOUNDED ? UNBOUNDED : max - pops + pushes;
+	}
+
+	/**
+	 * Merges the depths flowing into an address with the ones already known
+	 * there, and queues the address again if they changed
+	 */
+	private static void merge(HashMap<Long, int[]> depths,
+			HashMap<Long, Integer> visits, ArrayDeque<Long> work, long address,
+			int[] in) {
+		int[] known = depths.get(address);
+		if (known == null) {
+			depths.put(address, in.clone());
+			work.add(address);
+			return;
+		}
+		int count = visits.containsKey(address) ? visits.get(address) + 1 : 1;
+		visits.put(address, count);
+		int[] merged = { Math.min(known[0], in[0]),
+				widen(known[1], in[1], count), Math.min(known[2], in[2]),
+				widen(known[3], in[3], count) };
+		if (!Arrays.equals(known, merged)) {
+			depths.put(address, merged);
+			work.add(address);
+		}
+	}
+
+	private static int widen(int known, int in, int visits) {
+		if (in <= known)
+			return known;
+		return visits > WIDEN_AFTER ? UNBOUNDED : in;
+	}
+
+	private static UnverifiableProgramException reject(int address,
+			long cell, String reason) {
+		String instruction = Cell.isInstruction(cell) ? Opcodes.name(Cell
+				.opcode(cell)) : "cell";
+		return new UnverifiableProgramException(address, instruction + " at "
+				+ location(address) + " cannot run: " + reason);
+	}
+
+	private static String location(int address) {
+		ForthEngine.RAMLocation location = ForthEngine.RAMLocation
+				.fromAddress(address);
+		return "(" + location.getModule() + "," + location.getIndex() + ")";
+	}
+}
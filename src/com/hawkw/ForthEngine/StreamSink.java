@@ -0,0 +1,59 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * StreamSink.java
+ * A BufferedSink that drains into an OutputStream, such as the PrintStream
+ * of an EngineContext. This is the sink a ForthEngine uses unless it is
+ * given another one. Each drained chunk is written with one call, so engines
+ * sharing a stream interleave whole lines.
+ * 
+ * @author hawk
+ */
+public class StreamSink extends BufferedSink {
+
+	/**
+	 * The default number of bytes held before they are written
+	 */
+	public static final int DEFAULT_FLUSH_SIZE = 8192;
+	/**
+	 * The default longest time a finished line is held, in nanoseconds
+	 */
+	public static final long DEFAULT_MAX_DELAY = 50000000L; // 50ms
+
+	private final OutputStream out;
+
+	/**
+	 * Creates a sink with the default thresholds
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 */
+	public StreamSink(OutputStream out) {
+		this(out, DEFAULT_FLUSH_SIZE, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * Creates a sink
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param flushSize
+	 *            the number of bytes held before they are written
+	 * @param maxDelay
+	 *            the longest time in nanoseconds a finished line is held
+	 */
+	public StreamSink(OutputStream out, int flushSize, long maxDelay) {
+		super(flushSize, maxDelay);
+		this.out = out;
+	}
+
+	@Override
+	protected void drain(byte[] bytes, int offset, int length)
+			throws IOException {
+		out.write(bytes, offset, length);
+		out.flush();
+	}
+}
@@ -0,0 +1,208 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * Superinstructions.java
+ * A peephole pass, run after a program has been loaded into RAM, that
+ * rewrites common sequences of instructions into fused superinstructions
+ * which do the work of the whole sequence in a single dispatch.
+ *
+ * The pass never moves anything. The first cell of a sequence is replaced by
+ * the superinstruction, which continues after the last cell of the sequence,
+ * and the rest of the sequence is left where it was. Every address stays the
+ * same, so branch targets need no fixing, and a branch into the middle of a
+ * sequence still finds the original instructions there. Sequences that cover
+ * a cell some STORE in the program writes to are left alone, so that
+ * self-modifying programs behave as they did before.
+ *
+ * @author hawk
+ * @see Opcodes#FETCH_FETCH_ADD_STORE
+ */
+public final class Superinstructions {
+
+	// matches a number cell, the literal after LIT
+	private static final int NUMBER = -1;
+
+	// the sequence each superinstruction replaces, indexed by its opcode
+	// minus FETCH_FETCH_ADD_STORE; longer sequences are tried first
+	private static final int[][] SEQUENCES = {
+			{ Opcodes.FETCH, Opcodes.FETCH, Opcodes.ADD, Opcodes.STORE },
+			{ Opcodes.LIT, NUMBER, Opcodes.ADD },
+			{ Opcodes.DUP, Opcodes.IF },
+			{ Opcodes.ADD, Opcodes.STORE },
+			{ Opcodes.FETCH, Opcodes.COUT } };
+	private static final String[] NAMES = { "FETCH FETCH ADD STORE",
+			"LIT n ADD", "DUP IF", "ADD STORE", "FETCH COUT" };
+
+	/**
+	 * How many sequences of each kind a pass fused
+	 */
+	public static final class Report {
+		private final int[] counts = new int[SEQUENCES.length];
+
+		/**
+		 * Returns the total number of sequences fused
+		 */
+		public int getTotal() {
+			int total = 0;
+			for (int count : counts)
+				total += count;
+			return total;
+		}
+
+		/**
+		 * Returns the number of sequences fused into a superinstruction
+		 *
+		 * @param opcode
+		 *            the superinstruction's opcode, e.g. Opcodes.FETCH_COUT
+		 */
+		public int getCount(int opcode) {
+			return counts[opcode - Opcodes.FETCH_FETCH_ADD_STORE];
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder(getTotal() + " fused");
+			String separator = ": ";
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0)
+					continue;
+				s.append(separator).append(NAMES[i]).append(" x")
+						.append(counts[i]);
+				separator = ", ";
+			}
+			return s.toString();
+		}
+	}
+
+	private Superinstructions() {
+	}
+
+	/**
+	 * Fuses the program between address 0 and the engine's here pointer
+	 *
+	 * @param engine
+	 *            the engine holding the program
+	 * @return how many sequences were fused
+	 */
+	public static Report fuse(ForthEngine engine) {
+		Report report = new Report();
+		int end = engine.getHere();
+		boolean[] stored = storeTargets(engine, end);
+		int address = 0;
+		while (address < end) {
+			int match = match(engine, address, end, stored);
+			if (match < 0) {
+				address++;
+				continue;
+			}
+			engine.write(address, fusedCell(engine, address, match));
+			report.counts[match]++;
+			address += SEQUENCES[match].length;
+		}
+		return report;
+	}
+
+	/**
+	 * Returns true if a cell holds a superinstruction
+	 */
+	static boolean isFused(long cell) {
+		if (!Cell.isInstruction(cell))
+			return false;
+		int index = Cell.opcode(cell) - Opcodes.FETCH_FETCH_ADD_STORE;
+		return index >= 0 && index < SEQUENCES.length;
+	}
+
+	/**
+	 * Returns the number of cells a superinstruction covers
+	 */
+	static int length(int opcode) {
+		return SEQUENCES[opcode - Opcodes.FETCH_FETCH_ADD_STORE].length;
+	}
+
+	/**
+	 * Returns the first instruction of the sequence a superinstruction
+	 * replaced, with the superinstruction's operand, or the cell itself if it
+	 * is not a superinstruction. Only the operand of a FETCH head is its own.
+	 */
+	static long unfuse(long cell) {
+		if (!isFused(cell))
+			return cell;
+		int[] sequence = SEQUENCES[Cell.opcode(cell)
+				- Opcodes.FETCH_FETCH_ADD_STORE];
+		return Cell.instruction(sequence[0], Cell.rawAddress(cell),
+				Cell.operand(cell));
+	}
+
+	private static boolean[] storeTargets(ForthEngine engine, int end) {
+		boolean[] stored = new boolean[end];
+		for (int address = 0; address < end; address++) {
+			long cell = engine.read(address);
+			if (Cell.isInstruction(cell) && Cell.opcode(cell) == Opcodes.STORE) {
+				int target = Cell.operand(cell);
+				if (target >= 0 && target < end)
+					stored[target] = true;
+			}
+		}
+		return stored;
+	}
+
+	/**
+	 * Returns the index of the first sequence that starts at an address, or
+	 * -1 if none does
+	 */
+	private static int match(ForthEngine engine, int address, int end,
+			boolean[] stored) {
+		for (int i = 0; i < SEQUENCES.length; i++) {
+			int[] sequence = SEQUENCES[i];
+			if (address + sequence.length > end)
+				continue;
+			int k = 0;
+			while (k < sequence.length
+					&& !stored[address + k]
+					&& matches(engine.read(address + k), sequence[k]))
+				k++;
+			if (k == sequence.length)
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean matches(long cell, int opcode) {
+		if (opcode == NUMBER)
+			return Cell.isNumber(cell);
+		if (!Cell.isInstruction(cell) || Cell.opcode(cell) != opcode)
+			return false;
+		switch (opcode) {
+		case Opcodes.STORE:
+		case Opcodes.FETCH:
+		case Opcodes.IF:
+			return Cell.operand(cell) >= 0;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Builds the superinstruction for a sequence. Its operand is the one the
+	 * fused code needs most: the literal of LIT n ADD, the target of DUP IF
+	 * and ADD STORE, and otherwise the operand of the first FETCH.
+	 */
+	private static long fusedCell(ForthEngine engine, int address, int index) {
+		int opcode = Opcodes.FETCH_FETCH_ADD_STORE + index;
+		long source;
+		switch (opcode) {
+		case Opcodes.LIT_ADD:
+			return Cell.instruction(opcode, 0,
+					Cell.value(engine.read(address + 1)));
+		case Opcodes.DUP_IF:
+		case Opcodes.ADD_STORE:
+			source = engine.read(address + 1);
+			break;
+		default:
+			source = engine.read(address);
+			break;
+		}
+		return Cell.instruction(opcode, Cell.rawAddress(source),
+				Cell.operand(source));
+	}
+}
@@ -0,0 +1,82 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * Suspension.java
+ * A program stopped at a CIN that found no input. It records where the
+ * program stopped and what was on its stacks; the engine itself is left
+ * exactly as it was, so feeding it input and resuming continues from the
+ * CIN as though it had never stopped. Nothing is held on a thread while a
+ * program is suspended, so one thread can take turns at any number of
+ * engines waiting for input.
+ * 
+ * @author hawk
+ * @see ForthEngine#run()
+ * @see ForthEngine#resume()
+ */
+public final class Suspension {
+
+	private final ForthEngine engine;
+	// the engine's generation when it stopped here
+	private final long generation;
+	private final int programCounter;
+	private final long[] dataStack;
+	private final long[] returnStack;
+
+	Suspension(ForthEngine engine, long generation, int programCounter,
+			long[] dataStack, long[] returnStack) {
+		this.engine = engine;
+		this.generation = generation;
+		this.programCounter = programCounter;
+		this.dataStack = dataStack;
+		this.returnStack = returnStack;
+	}
+
+	/**
+	 * Returns the engine that is suspended
+	 */
+	public ForthEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Returns the address of the CIN the program stopped at
+	 */
+	public int getProgramCounter() {
+		return programCounter;
+	}
+
+	/**
+	 * Returns the cells that were on the DataStack, from the bottom of the
+	 * stack to the top
+	 */
+	public long[] getDataStack() {
+		return dataStack.clone();
+	}
+
+	/**
+	 * Returns the cells that were on the ReturnStack, from the bottom of the
+	 * stack to the top
+	 */
+	public long[] getReturnStack() {
+		return returnStack.clone();
+	}
+
+	/**
+	 * Feeds input to the engine and continues the program. Nothing is fed
+	 * if the engine cannot be resumed from here.
+	 * 
+	 * @param input
+	 *            whitespace-separated tokens for CIN
+	 * @return null once the program has reached EXIT, or the next Suspension
+	 * @throws IllegalStateException
+	 *             if the engine has been resumed or run since it stopped here
+	 */
+	public Suspension resume(String input) {
+		if (engine.getGeneration() != generation || !engine.isSuspended())
+			throw new IllegalStateException(
+					"The engine has moved on since it stopped at "
+							+ ForthEngine.position(programCounter));
+		engine.feed(input);
+		return engine.resume();
+	}
+}
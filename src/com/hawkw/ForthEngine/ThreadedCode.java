@@ -0,0 +1,490 @@
+package com.hawkw.ForthEngine;
+
+import java.util.Arrays;
+
+/**
+ * ThreadedCode.java
+ * The THREADED execution mode's translation of an engine's RAM: one
+ * pre-bound handler per cell, with its operand and the address of the
+ * instruction after it already resolved. Running a step is just
+ * {@code pc = code[pc].exec(engine)}; a negative return ends the run.
+ * Handlers that transfer control go through ForthEngine.branch(), the only
+ * place a run's instruction budget is checked.
+ *
+ * Cells are translated the first time they are executed, and translated
+ * again after they are overwritten, so programs that store into their own
+ * code behave exactly as they do in the DECODED mode. Anything unusual (an
+ * empty cell, an operand that could not be resolved) is handed to the
+ * decoded evaluator so that it fails the same way. Superinstructions bind
+ * the operands of the cells they cover when their first cell is translated.
+ *
+ * In the COMPILED mode each handler also counts how often execution enters
+ * at its cell; once that passes the compiler's threshold, the block starting
+ * there is compiled and its handler replaces the one for the first cell.
+ * Overwriting any cell of a compiled block discards the block.
+ *
+ * The tables start at INITIAL_CELLS and double when execution reaches past
+ * them, so a large sparse memory costs only as much table as its code
+ * spans.
+ *
+ * @author hawk
+ * @see ExecutionMode#THREADED
+ * @see BlockCompiler
+ */
+final class ThreadedCode {
+
+	/**
+	 * A translated instruction
+	 */
+	interface Instruction {
+		/**
+		 * Executes the instruction
+		 *
+		 * @param engine
+		 *            the engine to execute it on
+		 * @return the address of the next instruction, or -1 to stop
+		 */
+		int exec(ForthEngine engine);
+	}
+
+	/**
+	 * The number of cells the tables cover until execution goes past them
+	 */
+	static final int INITIAL_CELLS = 1 << 16;
+
+	Instruction[] code;
+	// the number of cells the handler at each address executes: more than
+	// one for superinstructions and compiled blocks
+	int[] weight;
+	// execution may enter a cell below this without the tables growing: a
+	// whole block past it still fits
+	int limit;
+	private final ForthEngine engine;
+	private final int mask;
+	// only for the COMPILED mode: how many compiled blocks cover each cell,
+	// and the last cell of the block starting at each cell (-1 if none)
+	private final BlockCompiler compiler;
+	// true if the program was verified, so handlers may skip underflow checks
+	private final boolean unchecked;
+	private int[] covered;
+	private int[] blockEnd;
+
+	// stands in for every cell that has not been translated yet
+	private final Instruction untranslated = new Instruction() {
+		@Override
+		public int exec(ForthEngine e) {
+			return translate(e.pc).exec(e);
+		}
+	};
+
+	/**
+	 * @param engine
+	 *            the engine whose RAM is translated
+	 * @param compiler
+	 *            the compiler for hot blocks, or null to only thread
+	 */
+	ThreadedCode(ForthEngine engine, BlockCompiler compiler) {
+		this.engine = engine;
+		this.mask = engine.getAddressMask();
+		this.compiler = compiler;
+		this.unchecked = engine.isVerified();
+		this.code = new Instruction[0];
+		this.weight = new int[0];
+		if (compiler != null) {
+			covered = new int[0];
+			blockEnd = new int[0];
+		}
+		grow(Math.min(mask + 1, INITIAL_CELLS));
+	}
+
+	/**
+	 * Grows the tables so that execution can enter an address
+	 *
+	 * @param address
+	 *            the address, at or past limit
+	 */
+	void reach(int address) {
+		int cells = code.length;
+		while (cells <= mask && address >= cells - BlockCompiler.MAX_BLOCK)
+			cells <<= 1;
+		grow(cells);
+	}
+
+	private void grow(int cells) {
+		int old = code.length;
+		code = Arrays.copyOf(code, cells);
+		Arrays.fill(code, old, cells, untranslated);
+		weight = Arrays.copyOf(weight, cells);
+		Arrays.fill(weight, old, cells, 1);
+		if (compiler != null) {
+			covered = Arrays.copyOf(covered, cells);
+			blockEnd = Arrays.copyOf(blockEnd, cells);
+			Arrays.fill(blockEnd, old, cells, -1);
+		}
+		limit = cells > mask ? cells : cells - BlockCompiler.MAX_BLOCK;
+	}
+
+	/**
+	 * Returns the number of blocks compiled so far
+	 */
+	int getCompiledCount() {
+		return compiler == null ? 0 : compiler.getCompiledCount();
+	}
+
+	/**
+	 * Forgets the translation of a cell that has been overwritten
+	 *
+	 * @param address
+	 *            the address of the cell
+	 */
+	void invalidate(int address) {
+		if (address >= code.length)
+			return; // never translated
+		code[address] = untranslated;
+		if (covered != null && covered[address] > 0)
+			deoptimize(address);
+	}
+
+	/**
+	 * Discards every compiled block that covers an address
+	 */
+	private void deoptimize(int address) {
+		int first = Math.max(0, address - BlockCompiler.MAX_BLOCK + 1);
+		for (int start = address; start >= first; start--) {
+			int end = blockEnd[start];
+			if (end >= address) {
+				for (int a = start; a <= end; a++)
+					covered[a]--;
+				blockEnd[start] = -1;
+				code[start] = untranslated;
+				weight[start] = 1;
+			}
+		}
+	}
+
+	/**
+	 * Translates the cell at an address and installs the handler
+	 *
+	 * @param address
+	 *            the address of the cell
+	 * @return the handler for that cell
+	 */
+	Instruction translate(int address) {
+		long cell = engine.read(address);
+		Instruction instruction = unchecked ? bindUnchecked(cell, address)
+				: null;
+		if (instruction == null)
+			instruction = bind(cell, address);
+		if (compiler != null)
+			instruction = counted(address, instruction);
+		code[address] = instruction;
+		weight[address] = cellsBound(cell);
+		return instruction;
+	}
+
+	/**
+	 * Wraps a handler so that it compiles the block starting at its cell once
+	 * it has run often enough
+	 */
+	private Instruction counted(final int address, final Instruction handler) {
+		return new Instruction() {
+			private int count = 0;
+
+			@Override
+			public int exec(ForthEngine e) {
+				if (count++ < compiler.threshold)
+					return handler.exec(e);
+				BlockCompiler.Block block = compiler.compile(address);
+				if (block == null) {
+					code[address] = handler;
+					return handler.exec(e);
+				}
+				for (int a = block.start; a <= block.end; a++)
+					covered[a]++;
+				blockEnd[address] = block.end;
+				code[address] = block.code;
+				weight[address] = block.end - block.start + 1;
+				return block.code.exec(e);
+			}
+		};
+	}
+
+	private Instruction bind(long cell, final int address) {
+		final int next = (address + 1) & mask;
+		if (cell == Cell.EMPTY)
+			return decoded();
+		int opcode = Cell.opcode(cell);
+		final int operand = Cell.operand(cell);
+		if (operand < 0 && usesOperand(opcode))
+			return decoded();
+		final int target = (operand + 1) & mask;
+
+		switch (opcode) {
+		case Opcodes.STORE:
+			return e -> {
+				e.write(operand, e.DataStack.pop());
+				return next;
+			};
+		case Opcodes.ADD:
+			return e -> {
+				e.DataStack.push(Cell.number(e.intValue(e.DataStack.pop())
+						+ e.intValue(e.DataStack.pop())));
+				return next;
+			};
+		case Opcodes.SUB:
+			return e -> {
+				e.DataStack.push(Cell.number(e.intValue(e.DataStack.pop())
+						- e.intValue(e.DataStack.pop())));
+				return next;
+			};
+		case Opcodes.RSTORE:
+			return e -> {
+				e.ReturnStack.push(e.DataStack.pop());
+				return next;
+			};
+		case Opcodes.FETCH:
+			return e -> {
+				e.DataStack.push(e.read(operand));
+				return next;
+			};
+		case Opcodes.AND:
+			return e -> {
+				e.DataStack.push(Cell.number(e.intValue(e.DataStack.pop())
+						& e.intValue(e.DataStack.pop())));
+				return next;
+			};
+		case Opcodes.DROP:
+			return e -> {
+				e.DataStack.pop();
+				return next;
+			};
+		case Opcodes.DUP:
+			return e -> {
+				e.DataStack.push(e.DataStack.peek());
+				return next;
+			};
+		case Opcodes.OR:
+			return e -> {
+				e.DataStack.push(Cell.number(e.intValue(e.DataStack.pop())
+						| e.intValue(e.DataStack.pop())));
+				return next;
+			};
+		case Opcodes.RFETCH:
+			return e -> {
+				e.DataStack.push(e.ReturnStack.pop());
+				return next;
+			};
+		case Opcodes.SWAP:
+			// see the DECODED SWAP: only the depth check has an effect
+			return e -> {
+				e.requireDepth(2);
+				return next;
+			};
+		case Opcodes.XOR:
+			return e -> {
+				e.DataStack.push(Cell.number(e.intValue(e.DataStack.pop())
+						^ e.intValue(e.DataStack.pop())));
+				return next;
+			};
+		case Opcodes.IF:
+			return e -> e.branch(ForthEngine.branchTarget(e.DataStack.pop(),
+					target, next));
+		case Opcodes.CALL:
+			return e -> e.branch(target);
+		case Opcodes.ENTER:
+			return e -> e.branch(e.enter(address, operand));
+		case Opcodes.RETURN:
+			return e -> e.branch(e.leave());
+		case Opcodes.JUMP:
+			return e -> e.branch(operand);
+		case Opcodes.EXIT:
+			return e -> {
+				e.done = true;
+				return -1;
+			};
+		case Opcodes.LIT:
+			return e -> {
+				e.DataStack.push(e.read(next));
+				return next;
+			};
+		case Opcodes.COUT:
+			return e -> {
+				e.printCell(e.DataStack.pop());
+				return next;
+			};
+		case Opcodes.CIN:
+			return e -> {
+				String token = e.getCIN();
+				if (token == null)
+					return e.suspend(); // pc is still this CIN
+				e.DataStack.push(e.toCell(token));
+				return next;
+			};
+		case Opcodes.SOUT:
+			return e -> {
+				e.printCell(e.read(operand));
+				return next;
+			};
+		case Opcodes.FETCH_FETCH_ADD_STORE:
+			final int b = Cell.operand(engine.read(next));
+			final int c = Cell.operand(engine.read((address + 3) & mask));
+			final int afterStore = (address + 4) & mask;
+			return e -> {
+				long first = e.read(operand);
+				e.write(c, Cell.number(e.intValue(e.read(b))
+						+ e.intValue(first)));
+				return afterStore;
+			};
+		case Opcodes.LIT_ADD:
+			final int afterAdd = (address + 3) & mask;
+			return e -> {
+				e.DataStack.push(Cell.number(operand
+						+ e.intValue(e.DataStack.pop())));
+				return afterAdd;
+			};
+		case Opcodes.DUP_IF:
+			final int afterIf = (address + 2) & mask;
+			return e -> e.branch(ForthEngine.branchTarget(e.DataStack.peek(),
+					target, afterIf));
+		case Opcodes.ADD_STORE:
+			final int afterAddStore = (address + 2) & mask;
+			return e -> {
+				e.write(operand, Cell.number(e.intValue(e.DataStack.pop())
+						+ e.intValue(e.DataStack.pop())));
+				return afterAddStore;
+			};
+		case Opcodes.FETCH_COUT:
+			final int afterCout = (address + 2) & mask;
+			return e -> {
+				e.printCell(e.read(operand));
+				return afterCout;
+			};
+		default:
+			// NOP, S", OVER and data cells do nothing
+			return e -> next;
+		}
+	}
+
+	/**
+	 * Binds the stack-heavy instructions of a verified program to handlers
+	 * that do not check for underflow
+	 * 
+	 * @return the handler, or null if the checked one should be used
+	 */
+	private Instruction bindUnchecked(long cell, final int address) {
+		if (!Cell.isInstruction(cell))
+			return null;
+		final int next = (address + 1) & mask;
+		final int operand = Cell.operand(cell);
+		final int target = (operand + 1) & mask;
+		switch (Cell.opcode(cell)) {
+		case Opcodes.STORE:
+			return e -> {
+				e.write(operand, e.DataStack.popUnchecked());
+				return next;
+			};
+		case Opcodes.ADD:
+			return e -> {
+				e.DataStack.push(Cell.number(e.intValue(e.DataStack
+						.popUnchecked()) + e.intValue(e.DataStack.popUnchecked())));
+				return next;
+			};
+		case Opcodes.SUB:
+			return e -> {
+				e.DataStack.push(Cell.number(e.intValue(e.DataStack
+						.popUnchecked()) - e.intValue(e.DataStack.popUnchecked())));
+				return next;
+			};
+		case Opcodes.DROP:
+			return e -> {
+				e.DataStack.popUnchecked();
+				return next;
+			};
+		case Opcodes.DUP:
+			return e -> {
+				e.DataStack.push(e.DataStack.peekUnchecked());
+				return next;
+			};
+		case Opcodes.SWAP:
+			return e -> next;
+		case Opcodes.IF:
+			return e -> e.branch(ForthEngine.branchTarget(
+					e.DataStack.popUnchecked(), target, next));
+		case Opcodes.COUT:
+			return e -> {
+				e.printCell(e.DataStack.popUnchecked());
+				return next;
+			};
+		case Opcodes.RSTORE:
+			return e -> {
+				e.ReturnStack.push(e.DataStack.popUnchecked());
+				return next;
+			};
+		case Opcodes.RFETCH:
+			return e -> {
+				e.DataStack.push(e.ReturnStack.popUnchecked());
+				return next;
+			};
+		case Opcodes.ADD_STORE:
+			final int afterAddStore = (address + 2) & mask;
+			return e -> {
+				e.write(operand, Cell.number(e.intValue(e.DataStack
+						.popUnchecked()) + e.intValue(e.DataStack.popUnchecked())));
+				return afterAddStore;
+			};
+		case Opcodes.DUP_IF:
+			final int afterIf = (address + 2) & mask;
+			return e -> e.branch(ForthEngine.branchTarget(
+					e.DataStack.peekUnchecked(), target, afterIf));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the number of cells the handler bound for a cell executes. A
+	 * superinstruction left to the decoded evaluator counts its own tail.
+	 */
+	private static int cellsBound(long cell) {
+		if (!Superinstructions.isFused(cell))
+			return 1;
+		int opcode = Cell.opcode(cell);
+		if (Cell.operand(cell) < 0 && usesOperand(opcode))
+			return 1;
+		return Superinstructions.length(opcode);
+	}
+
+	private static boolean usesOperand(int opcode) {
+		switch (opcode) {
+		case Opcodes.STORE:
+		case Opcodes.FETCH:
+		case Opcodes.IF:
+		case Opcodes.CALL:
+		case Opcodes.SOUT:
+		case Opcodes.ENTER:
+		case Opcodes.JUMP:
+		case Opcodes.FETCH_FETCH_ADD_STORE:
+		case Opcodes.DUP_IF:
+		case Opcodes.ADD_STORE:
+		case Opcodes.FETCH_COUT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a handler that runs the decoded evaluator on the current cell
+	 */
+	private Instruction decoded() {
+		return e -> {
+			e.evalDecoded();
+			int next = (e.pc + 1) & mask;
+			if (!e.done)
+				return next;
+			if (e.isYielded())
+				e.pc = next; // where resume() carries on
+			return -1;
+		};
+	}
+}
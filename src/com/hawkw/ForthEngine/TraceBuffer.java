@@ -0,0 +1,163 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * TraceBuffer.java
+ * A ring buffer of fixed-size binary trace records, one per instruction an
+ * engine dispatches: its address, opcode and operand, and the depth and top
+ * cell of the DataStack before it ran. The buffer is allocated once and
+ * recording a step is a handful of array stores, with no Strings and no
+ * I/O, so tracing can stay on in production. Only the newest records are
+ * kept; they are written to a file with write(), or automatically when a
+ * run throws if a file was given to dumpOnFailure(), and read back with
+ * TraceDecoder.
+ *
+ * A trace file is little-endian and laid out as:
+ *
+ * <pre>
+ * header  : magic "FORTHTRC" (8), version (4), record count (4),
+ *           records ever written (8), reserved (8)
+ * records : record count * (address (4), opcode (4), operand (4),
+ *           depth (4), top of stack (8)), oldest first
+ * </pre>
+ *
+ * In COMPILED mode a compiled block leaves one record, for its first cell.
+ *
+ * @author hawk
+ * @see ForthEngine#setTraceBuffer(TraceBuffer)
+ * @see TraceDecoder
+ */
+public final class TraceBuffer {
+
+	static final long MAGIC = 0x464F525448545243L; // "FORTHTRC"
+	public static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_SIZE = 24;
+	/**
+	 * The default number of records kept
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	// three longs per record: address and operand, opcode and depth, top
+	private final long[] records;
+	private final int mask;
+	private long written = 0;
+	private Path failureDump;
+
+	/**
+	 * Creates a buffer that keeps DEFAULT_CAPACITY records
+	 */
+	public TraceBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a buffer
+	 *
+	 * @param capacity
+	 *            the number of records kept, rounded up to a power of two
+	 */
+	public TraceBuffer(int capacity) {
+		if (capacity < 1 || capacity > 1 << 24)
+			throw new IllegalArgumentException("Trace capacity " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		records = new long[size * 3];
+		mask = size - 1;
+	}
+
+	/**
+	 * Records a step
+	 */
+	void record(int address, int opcode, int operand, int depth, long top) {
+		int slot = (int) (written++ & mask) * 3;
+		records[slot] = (long) address << 32 | operand & 0xFFFFFFFFL;
+		records[slot + 1] = (long) opcode << 32 | depth & 0xFFFFFFFFL;
+		records[slot + 2] = top;
+	}
+
+	/**
+	 * Returns the number of records kept
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns the number of steps recorded since the buffer was created or
+	 * cleared, including those since overwritten
+	 */
+	public long getRecordCount() {
+		return written;
+	}
+
+	/**
+	 * Forgets every record
+	 */
+	public void clear() {
+		written = 0;
+	}
+
+	/**
+	 * Makes the engine write this buffer to a file whenever a run throws
+	 *
+	 * @param file
+	 *            the trace file to write, or null to stop
+	 */
+	public void dumpOnFailure(Path file) {
+		failureDump = file;
+	}
+
+	/**
+	 * Called by the engine when a run throws
+	 */
+	void failed(RuntimeException failure) {
+		if (failureDump == null)
+			return;
+		try {
+			write(failureDump);
+		} catch (IOException e) {
+			failure.addSuppressed(e);
+		}
+	}
+
+	/**
+	 * Writes the records kept, oldest first, to a trace file
+	 *
+	 * @param file
+	 *            the trace file to write
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(Path file) throws IOException {
+		int count = (int) Math.min(written, mask + 1);
+		ByteBuffer buffer = ByteBuffer.allocate(
+				HEADER_SIZE + count * RECORD_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(MAGIC).putInt(VERSION).putInt(count).putLong(written)
+				.putLong(0);
+		for (long i = written - count; i < written; i++) {
+			int slot = (int) (i & mask) * 3;
+			buffer.putInt((int) (records[slot] >>> 32))
+					.putInt((int) (records[slot + 1] >>> 32))
+					.putInt((int) records[slot])
+					.putInt((int) records[slot + 1])
+					.putLong(records[slot + 2]);
+		}
+		buffer.flip();
+
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+}
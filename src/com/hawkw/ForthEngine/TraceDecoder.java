@@ -0,0 +1,169 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TraceDecoder.java
+ * Reads the trace files a TraceBuffer writes and turns them back into
+ * readable steps, one line per record:
+ *
+ * <pre>
+ * #1041 (0,12) ADD operand=0 depth=2 top=7
+ * </pre>
+ *
+ * where #1041 is the step's number in the run, counting from 0, and depth
+ * and top describe the DataStack just before the step.
+ *
+ * @author hawk
+ * @see TraceBuffer
+ */
+public final class TraceDecoder {
+
+	/**
+	 * One traced step
+	 */
+	public static final class Record {
+		private final long step;
+		private final int address;
+		private final int opcode;
+		private final int operand;
+		private final int depth;
+		private final long top;
+
+		private Record(long step, int address, int opcode, int operand,
+				int depth, long top) {
+			this.step = step;
+			this.address = address;
+			this.opcode = opcode;
+			this.operand = operand;
+			this.depth = depth;
+			this.top = top;
+		}
+
+		/**
+		 * Returns the step's number in the run, counting from 0
+		 */
+		public long getStep() {
+			return step;
+		}
+
+		public int getAddress() {
+			return address;
+		}
+
+		public int getOpcode() {
+			return opcode;
+		}
+
+		public int getOperand() {
+			return operand;
+		}
+
+		/**
+		 * Returns the depth of the DataStack before the step
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Returns the top cell of the DataStack before the step, or 0 if it
+		 * was empty
+		 */
+		public long getTop() {
+			return top;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + step + " " + ForthEngine.position(address) + " "
+					+ Opcodes.name(opcode) + " operand=" + operand + " depth="
+					+ depth + (depth == 0 ? "" : " top=" + format(top));
+		}
+	}
+
+	private TraceDecoder() {
+	}
+
+	/**
+	 * Reads a trace file
+	 *
+	 * @param file
+	 *            the trace file to read
+	 * @return its records, oldest first
+	 * @throws IOException
+	 *             if the file is not a trace of this version or is truncated
+	 */
+	public static List<Record> read(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(
+				ByteOrder.LITTLE_ENDIAN);
+		if (buffer.remaining() < TraceBuffer.HEADER_SIZE
+				|| buffer.getLong() != TraceBuffer.MAGIC)
+			throw new IOException(file + " is not a trace");
+		int version = buffer.getInt();
+		if (version != TraceBuffer.VERSION)
+			throw new IOException(file + " is a version " + version
+					+ " trace, expected version " + TraceBuffer.VERSION);
+		int count = buffer.getInt();
+		long written = buffer.getLong();
+		buffer.getLong(); // reserved
+		if (count < 0
+				|| (long) count * TraceBuffer.RECORD_SIZE > buffer.remaining())
+			throw new IOException(file + " is truncated");
+
+		List<Record> records = new ArrayList<Record>(count);
+		for (long step = written - count; step < written; step++)
+			records.add(new Record(step, buffer.getInt(), buffer.getInt(),
+					buffer.getInt(), buffer.getInt(), buffer.getLong()));
+		return records;
+	}
+
+	/**
+	 * Formats a stack cell the way COUT prints it, with strings shown by
+	 * their index in the string pool, which is not in the trace
+	 */
+	private static String format(long cell) {
+		switch (Cell.tag(cell)) {
+		case Cell.TAG_NUMBER:
+			return Integer.toString(Cell.value(cell));
+		case Cell.TAG_STRING:
+			return "string#" + Cell.value(cell);
+		case Cell.TAG_INSTRUCTION:
+			return Opcodes.name(Cell.opcode(cell)) + "@"
+					+ ForthEngine.position(Cell.operand(cell));
+		default:
+			return String.format("0x%016X", cell);
+		}
+	}
+
+	/**
+	 * Prints a trace file: {@code TraceDecoder [--last=<n>] <trace file>}
+	 */
+	public static void main(String[] argv) throws IOException {
+		int last = Integer.MAX_VALUE;
+		Path file = null;
+		for (String s : argv) {
+			if (s.startsWith("--last="))
+				last = Integer.parseInt(s.substring(7));
+			else
+				file = Paths.get(s);
+		}
+		if (file == null) {
+			System.err.println("Please enter the name of the trace file to decode.");
+			return;
+		}
+		List<Record> records = read(file);
+		StringBuilder out = new StringBuilder();
+		for (Record record : records.subList(
+				Math.max(0, records.size() - last), records.size()))
+			out.append(record).append(System.lineSeparator());
+		System.out.print(out);
+	}
+}
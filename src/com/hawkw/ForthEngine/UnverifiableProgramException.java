@@ -0,0 +1,27 @@
+package com.hawkw.ForthEngine;
+
+/**
+ * Thrown by StackVerifier when a program cannot be proven to run without
+ * underflowing a stack, running into an empty cell, or overwriting its own
+ * code. The message says which instruction failed and why.
+ * 
+ * @author hawk
+ * @see StackVerifier
+ */
+@SuppressWarnings("serial")
+public class UnverifiableProgramException extends Exception {
+
+	private final int address;
+
+	public UnverifiableProgramException(int address, String message) {
+		super(message);
+		this.address = address;
+	}
+
+	/**
+	 * Returns the flat address of the instruction that failed verification
+	 */
+	public int getAddress() {
+		return address;
+	}
+}
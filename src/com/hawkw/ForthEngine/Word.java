@@ -72,6 +72,24 @@ public class Word {
 		return hexValue;
 	}
 
+	/**
+	 * Returns the one-byte opcode of this word
+	 * 
+	 * @return the opcode of this word
+	 */
+	public int getOpcode() {
+		return myOpcode;
+	}
+
+	/**
+	 * Returns the two-byte RAM address of this word as an int
+	 * 
+	 * @return the RAM address of this word
+	 */
+	public int getOperand() {
+		return myAddress;
+	}
+
 	public String getString() {
 		return this.myString;
 	}
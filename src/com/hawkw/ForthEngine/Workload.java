@@ -0,0 +1,307 @@
+package com.hawkw.ForthEngine;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hawkw.Queue.EmptyQueueException;
+
+/**
+ * Workload.java
+ * A generated FORTH program for load testing: its source, the tokens its
+ * CIN reads (fed up front, so nothing waits on a person), and the RAM it
+ * needs. corpus() returns the standard set that WorkloadHarness runs.
+ *
+ * The source language has no number literals and no counted loops (IF
+ * branches on every number), so the generators get numbers from CIN and
+ * loop by nesting colon definitions: a word that calls the word below it
+ * fanout times, depth levels deep, runs the bottom word fanout^depth times.
+ * Every program starts with a definition that is never called, which keeps
+ * the code out of the data cells 0100 - 0999 (flat addresses 100 - 999).
+ *
+ * @author hawk
+ * @see WorkloadHarness
+ */
+public final class Workload {
+
+	// the data cells, and the two the numbers read by CIN go to
+	private static final int FIRST_CELL = 100;
+	private static final int LAST_CELL = 999;
+	private static final int A = FIRST_CELL, B = FIRST_CELL + 1;
+	private static final int MIN_MEMORY = ForthEngine.DEFAULT_MEMORY_MODULES
+			* ForthEngine.MEMORY_MODULE_SIZE;
+
+	private final String name;
+	private final String source;
+	private final String input;
+	private final int tokens;
+	private final int memorySize;
+
+	private Workload(String name, Source source, String input) {
+		this.name = name;
+		this.source = source.text.toString();
+		this.input = input;
+		this.tokens = source.tokens;
+		int size = MIN_MEMORY;
+		while (size < source.cells)
+			size <<= 1;
+		this.memorySize = size;
+	}
+
+	/**
+	 * Returns the standard corpus, one workload of each kind
+	 */
+	public static List<Workload> corpus() {
+		List<Workload> corpus = new ArrayList<Workload>();
+		corpus.add(arithmetic(8, 5));
+		corpus.add(callChain(256, 256));
+		corpus.add(memorySweep(64));
+		corpus.add(strings(64, 64));
+		corpus.add(largeSource(100000));
+		return corpus;
+	}
+
+	/**
+	 * A long arithmetic loop: FETCH / ADD / DUP / XOR / STORE on two cells,
+	 * run fanout^depth times
+	 */
+	public static Workload arithmetic(int fanout, int depth) {
+		Source s = prologue();
+		s.define("step").fetch(A).fetch(B).op("ADD").op("DUP").store(B)
+				.fetch(A).op("XOR").store(A).end();
+		loop(s, "step", fanout, depth);
+		return new Workload("arithmetic", epilogue(s), "1 2");
+	}
+
+	/**
+	 * A deep CALL chain: repeats calls of a word that calls the word below
+	 * it, depth words deep, to a word that adds two cells
+	 */
+	public static Workload callChain(int depth, int repeats) {
+		Source s = prologue();
+		s.define("c0").fetch(A).fetch(B).op("ADD").store(A).end();
+		for (int i = 1; i <= depth; i++)
+			s.define("c" + i).op("c" + (i - 1)).end();
+		for (int i = 0; i < repeats; i++)
+			s.op("c" + depth);
+		return new Workload("call-chain", epilogue(s), "1 2");
+	}
+
+	/**
+	 * A memory sweep: every data cell is filled, then passes times each cell
+	 * has the one before it added to it
+	 */
+	public static Workload memorySweep(int passes) {
+		Source s = fill(prologue());
+		s.define("sweep");
+		for (int cell = FIRST_CELL; cell < LAST_CELL; cell++)
+			s.fetch(cell).fetch(cell + 1).op("ADD").store(cell + 1);
+		s.end();
+		for (int i = 0; i < passes; i++)
+			s.op("sweep");
+		s.fetch(LAST_CELL).op("COUT");
+		return new Workload("memory-sweep", epilogue(s), "1 2");
+	}
+
+	/**
+	 * A string-heavy program: count strings printed repeats times over
+	 */
+	public static Workload strings(int count, int repeats) {
+		Source s = reserve(new Source());
+		for (int i = 0; i < count; i++)
+			s.string("line " + i + " of a string-heavy workload",
+					FIRST_CELL + i);
+		s.define("page");
+		for (int i = 0; i < count; i++)
+			s.fetch(FIRST_CELL + i).op("COUT");
+		s.end();
+		for (int i = 0; i < repeats; i++)
+			s.op("page");
+		return new Workload("strings", s.op("EXIT"), "");
+	}
+
+	/**
+	 * A straight-line program of at least the given number of tokens, with
+	 * no definitions to loop through, so every cell runs exactly once
+	 */
+	public static Workload largeSource(int tokens) {
+		Source s = fill(prologue());
+		for (int cell = FIRST_CELL; s.tokens < tokens; cell++) {
+			if (cell == LAST_CELL)
+				cell = FIRST_CELL;
+			s.fetch(cell).fetch(cell + 1).op("ADD").op("DUP").store(cell + 1)
+					.fetch(A).op("XOR").store(A);
+		}
+		return new Workload("large-source", epilogue(s), "1 2");
+	}
+
+	/**
+	 * Defines words l1 .. ldepth, each calling the one below it fanout times,
+	 * and calls the top one
+	 */
+	private static void loop(Source s, String body, int fanout, int depth) {
+		String below = body;
+		for (int level = 1; level <= depth; level++) {
+			s.define("l" + level);
+			for (int i = 0; i < fanout; i++)
+				s.op(below);
+			s.end();
+			below = "l" + level;
+		}
+		s.op(below);
+	}
+
+	private static Source reserve(Source s) {
+		s.comment("data cells " + address(FIRST_CELL) + " - "
+				+ address(LAST_CELL) + ", kept clear of the code");
+		s.define("data");
+		for (int i = 1; i <= LAST_CELL; i++)
+			s.op("NOP");
+		return s.end();
+	}
+
+	private static Source prologue() {
+		return reserve(new Source()).op("CIN").store(A).op("CIN").store(B);
+	}
+
+	/**
+	 * Copies the first data cell into every other one
+	 */
+	private static Source fill(Source s) {
+		for (int cell = B + 1; cell <= LAST_CELL; cell++)
+			s.fetch(A).store(cell);
+		return s;
+	}
+
+	private static Source epilogue(Source s) {
+		return s.fetch(A).op("COUT").fetch(B).op("COUT").op("EXIT");
+	}
+
+	private static String address(int cell) {
+		// operands are read as hex digits, then the digits as decimal
+		return String.format("%04d", cell);
+	}
+
+	/**
+	 * Source text being generated, with a count of its tokens and of the
+	 * cells it compiles to
+	 */
+	private static final class Source {
+		final StringBuilder text = new StringBuilder();
+		int tokens = 0;
+		int cells = 0;
+		private int line = 0;
+
+		private Source token(String token) {
+			if (line > 72) {
+				text.append('\n');
+				line = 0;
+			} else if (line > 0) {
+				text.append(' ');
+			}
+			text.append(token);
+			line += token.length() + 1;
+			tokens++;
+			return this;
+		}
+
+		Source op(String word) {
+			cells++;
+			return token(word);
+		}
+
+		Source fetch(int cell) {
+			return op("FETCH").token(address(cell));
+		}
+
+		Source store(int cell) {
+			return op("STORE").token(address(cell));
+		}
+
+		Source define(String name) {
+			cells++; // the JUMP over the definition
+			return token(":").token(name);
+		}
+
+		Source end() {
+			cells++; // RETURN
+			return token(";");
+		}
+
+		Source string(String s, int cell) {
+			op("S\"");
+			for (String word : s.split(" "))
+				token(word);
+			return token("\"").token(address(cell));
+		}
+
+		Source comment(String comment) {
+			token("(");
+			for (String word : comment.split(" "))
+				token(word);
+			return token(")");
+		}
+	}
+
+	/**
+	 * Returns the workload's name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the program's FORTH source
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the tokens the program's CIN reads
+	 */
+	public String getInput() {
+		return input;
+	}
+
+	/**
+	 * Returns the number of tokens in the source
+	 */
+	public int getTokenCount() {
+		return tokens;
+	}
+
+	/**
+	 * Returns the number of cells of RAM the program needs, a power of two
+	 */
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	/**
+	 * Parses the program into an engine with the RAM it needs
+	 *
+	 * @param context
+	 *            the engine's I/O streams and tracing options
+	 * @return the engine, ready to be fed getInput() and run
+	 * @throws EmptyQueueException
+	 *             never, for a generated program
+	 */
+	public ForthEngine load(EngineContext context) throws EmptyQueueException {
+		ForthEngine engine = new ForthEngine(context, new HeapMemory(
+				memorySize));
+		try {
+			ForthParser.load(engine, new StringReader(source));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // a StringReader never throws
+		}
+		return engine;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + tokens + " tokens)";
+	}
+}
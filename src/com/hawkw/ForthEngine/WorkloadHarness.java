@@ -0,0 +1,253 @@
+package com.hawkw.ForthEngine;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.hawkw.Queue.EmptyQueueException;
+
+/**
+ * WorkloadHarness.java
+ * Runs each workload of a corpus many times on an EngineExecutor, with
+ * several engines at once, and reports the instructions executed per second
+ * across all of them and the p50, p99 and p99.9 latency of a single run.
+ *
+ * Each workload is parsed once into a SharedProgram, so a run costs an
+ * engine and the program's execution, not its parsing. A number of warmup
+ * runs come first and are not counted.
+ *
+ * <pre>
+ * workload         runs  failed        instr/s    p50 us    p99 us  p99.9 us
+ * arithmetic       1000       0       41463870     26113     59307     61240
+ * </pre>
+ *
+ * @author hawk
+ * @see Workload
+ */
+public final class WorkloadHarness {
+
+	/**
+	 * The default number of measured runs of each workload
+	 */
+	public static final int DEFAULT_RUNS = 1000;
+	/**
+	 * The default number of warmup runs of each workload
+	 */
+	public static final int DEFAULT_WARMUP = 200;
+
+	private final int engines;
+	private final int runs;
+	private final int warmup;
+	private final ExecutionMode mode;
+
+	/**
+	 * The measurements of one workload
+	 */
+	public static final class Stats {
+		private final String name;
+		private final int failures;
+		private final long instructions;
+		private final long nanos;
+		private final long[] latencies;
+
+		private Stats(String name, int failures, long instructions,
+				long nanos, long[] latencies) {
+			this.name = name;
+			this.failures = failures;
+			this.instructions = instructions;
+			this.nanos = nanos;
+			this.latencies = latencies;
+			Arrays.sort(latencies);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of measured runs
+		 */
+		public int getRuns() {
+			return latencies.length;
+		}
+
+		/**
+		 * Returns the number of runs that died before their EXIT
+		 */
+		public int getFailures() {
+			return failures;
+		}
+
+		/**
+		 * Returns the number of instructions executed by all the runs
+		 */
+		public long getInstructionCount() {
+			return instructions;
+		}
+
+		/**
+		 * Returns the instructions executed per second of wall time, across
+		 * all the engines
+		 */
+		public double getThroughput() {
+			return nanos == 0 ? 0 : instructions * 1e9 / nanos;
+		}
+
+		/**
+		 * Returns a percentile of the latency of a run, by nearest rank
+		 *
+		 * @param percentile
+		 *            the percentile, from 0 to 100
+		 * @return the latency in nanoseconds
+		 */
+		public long getLatency(double percentile) {
+			if (latencies.length == 0)
+				return 0;
+			int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+			return latencies[Math.min(Math.max(rank, 1), latencies.length) - 1];
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-14s %6d %7d %14.0f %9d %9d %9d", name,
+					getRuns(), failures, getThroughput(),
+					getLatency(50) / 1000, getLatency(99) / 1000,
+					getLatency(99.9) / 1000);
+		}
+	}
+
+	/**
+	 * Creates a harness
+	 *
+	 * @param engines
+	 *            the number of engines running at once
+	 * @param runs
+	 *            the number of measured runs of each workload
+	 * @param warmup
+	 *            the number of unmeasured runs before them
+	 * @param mode
+	 *            the ExecutionMode every run uses
+	 */
+	public WorkloadHarness(int engines, int runs, int warmup,
+			ExecutionMode mode) {
+		if (runs < 1 || warmup < 0)
+			throw new IllegalArgumentException(runs + " runs, " + warmup
+					+ " warmup runs");
+		this.engines = engines;
+		this.runs = runs;
+		this.warmup = warmup;
+		this.mode = mode;
+	}
+
+	/**
+	 * Runs a workload
+	 *
+	 * @return its measurements
+	 * @throws EmptyQueueException
+	 *             if the workload cannot be parsed
+	 * @throws ExecutionException
+	 *             if a run's engine cannot be built
+	 */
+	public Stats run(Workload workload) throws EmptyQueueException,
+			InterruptedException, ExecutionException {
+		SharedProgram program = SharedProgram.of(workload.load(new EngineContext(
+				new PrintStream(OutputStream.nullOutputStream()))));
+		try (EngineExecutor executor = new EngineExecutor(engines)) {
+			await(submit(executor, program, workload, warmup));
+
+			long start = System.nanoTime();
+			List<CompletableFuture<EngineExecutor.Result>> submitted = submit(
+					executor, program, workload, runs);
+			await(submitted);
+			long nanos = System.nanoTime() - start;
+
+			int failures = 0;
+			long instructions = 0;
+			long[] latencies = new long[runs];
+			for (int i = 0; i < runs; i++) {
+				EngineExecutor.Result result = submitted.get(i).get();
+				if (!result.isCompleted())
+					failures++;
+				instructions += result.getInstructionCount();
+				latencies[i] = result.getNanos();
+			}
+			return new Stats(workload.getName(), failures, instructions,
+					nanos, latencies);
+		}
+	}
+
+	private List<CompletableFuture<EngineExecutor.Result>> submit(
+			EngineExecutor executor, SharedProgram program, Workload workload,
+			int count) {
+		List<CompletableFuture<EngineExecutor.Result>> submitted = new ArrayList<CompletableFuture<EngineExecutor.Result>>(
+				count);
+		for (int i = 0; i < count; i++)
+			submitted.add(executor.submit(program, workload.getInput(), mode));
+		return submitted;
+	}
+
+	private static void await(
+			List<CompletableFuture<EngineExecutor.Result>> submitted)
+			throws InterruptedException, ExecutionException {
+		for (CompletableFuture<EngineExecutor.Result> future : submitted)
+			future.get();
+	}
+
+	/**
+	 * Returns a table of measurements, one row per workload
+	 */
+	public static String report(List<Stats> stats) {
+		StringBuilder report = new StringBuilder(String.format(
+				"%-14s %6s %7s %14s %9s %9s %9s%n", "workload", "runs",
+				"failed", "instr/s", "p50 us", "p99 us", "p99.9 us"));
+		for (Stats s : stats)
+			report.append(s).append(System.lineSeparator());
+		return report.toString();
+	}
+
+	/**
+	 * Runs the corpus from the command line:
+	 * {@code WorkloadHarness [--reference|--threaded|--jit] [--engines=<n>]
+	 * [--runs=<n>] [--warmup=<n>] [workload names]}
+	 */
+	public static void main(String[] argv) throws Exception {
+		ExecutionMode mode = ExecutionMode.DECODED;
+		int engines = Runtime.getRuntime().availableProcessors();
+		int runs = DEFAULT_RUNS, warmup = DEFAULT_WARMUP;
+		List<String> names = new ArrayList<String>();
+		for (String s : argv) {
+			if (s.equals("--reference"))
+				mode = ExecutionMode.REFERENCE;
+			else if (s.equals("--threaded"))
+				mode = ExecutionMode.THREADED;
+			else if (s.equals("--jit"))
+				mode = ExecutionMode.COMPILED;
+			else if (s.startsWith("--engines="))
+				engines = Integer.parseInt(s.substring(10));
+			else if (s.startsWith("--runs="))
+				runs = Integer.parseInt(s.substring(7));
+			else if (s.startsWith("--warmup="))
+				warmup = Integer.parseInt(s.substring(9));
+			else
+				names.add(s);
+		}
+
+		List<Workload> corpus = new ArrayList<Workload>();
+		for (Workload workload : Workload.corpus())
+			if (names.isEmpty() || names.contains(workload.getName()))
+				corpus.add(workload);
+		System.out.println(corpus.size() + " workloads, " + engines
+				+ " engines, " + mode + ", " + runs + " runs after " + warmup
+				+ " warmup runs");
+		WorkloadHarness harness = new WorkloadHarness(engines, runs, warmup,
+				mode);
+		List<Stats> stats = new ArrayList<Stats>();
+		for (Workload workload : corpus)
+			stats.add(harness.run(workload));
+		System.out.print(report(stats));
+	}
+}
@@ -0,0 +1,80 @@
+package com.hawkw.ForthEngine.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.BatchRunner;
+import com.hawkw.ForthEngine.ExecutionMode;
+
+/**
+ * Tests for the BatchRunner
+ *
+ * @author hawk
+ */
+public class BatchRunnerTest {
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("batch");
+		Files.write(directory.resolve("a.forth"),
+				"CIN CIN ADD STORE 0010 FETCH 0010 COUT EXIT".getBytes());
+		Files.write(directory.resolve("a.in"), "3 4".getBytes());
+		Files.write(directory.resolve("b.forth"), "ADD EXIT".getBytes());
+		Files.write(directory.resolve("notes.txt"), "not a program".getBytes());
+	}
+
+	@Test
+	public void findTest() throws Exception {
+		org.junit.Assert.assertEquals(2, BatchRunner.find(directory.toString())
+				.size());
+		org.junit.Assert.assertEquals(1,
+				BatchRunner.find(directory.resolve("a*.forth").toString()).size());
+	}
+
+	@Test
+	public void outcomesTest() throws Exception {
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			List<BatchRunner.Outcome> outcomes = new BatchRunner(mode, false,
+					false, null).run(BatchRunner.find(directory.toString()));
+			org.junit.Assert.assertEquals(2, outcomes.size());
+			BatchRunner.Outcome a = outcomes.get(0);
+			org.junit.Assert.assertEquals(BatchRunner.Outcome.OK, a.getStatus());
+			org.junit.Assert.assertEquals(">  >  > 7", a.getOutput().trim());
+			org.junit.Assert.assertEquals(mode.toString(), 7,
+					a.getInstructions());
+			BatchRunner.Outcome b = outcomes.get(1);
+			org.junit.Assert.assertEquals(BatchRunner.Outcome.DIED,
+					b.getStatus());
+			// why it died is reported apart from what it printed
+			org.junit.Assert.assertNull(a.getFailure());
+			org.junit.Assert.assertNotNull(b.getFailure());
+			org.junit.Assert.assertTrue(b.toJSON().contains(
+					"\"failure\":\"" + b.getFailure()));
+			org.junit.Assert.assertFalse(a.toJSON().contains("failure"));
+			org.junit.Assert.assertTrue(BatchRunner.summary(outcomes, 1)
+					.contains("\"ok\":1,\"died\":1"));
+		}
+	}
+
+	@Test
+	public void imageCacheTest() throws Exception {
+		Path cache = directory.resolve("cache");
+		BatchRunner runner = new BatchRunner(ExecutionMode.DECODED, false,
+				false, cache);
+		List<Path> files = BatchRunner.find(directory.resolve("a.forth")
+				.toString());
+		runner.run(files);
+		Path image = cache.resolve("a.forth" + BatchRunner.IMAGE_EXTENSION);
+		org.junit.Assert.assertTrue(Files.isRegularFile(image));
+		// the second run loads the image
+		Files.write(directory.resolve("a.in"), "5 6".getBytes());
+		org.junit.Assert.assertEquals(">  >  > 11", runner.run(files).get(0)
+				.getOutput().trim());
+	}
+}
@@ -0,0 +1,81 @@
+package com.hawkw.ForthEngine.test;
+
+import java.util.EmptyStackException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.Opcodes;
+
+public class BlockCompilerTest {
+
+	private ForthEngine engine;
+
+	@Before
+	public void setUp() throws Exception {
+		engine = new ForthEngine();
+		engine.setExecutionMode(ExecutionMode.COMPILED);
+	}
+
+	private static long op(int opcode, int address) {
+		return Cell.instruction(opcode, 0, address);
+	}
+
+	@Test
+	public void hotBlockTest() {
+		engine.setCompileThreshold(2);
+		engine.write(0, op(Opcodes.FETCH, 100));
+		engine.write(1, op(Opcodes.FETCH, 101));
+		engine.write(2, op(Opcodes.SUB, 0));
+		engine.write(3, op(Opcodes.STORE, 102));
+		engine.write(4, op(Opcodes.EXIT, 0));
+		engine.write(100, Cell.number(2));
+		engine.write(101, Cell.number(7));
+		for (int i = 0; i < 2; i++)
+			engine.run();
+		org.junit.Assert.assertEquals(0, engine.getCompiledBlockCount());
+		engine.run();
+		org.junit.Assert.assertEquals(1, engine.getCompiledBlockCount());
+		org.junit.Assert.assertEquals(Cell.number(5), engine.read(102));
+	}
+
+	@Test
+	public void overwrittenBlockTest() {
+		engine.setCompileThreshold(0);
+		engine.write(0, op(Opcodes.FETCH, 100));
+		engine.write(1, op(Opcodes.STORE, 102));
+		engine.write(2, op(Opcodes.EXIT, 0));
+		engine.write(100, Cell.number(2));
+		engine.write(101, Cell.number(3));
+		engine.run();
+		org.junit.Assert.assertEquals(Cell.number(2), engine.read(102));
+		// rewriting compiled code throws the block away
+		engine.write(0, op(Opcodes.FETCH, 101));
+		engine.run();
+		org.junit.Assert.assertEquals(Cell.number(3), engine.read(102));
+		org.junit.Assert.assertEquals(2, engine.getCompiledBlockCount());
+	}
+
+	@Test
+	public void storeIntoOwnBlockTest() {
+		engine.setCompileThreshold(0);
+		engine.write(0, op(Opcodes.FETCH, 100));
+		engine.write(1, op(Opcodes.STORE, 3));
+		engine.write(2, op(Opcodes.NOP, 0));
+		// replaced with EXIT before it runs; RFETCH would fail
+		engine.write(3, op(Opcodes.RFETCH, 0));
+		engine.write(100, op(Opcodes.EXIT, 0));
+		engine.run();
+	}
+
+	@Test(expected = EmptyStackException.class)
+	public void underflowTest() {
+		engine.setCompileThreshold(0);
+		engine.write(0, op(Opcodes.ADD, 0));
+		engine.write(1, op(Opcodes.EXIT, 0));
+		engine.run();
+	}
+}
@@ -0,0 +1,47 @@
+package com.hawkw.ForthEngine.test;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.Word;
+
+public class CellTest {
+
+	@Test
+	public void numberTest() {
+		long cell = Cell.number(-42);
+		org.junit.Assert.assertTrue(Cell.isNumber(cell));
+		org.junit.Assert.assertEquals(-42, Cell.value(cell));
+		org.junit.Assert.assertTrue(Cell.number(0) != Cell.EMPTY);
+	}
+
+	@Test
+	public void instructionTest() {
+		long cell = Cell.instruction(0x0F, 0x0562, 562);
+		org.junit.Assert.assertTrue(Cell.isInstruction(cell));
+		org.junit.Assert.assertEquals(0x0F, Cell.opcode(cell));
+		org.junit.Assert.assertEquals(0x0562, Cell.rawAddress(cell));
+		org.junit.Assert.assertEquals(562, Cell.operand(cell));
+		org.junit.Assert.assertEquals(-1,
+				Cell.operand(Cell.withOperand(cell, -1)));
+		org.junit.Assert.assertEquals(0x0F,
+				Cell.opcode(Cell.withOperand(cell, -1)));
+	}
+
+	@Test
+	public void wordViewTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		Word store = Word.wordBuilder(0x01, 0x0010);
+		org.junit.Assert.assertEquals(store.getHexValue(),
+				engine.toWord(engine.toCell(store)).getHexValue());
+		Word string = Word.wordBuilder("The result is: ");
+		org.junit.Assert.assertEquals(string.toString(),
+				engine.toWord(engine.toCell(string)).toString());
+		org.junit.Assert.assertTrue(Cell.isNumber(engine.toCell(Word
+				.wordBuilder("17"))));
+		org.junit.Assert.assertTrue(Cell.isString(engine.toCell(Word
+				.wordBuilder("017"))));
+		org.junit.Assert.assertNull(engine.toWord(Cell.EMPTY));
+	}
+}
@@ -0,0 +1,149 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.UnverifiableProgramException;
+import com.hawkw.Queue.EmptyQueueException;
+
+/**
+ * Tests for colon definitions and the Dictionary
+ *
+ * @author hawk
+ */
+public class ColonDefinitionTest {
+
+	private static final String QUADRUPLE = ": double DUP ADD ;\n"
+			+ ": quadruple double double ;\n" + "CIN quadruple COUT\n"
+			+ "CIN double COUT EXIT";
+
+	@Test
+	public void callTest() throws Exception {
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ForthEngine engine = TestEngines.load(QUADRUPLE, "3 5", out, 2);
+			engine.setExecutionMode(mode);
+			engine.setCompileThreshold(0);
+			engine.run();
+			org.junit.Assert.assertEquals(mode.toString(), ">  > 12\n >  > 10",
+					out.toString().trim().replace("\r", ""));
+			org.junit.Assert.assertEquals(0, engine.getDataStack().length);
+		}
+	}
+
+	@Test
+	public void sharedCodeTest() throws Exception {
+		// a word used many times is stored once
+		StringBuilder inline = new StringBuilder("CIN ");
+		StringBuilder defined = new StringBuilder(
+				": step DUP ADD DUP DROP ; CIN ");
+		for (int i = 0; i < 10; i++) {
+			inline.append("DUP ADD DUP DROP ");
+			defined.append("step ");
+		}
+		inline.append("COUT EXIT");
+		defined.append("COUT EXIT");
+		ByteArrayOutputStream a = new ByteArrayOutputStream();
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ForthEngine expanded = TestEngines.load(inline.toString(), "1", a, 2);
+		ForthEngine called = TestEngines.load(defined.toString(), "1", b, 2);
+		org.junit.Assert.assertTrue(used(called) < used(expanded));
+		expanded.run();
+		called.run();
+		org.junit.Assert.assertEquals(a.toString(), b.toString());
+	}
+
+	private static int used(ForthEngine engine) {
+		int cells = 0;
+		while (engine.read(cells) != 0)
+			cells++;
+		return cells;
+	}
+
+	@Test
+	public void manyDefinitionsTest() throws Exception {
+		StringBuilder source = new StringBuilder();
+		// even words double the top of the stack, odd words do nothing
+		for (int i = 0; i < 4000; i++)
+			source.append(": w").append(i)
+					.append(i % 2 == 0 ? " DUP ADD ;\n" : " NOP ;\n");
+		source.append("CIN w3998 w17 w3000 w3999 COUT EXIT");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ForthEngine engine = TestEngines.load(source.toString(), "1", out, 16);
+		org.junit.Assert.assertEquals(4000, engine.getDictionary().size());
+		engine.run();
+		org.junit.Assert.assertEquals(">  > 4", out.toString().trim());
+	}
+
+	@Test
+	public void verifyTest() throws Exception {
+		ForthEngine engine = TestEngines.load(QUADRUPLE, "3 5",
+				new ByteArrayOutputStream(), 2);
+		engine.verify();
+		try {
+			TestEngines.load(": bad DROP DROP ; CIN bad EXIT", "",
+					new ByteArrayOutputStream(), 2).verify();
+			org.junit.Assert.fail("bad drops more than CIN pushed");
+		} catch (UnverifiableProgramException e) {
+			org.junit.Assert.assertTrue(e.getMessage(), e.getMessage()
+					.startsWith("DROP"));
+		}
+	}
+
+	@Test
+	public void returnStackTest() throws Exception {
+		// bad leaves 6 where RETURN expects the address ENTER pushed
+		try {
+			TestEngines.load(": bad RSTORE ; CIN bad EXIT DROP COUT EXIT", "6",
+					new ByteArrayOutputStream(), 2).verify();
+			org.junit.Assert.fail("bad returns to a data value");
+		} catch (UnverifiableProgramException e) {
+			org.junit.Assert.assertTrue(e.getMessage(), e.getMessage()
+					.startsWith("RETURN"));
+		}
+		// and peek takes the address ENTER pushed
+		try {
+			TestEngines.load(": peek RFETCH COUT ; peek EXIT", "",
+					new ByteArrayOutputStream(), 2).verify();
+			org.junit.Assert.fail("peek pops the return address");
+		} catch (UnverifiableProgramException e) {
+			org.junit.Assert.assertTrue(e.getMessage(), e.getMessage()
+					.startsWith("RFETCH"));
+		}
+
+		// a definition that puts back what it borrows runs unchecked
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ForthEngine engine = TestEngines.load(
+					": keep RSTORE RFETCH ; CIN keep COUT EXIT", "6", out, 2);
+			engine.verify();
+			engine.setExecutionMode(mode);
+			engine.setCompileThreshold(0);
+			engine.run();
+			org.junit.Assert.assertEquals(mode.toString(), ">  > 6", out
+					.toString().trim());
+		}
+	}
+
+	@Test
+	public void malformedTest() throws Exception {
+		String[] sources = { "; EXIT", ": a : b ; ;", ": ; ;" };
+		for (String source : sources) {
+			try {
+				TestEngines.load(source, "", new ByteArrayOutputStream(), 2);
+				org.junit.Assert.fail(source);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			TestEngines.load(": a DUP", "", new ByteArrayOutputStream(), 2);
+			org.junit.Assert.fail("unterminated");
+		} catch (EmptyQueueException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+
+/**
+ * Runs hundreds of engines at once, each with its own context, input,
+ * output, execution mode and number of memory modules, and checks that none
+ * of them sees another's state.
+ *
+ * @author hawk
+ */
+public class ConcurrencyStressTest {
+
+	private static final int ENGINES = 400;
+	private static final int THREADS = 16;
+	private static final ExecutionMode[] MODES = ExecutionMode.values();
+
+	/**
+	 * Runs addtwo.forth on engine i, which reads i and i + 1
+	 */
+	private static String addTwo(int i) throws Exception {
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		EngineContext context = new EngineContext(new ByteArrayInputStream(
+				(i + "\n" + (i + 1) + "\n").getBytes()), new PrintStream(
+				captured, true));
+		ForthEngine engine = new ForthEngine(context, 1 + i % 16);
+		ForthParser.load(engine, new Scanner(new File("src/addtwo.forth")));
+		engine.setExecutionMode(MODES[i % MODES.length]);
+		engine.setCompileThreshold(0);
+		engine.run();
+		org.junit.Assert.assertEquals(1 + i % 16, engine.getModuleCount());
+		return captured.toString();
+	}
+
+	@Test
+	public void isolatedEnginesTest() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < ENGINES; i++) {
+				final int n = i;
+				results.add(pool.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return addTwo(n);
+					}
+				}));
+			}
+			for (int i = 0; i < ENGINES; i++)
+				org.junit.Assert.assertEquals("engine " + i, ">  >  > "
+						+ (2 * i + 1), results.get(i).get().trim());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
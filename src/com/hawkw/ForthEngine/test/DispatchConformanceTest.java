@@ -0,0 +1,128 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.Superinstructions;
+
+/**
+ * Runs the bundled .forth programs with the REFERENCE dispatch and with each
+ * of the faster execution modes, and checks that they print exactly the same
+ * thing.
+ *
+ * @author hawk
+ */
+public class DispatchConformanceTest {
+
+	private static final String[] PROGRAMS = { "src/addtwo.forth",
+			"src/addtwo_v2.forth", "src/addthree.forth" };
+	private static final String INPUT = "3\n4\n";
+
+	/**
+	 * Loads and runs a program in the given mode, returning everything it
+	 * printed followed by the name of the exception it died with, if any.
+	 */
+	private static String runProgram(String program, ExecutionMode mode)
+			throws Exception {
+		return runProgram(program, mode, false, false);
+	}
+
+	private static String runProgram(String program, ExecutionMode mode,
+			boolean fuse, boolean verify) throws Exception {
+		return runProgram(program, mode, fuse, verify, false);
+	}
+
+	private static String runProgram(String program, ExecutionMode mode,
+			boolean fuse, boolean verify, boolean verbose) throws Exception {
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		String failure = "";
+		try {
+			ForthEngine engine = new ForthEngine(new EngineContext(
+					new ByteArrayInputStream(INPUT.getBytes()), new PrintStream(
+							captured, true), false, verbose));
+			ForthParser.load(engine, new Scanner(new File(program)));
+			if (fuse)
+				Superinstructions.fuse(engine);
+			if (verify)
+				engine.verify();
+			engine.setExecutionMode(mode);
+			engine.setCompileThreshold(0); // compile every block at once
+			engine.run();
+		} catch (RuntimeException e) {
+			failure = "died";
+		}
+		return captured.toString() + failure;
+	}
+
+	private static void assertConforms(String program, ExecutionMode mode,
+			boolean verbose) throws Exception {
+		String reference = runProgram(program, ExecutionMode.REFERENCE,
+				false, false, verbose);
+		String actual = runProgram(program, mode, false, false, verbose);
+		org.junit.Assert.assertTrue(program + " printed nothing",
+				reference.length() > 0);
+		org.junit.Assert.assertEquals(program + " in " + mode, reference,
+				actual);
+	}
+
+	@Test
+	public void bundledProgramsTest() throws Exception {
+		for (String program : PROGRAMS) {
+			assertConforms(program, ExecutionMode.DECODED, false);
+			assertConforms(program, ExecutionMode.THREADED, false);
+			assertConforms(program, ExecutionMode.COMPILED, false);
+		}
+	}
+
+	@Test
+	public void fusedProgramsTest() throws Exception {
+		ExecutionMode[] modes = { ExecutionMode.REFERENCE,
+				ExecutionMode.DECODED, ExecutionMode.THREADED,
+				ExecutionMode.COMPILED };
+		for (String program : PROGRAMS) {
+			String reference = runProgram(program, ExecutionMode.REFERENCE);
+			for (ExecutionMode mode : modes)
+				org.junit.Assert.assertEquals(program + " fused in " + mode,
+						reference, runProgram(program, mode, true, false));
+		}
+	}
+
+	@Test
+	public void verifiedProgramsTest() throws Exception {
+		// addtwo_v2 overwrites its own code, so it cannot be verified
+		String[] programs = { "src/addtwo.forth", "src/addthree.forth" };
+		ExecutionMode[] modes = { ExecutionMode.THREADED,
+				ExecutionMode.COMPILED };
+		for (String program : programs) {
+			String reference = runProgram(program, ExecutionMode.REFERENCE);
+			for (ExecutionMode mode : modes) {
+				org.junit.Assert.assertEquals(program + " verified in " + mode,
+						reference, runProgram(program, mode, false, true));
+				org.junit.Assert.assertEquals(program + " fused and verified in "
+						+ mode, reference, runProgram(program, mode, true, true));
+			}
+		}
+	}
+
+	@Test
+	public void bundledProgramsVerboseTest() throws Exception {
+		// THREADED and COMPILED code do not trace, so only DECODED is compared here
+		for (String program : PROGRAMS)
+			assertConforms(program, ExecutionMode.DECODED, true);
+	}
+
+	@Test
+	public void resultTest() throws Exception {
+		org.junit.Assert.assertTrue(runProgram("src/addtwo.forth",
+				ExecutionMode.DECODED).contains(" > 7"));
+	}
+}
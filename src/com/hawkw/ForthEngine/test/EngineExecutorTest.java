@@ -0,0 +1,63 @@
+package com.hawkw.ForthEngine.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.EngineExecutor;
+import com.hawkw.ForthEngine.ExecutionMode;
+
+/**
+ * Tests for the EngineExecutor
+ *
+ * @author hawk
+ */
+public class EngineExecutorTest {
+
+	private static final String ADD = "CIN CIN ADD EXIT";
+
+	@Test
+	public void dataStackTest() throws Exception {
+		try (EngineExecutor executor = new EngineExecutor(4)) {
+			EngineExecutor.Result result = executor.submit(ADD, "3 4").get();
+			org.junit.Assert.assertTrue(result.isCompleted());
+			org.junit.Assert.assertEquals(" >  > ", result.getOutput());
+			long[] stack = result.getDataStack();
+			org.junit.Assert.assertEquals(1, stack.length);
+			org.junit.Assert.assertEquals(7, Cell.value(stack[0]));
+		}
+	}
+
+	@Test
+	public void failureTest() throws Exception {
+		try (EngineExecutor executor = new EngineExecutor(4)) {
+			EngineExecutor.Result result = executor.submit("ADD EXIT", "")
+					.get();
+			org.junit.Assert.assertFalse(result.isCompleted());
+			org.junit.Assert.assertNotNull(result.getFailure());
+			org.junit.Assert.assertEquals(1, executor.getFailedCount());
+		}
+	}
+
+	@Test
+	public void manyProgramsTest() throws Exception {
+		final int programs = 10000;
+		try (EngineExecutor executor = new EngineExecutor(32)) {
+			List<CompletableFuture<EngineExecutor.Result>> results = new ArrayList<CompletableFuture<EngineExecutor.Result>>();
+			for (int i = 0; i < programs; i++)
+				results.add(executor.submit(ADD, i + " " + i,
+						ExecutionMode.values()[i % ExecutionMode.values().length]));
+			org.junit.Assert.assertTrue(executor.getQueueDepth()
+					+ executor.getRunningCount() <= programs);
+			for (int i = 0; i < programs; i++)
+				org.junit.Assert.assertEquals(2 * i,
+						Cell.value(results.get(i).get().getDataStack()[0]));
+			org.junit.Assert.assertEquals(programs, executor.getCompletedCount());
+			org.junit.Assert.assertEquals(0, executor.getQueueDepth());
+			org.junit.Assert.assertTrue(executor.getThroughput() > 0);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.EngineScheduler;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.RunStatus;
+import com.hawkw.ForthEngine.Workload;
+
+/**
+ * Tests for instruction budgets and the EngineScheduler
+ *
+ * @author hawk
+ */
+public class EngineSchedulerTest {
+
+	// CALL 0000 continues at cell 1, itself, for ever
+	private static final String RUNAWAY = "NOP CALL 0000";
+
+	@Test
+	public void budgetTest() throws Exception {
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ForthEngine engine = TestEngines.load(RUNAWAY, null, null);
+			engine.setExecutionMode(mode);
+			engine.setCompileThreshold(0);
+			org.junit.Assert.assertEquals(mode.toString(), RunStatus.YIELDED,
+					engine.run(100));
+			org.junit.Assert.assertTrue(engine.isYielded());
+			org.junit.Assert.assertTrue(mode.toString(),
+					engine.getInstructionCount() >= 100
+							&& engine.getInstructionCount() <= 102);
+			org.junit.Assert.assertEquals(RunStatus.YIELDED,
+					engine.resume(1000));
+			org.junit.Assert.assertTrue(mode.toString(),
+					engine.getInstructionCount() >= 1100
+							&& engine.getInstructionCount() <= 1102);
+		}
+
+		ForthEngine finished = TestEngines.load("CIN CIN ADD COUT EXIT",
+				null, null);
+		finished.feed("3 4");
+		org.junit.Assert.assertEquals(RunStatus.FINISHED, finished.run(100));
+		try {
+			finished.resume(100);
+			org.junit.Assert.fail("resumed a finished program");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void slicedRunTest() throws Exception {
+		// a program run a few instructions at a time ends up exactly where
+		// it does when run straight through
+		Workload workload = Workload.arithmetic(3, 3);
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ByteArrayOutputStream whole = new ByteArrayOutputStream();
+			ForthEngine reference = workload.load(TestEngines.context(null, whole));
+			reference.setExecutionMode(mode);
+			reference.feed(workload.getInput());
+			org.junit.Assert.assertNull(reference.run());
+
+			ByteArrayOutputStream sliced = new ByteArrayOutputStream();
+			ForthEngine engine = workload.load(TestEngines.context(null, sliced));
+			engine.setExecutionMode(mode);
+			engine.setCompileThreshold(0);
+			engine.feed(workload.getInput());
+			int slices = 1;
+			RunStatus status = engine.run(7);
+			while (status == RunStatus.YIELDED) {
+				status = engine.resume(7);
+				slices++;
+			}
+			org.junit.Assert.assertEquals(RunStatus.FINISHED, status);
+			org.junit.Assert.assertTrue(mode.toString(), slices > 10);
+			org.junit.Assert.assertEquals(mode.toString(), whole.toString(),
+					sliced.toString());
+			org.junit.Assert.assertEquals(reference.getInstructionCount(),
+					engine.getInstructionCount());
+		}
+	}
+
+	@Test
+	public void fairnessTest() throws Exception {
+		// runaway programs do not keep the others from finishing
+		List<EngineScheduler.Task> runaways = new ArrayList<EngineScheduler.Task>();
+		List<EngineScheduler.Task> tasks = new ArrayList<EngineScheduler.Task>();
+		Workload workload = Workload.arithmetic(3, 3);
+		try (EngineScheduler scheduler = new EngineScheduler(2, 1000)) {
+			for (int i = 0; i < 4; i++)
+				runaways.add(scheduler.submit(TestEngines.load(RUNAWAY, null,
+						null)));
+			for (int i = 0; i < 20; i++) {
+				ForthEngine engine = workload.load(TestEngines.context(null,
+						null));
+				engine.feed(workload.getInput());
+				tasks.add(scheduler.submit(engine));
+			}
+			for (EngineScheduler.Task task : tasks)
+				org.junit.Assert.assertTrue(task.getResult()
+						.get(60, TimeUnit.SECONDS).getInstructionCount() > 0);
+			for (EngineScheduler.Task runaway : runaways) {
+				org.junit.Assert.assertFalse(runaway.getResult().isDone());
+				org.junit.Assert.assertTrue(runaway.cancel());
+			}
+		}
+	}
+
+	@Test
+	public void priorityTest() throws Exception {
+		EngineScheduler.Task low, high;
+		long lowStart, highStart, lowEnd, highEnd;
+		try (EngineScheduler scheduler = new EngineScheduler(1, 1000)) {
+			low = scheduler.submit(TestEngines.load(RUNAWAY, null, null));
+			high = scheduler.submit(TestEngines.load(RUNAWAY, null, null), 4);
+			// low may run alone until high is submitted, so the window
+			// opens once both have had a turn
+			while (high.getTurns() < 2 || low.getTurns() < 2)
+				Thread.sleep(1);
+			lowStart = low.getInstructionCount();
+			highStart = high.getInstructionCount();
+			long turns = high.getTurns();
+			while (high.getTurns() < turns + 50)
+				Thread.sleep(1);
+			lowEnd = low.getInstructionCount();
+			highEnd = high.getInstructionCount();
+		}
+		// one worker alternates between them, four quanta to one
+		double ratio = (double) (highEnd - highStart) / (lowEnd - lowStart);
+		org.junit.Assert.assertTrue("ratio " + ratio, ratio > 3.5
+				&& ratio < 4.5);
+	}
+
+	@Test
+	public void errorTest() throws Exception {
+		// an Error in a turn fails the task instead of losing it
+		ForthEngine engine = new ForthEngine(TestEngines.context(null, null)) {
+			@Override
+			public RunStatus run(long instructionBudget) {
+				throw new StackOverflowError();
+			}
+		};
+		try (EngineScheduler scheduler = new EngineScheduler(1)) {
+			EngineScheduler.Task task = scheduler.submit(engine);
+			try {
+				task.getResult().get(60, TimeUnit.SECONDS);
+				org.junit.Assert.fail("finished");
+			} catch (ExecutionException e) {
+				org.junit.Assert.assertTrue(
+						e.getCause() instanceof StackOverflowError);
+			}
+		}
+	}
+
+	@Test
+	public void suspendTest() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (EngineScheduler scheduler = new EngineScheduler(2)) {
+			EngineScheduler.Task task = scheduler.submit(TestEngines.load(
+					"CIN CIN ADD COUT EXIT", null, out));
+			while (!task.isWaiting())
+				Thread.sleep(1);
+			task.feed("3 4");
+			task.getResult().get(60, TimeUnit.SECONDS);
+		}
+		org.junit.Assert.assertEquals(">  >  > 7", out.toString().trim());
+	}
+}
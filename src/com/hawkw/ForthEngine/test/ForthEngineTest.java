@@ -0,0 +1,36 @@
+package com.hawkw.ForthEngine.test;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthEngine.RAMLocation;
+import com.hawkw.ForthEngine.Word;
+
+public class ForthEngineTest {
+
+	@Test
+	public void moduleViewTest() throws Exception {
+		ForthEngine engine = new ForthEngine(3);
+		org.junit.Assert.assertEquals(3 * 1024, engine.getMemorySize());
+		engine.writeToRAM(Word.wordBuilder("42"), new RAMLocation(2, 5));
+		org.junit.Assert.assertEquals(Cell.number(42), engine.read(2 * 1024 + 5));
+		RAMLocation r = RAMLocation.fromAddress(2 * 1024 + 5);
+		org.junit.Assert.assertEquals(2, r.getModule());
+		org.junit.Assert.assertEquals(5, r.getIndex());
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void moduleViewBoundsTest() throws Exception {
+		new ForthEngine(2).writeToRAM(Word.wordBuilder("1"), new RAMLocation(
+				2, 0));
+	}
+
+	@Test
+	public void operandResolvedAtLoadTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		engine.fillRAM(Word.wordBuilder(0x05, 0x0111));
+		// parseHex() reads the hex digits of 0x0111 as the index 111
+		org.junit.Assert.assertEquals(111, Cell.operand(engine.read(0)));
+	}
+}
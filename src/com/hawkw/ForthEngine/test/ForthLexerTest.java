@@ -0,0 +1,43 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.ForthLexer;
+
+/**
+ * Tests for the ForthLexer
+ *
+ * @author hawk
+ */
+public class ForthLexerTest {
+
+	@Test
+	public void tokenTest() throws Exception {
+		ForthLexer lexer = new ForthLexer(new StringReader(
+				"  CIN\tCIN\n\nADD ( a comment )\r\nEXIT\n"));
+		String[] expected = { "CIN", "CIN", "ADD", "(", "a", "comment", ")",
+				"EXIT" };
+		int[] lines = { 1, 1, 3, 3, 3, 3, 3, 4 };
+		for (int i = 0; i < expected.length; i++) {
+			org.junit.Assert.assertEquals(expected[i], lexer.next());
+			org.junit.Assert.assertEquals(lines[i], lexer.getLine());
+		}
+		org.junit.Assert.assertNull(lexer.next());
+		org.junit.Assert.assertNull(lexer.next());
+	}
+
+	@Test
+	public void longTokenTest() throws Exception {
+		// a token longer than the lexer's buffer still comes out whole
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			token.append((char) ('a' + i % 26));
+		ForthLexer lexer = new ForthLexer(new StringReader("x " + token + " y"));
+		org.junit.Assert.assertEquals("x", lexer.next());
+		org.junit.Assert.assertEquals(token.toString(), lexer.next());
+		org.junit.Assert.assertEquals("y", lexer.next());
+		org.junit.Assert.assertNull(lexer.next());
+	}
+}
@@ -3,8 +3,16 @@ package com.hawkw.ForthEngine.test;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Scanner;
+
 import org.junit.Test;
 
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ForthEngine;
 import com.hawkw.ForthEngine.ForthParser;
 import com.hawkw.ForthEngine.Word;
 
@@ -36,4 +44,53 @@ public class ForthParserTest {
 		org.junit.Assert.assertTrue(Word.wordBuilder(0x0F).getHexValue(), Word.wordBuilder(0x0F).getHexValue().contains("0x0F"));
 	}
 
+	private static void assertSameRAM(ForthEngine expected, ForthEngine actual) {
+		for (int address = 0; address < expected.getMemorySize(); address++)
+			org.junit.Assert.assertEquals("cell " + address,
+					expected.read(address), actual.read(address));
+	}
+
+	@Test
+	public void streamingLoadTest() throws Exception {
+		// loading from a Reader compiles exactly what loading from a
+		// Scanner does
+		String[] programs = { "src/addtwo.forth", "src/addtwo_v2.forth",
+				"src/addthree.forth" };
+		for (String program : programs) {
+			ForthEngine scanned = new ForthEngine();
+			ForthParser.load(scanned, new Scanner(new File(program)));
+			ForthEngine streamed = new ForthEngine();
+			try (Reader source = new FileReader(program)) {
+				ForthParser.load(streamed, source);
+			}
+			assertSameRAM(scanned, streamed);
+		}
+	}
+
+	@Test
+	public void unknownWordTest() throws Exception {
+		try {
+			ForthParser.load(new ForthEngine(), new StringReader(
+					"CIN\n( fine )\nDUPE EXIT"));
+			org.junit.Assert.fail("DUPE is not a word");
+		} catch (IllegalArgumentException e) {
+			org.junit.Assert.assertTrue(e.getMessage(), e.getMessage()
+					.startsWith("line 3: unknown word \"DUPE\""));
+		}
+	}
+
+	@Test
+	public void largeSourceTest() throws Exception {
+		// a generated source far larger than the lexer's buffer
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			source.append(i % 2 == 0 ? "NOP ( padding )\n" : "NOP\n");
+		source.append("EXIT\n");
+		ForthEngine engine = new ForthEngine(16);
+		ForthParser.load(engine, new StringReader(source.toString()));
+		org.junit.Assert.assertEquals(Cell.instruction(0x10, 0, 0),
+				engine.read(10000));
+		engine.run();
+	}
+
 }
@@ -0,0 +1,158 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.LinkException;
+import com.hawkw.ForthEngine.Linker;
+import com.hawkw.ForthEngine.ObjectModule;
+
+/**
+ * Tests for ObjectModule and the Linker
+ *
+ * @author hawk
+ */
+public class LinkerTest {
+
+	private static final String LIBRARY = ": double DUP ADD ; "
+			+ "S\" hello \" 0900 : greet FETCH 0900 COUT ;";
+	private static final String PROGRAM = "S\" bye \" 0901 "
+			+ "CIN double COUT greet FETCH 0901 COUT EXIT";
+
+	private static ObjectModule module(String name, String source)
+			throws Exception {
+		return ObjectModule.compile(name, new StringReader(source));
+	}
+
+	private static void run(ForthEngine engine, ExecutionMode mode) {
+		engine.setExecutionMode(mode);
+		engine.setCompileThreshold(0);
+		engine.feed("21");
+		org.junit.Assert.assertNull(engine.run());
+	}
+
+	@Test
+	public void moduleTest() throws Exception {
+		ObjectModule library = module("library", LIBRARY);
+		org.junit.Assert.assertEquals(2, library.getExports().size());
+		org.junit.Assert.assertEquals(1, (int) library.getExports().get(
+				"double"));
+		org.junit.Assert.assertTrue(library.getImports().isEmpty());
+
+		ObjectModule program = module("program", PROGRAM);
+		org.junit.Assert.assertTrue(program.getExports().isEmpty());
+		org.junit.Assert.assertEquals(2, program.getImports().size());
+		org.junit.Assert.assertTrue(program.getImports().containsValue(
+				"double"));
+
+		// outside a module, calling an undefined word is still an error
+		try {
+			ForthParser.load(TestEngines.engine(null, null), new StringReader(
+					PROGRAM));
+			org.junit.Assert.fail("loaded a call to an undefined word");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void linkTest() throws Exception {
+		// the same program compiled in one piece
+		ByteArrayOutputStream whole = new ByteArrayOutputStream();
+		ForthEngine reference = TestEngines.engine(null, whole);
+		ForthParser.load(reference, new StringReader(LIBRARY + " " + PROGRAM));
+		run(reference, ExecutionMode.REFERENCE);
+		org.junit.Assert.assertTrue(whole.toString().contains("42"));
+		org.junit.Assert.assertTrue(whole.toString().contains("hello"));
+
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ForthEngine engine = TestEngines.engine(null, out);
+			new Linker().add(module("program", PROGRAM))
+					.add(module("library", LIBRARY)).link(engine);
+			org.junit.Assert.assertTrue(engine.getDictionary().lookup("greet") > 0);
+			run(engine, mode);
+			org.junit.Assert.assertEquals(mode.toString(), whole.toString(),
+					out.toString());
+		}
+	}
+
+	@Test
+	public void branchTest() throws Exception {
+		// IF 0004 continues at cell 5 of the library, past the DUP ADD, so it
+		// only prints 21 if the operand moves with the library
+		ObjectModule library = module("library",
+				": skip DUP IF 0004 DUP ADD COUT ;");
+		String expected = null;
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ForthEngine engine = TestEngines.engine(null, out);
+			new Linker().add(module("program", "CIN skip EXIT")).add(library)
+					.link(engine);
+			run(engine, mode);
+			if (expected == null)
+				expected = out.toString();
+			org.junit.Assert.assertEquals(mode.toString(), expected,
+					out.toString());
+		}
+		org.junit.Assert.assertTrue(expected.contains("21"));
+		org.junit.Assert.assertFalse(expected.contains("42"));
+	}
+
+	private static String linkError(String... sources) throws Exception {
+		Linker linker = new Linker();
+		for (int i = 0; i < sources.length; i++)
+			linker.add(module("m" + i, sources[i]));
+		try {
+			linker.link(TestEngines.engine(null, null));
+		} catch (LinkException e) {
+			return e.getMessage();
+		}
+		org.junit.Assert.fail("linked " + String.join(" / ", sources));
+		return null;
+	}
+
+	@Test
+	public void linkErrorTest() throws Exception {
+		org.junit.Assert.assertTrue(linkError("CIN triple COUT EXIT")
+				.contains("\"triple\""));
+		org.junit.Assert.assertTrue(linkError("EXIT : twice DUP ADD ;",
+				": twice DUP ADD ;").contains("defined by both m0 and m1"));
+		org.junit.Assert.assertTrue(linkError("S\" a \" 0900 EXIT",
+				"S\" b \" 0900").contains("(0,900)"));
+		// the first module's code ends up where the second writes
+		StringBuilder pad = new StringBuilder("EXIT : pad");
+		for (int i = 0; i < 110; i++)
+			pad.append(" NOP");
+		org.junit.Assert.assertTrue(linkError(pad + " ;", "S\" c \" 0100")
+				.contains("inside the linked code"));
+		// out of range addresses and addresses that lead nowhere
+		org.junit.Assert.assertTrue(linkError("FETCH 5000 COUT EXIT")
+				.contains("FETCH 5000"));
+		org.junit.Assert.assertTrue(linkError("FETCH 0950 COUT EXIT")
+				.contains("(0,950)"));
+		org.junit.Assert.assertTrue(linkError("CIN IF 0900 EXIT").contains(
+				"(0,901)"));
+	}
+
+	@Test
+	public void checkTest() throws Exception {
+		ForthEngine engine = TestEngines.engine(null, null);
+		ForthParser.load(engine, new StringReader(
+				"CIN STORE 0900 FETCH 0900 COUT EXIT"));
+		Linker.check(engine);
+
+		engine = TestEngines.engine(null, null);
+		ForthParser.load(engine, new StringReader("CALL 0107 EXIT"));
+		try {
+			Linker.check(engine);
+			org.junit.Assert.fail("checked a CALL into empty RAM");
+		} catch (LinkException e) {
+			org.junit.Assert.assertEquals(0, e.getAddress());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.MappedMemory;
+import com.hawkw.ForthEngine.Word;
+
+public class MappedMemoryTest {
+
+	@Test
+	public void survivesRemapTest() throws Exception {
+		Path file = File.createTempFile("forth", ".mem").toPath();
+		Files.delete(file);
+		try {
+			MappedMemory memory = MappedMemory.open(file, 3 << 20);
+			org.junit.Assert.assertEquals(4 << 20, memory.size());
+			ForthEngine engine = new ForthEngine(memory);
+			engine.write(3 << 20, Cell.number(1234));
+			engine.fillRAM(Word.wordBuilder(0x10));
+			memory.flush();
+
+			MappedMemory remapped = MappedMemory.open(file, 1);
+			org.junit.Assert.assertEquals(4 << 20, remapped.size());
+			org.junit.Assert.assertEquals(Cell.number(1234),
+					remapped.read(3 << 20));
+			org.junit.Assert.assertTrue(Cell.isInstruction(remapped.read(0)));
+			org.junit.Assert.assertEquals(Cell.EMPTY, remapped.read(1));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void maxCellsTest() throws Exception {
+		Path file = File.createTempFile("forth", ".mem").toPath();
+		Files.delete(file);
+		try {
+			MappedMemory memory = MappedMemory.open(file,
+					MappedMemory.MAX_CELLS);
+			org.junit.Assert.assertEquals(MappedMemory.MAX_CELLS,
+					memory.size());
+			int top = MappedMemory.MAX_CELLS - 1;
+			memory.write(top, Cell.number(7));
+			org.junit.Assert.assertEquals(Cell.number(7), memory.read(top));
+			org.junit.Assert.assertEquals(Cell.EMPTY, memory.read(0));
+			try {
+				memory.read(MappedMemory.MAX_CELLS << 2);
+				org.junit.Assert.fail("read past the end of memory");
+			} catch (ArrayIndexOutOfBoundsException e) {
+			}
+			memory.flush();
+			MappedMemory remapped = MappedMemory.open(file, 1);
+			org.junit.Assert.assertEquals(Cell.number(7), remapped.read(top));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void byteOrderTest() throws Exception {
+		Path file = File.createTempFile("forth", ".mem").toPath();
+		Files.delete(file);
+		try {
+			MappedMemory memory = MappedMemory.open(file, 1024);
+			memory.write(0, 0x0102030405060708L);
+			memory.flush();
+			byte[] bytes = Files.readAllBytes(file);
+			// the cell after the 16-byte header, low byte first
+			org.junit.Assert.assertEquals(0x08, bytes[16]);
+			org.junit.Assert.assertEquals(0x01, bytes[23]);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void rejectsForeignFileTest() throws Exception {
+		Path file = File.createTempFile("forth", ".mem").toPath();
+		try {
+			Files.write(file, "not a memory file".getBytes());
+			MappedMemory.open(file, 1024);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
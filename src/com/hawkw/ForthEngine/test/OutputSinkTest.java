@@ -0,0 +1,127 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.ByteArraySink;
+import com.hawkw.ForthEngine.ChannelSink;
+import com.hawkw.ForthEngine.DiscardingSink;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.StreamSink;
+
+public class OutputSinkTest {
+
+	private static final String NL = System.lineSeparator();
+	// reads 7 and prints it twice
+	private static final String ECHO = "CIN DUP COUT COUT EXIT";
+
+	@Test
+	public void numberTest() {
+		ByteArraySink sink = new ByteArraySink();
+		int[] numbers = { 0, 7, -7, 10, 1234567890, Integer.MAX_VALUE,
+				Integer.MIN_VALUE };
+		StringBuilder expected = new StringBuilder();
+		for (int number : numbers) {
+			sink.print(" > ");
+			sink.print(number);
+			sink.println();
+			expected.append(" > ").append(number).append(NL);
+		}
+		org.junit.Assert.assertEquals(expected.toString(), sink.toString());
+	}
+
+	@Test
+	public void unboundedTest() {
+		// a flushSize with no room for the line slack still holds lines
+		// until flushed, in a buffer that grows as they come
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamSink held = new StreamSink(out, Integer.MAX_VALUE,
+				Long.MAX_VALUE);
+		ByteArraySink sink = new ByteArraySink();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			held.print(i);
+			sink.print(i);
+			expected.append(i);
+		}
+		held.println();
+		sink.println();
+		expected.append(NL);
+		org.junit.Assert.assertEquals(0, out.size());
+		held.flush();
+		org.junit.Assert.assertEquals(expected.toString(), out.toString());
+		org.junit.Assert.assertEquals(expected.toString(), sink.toString());
+	}
+
+	@Test
+	public void flushTest() throws Exception {
+		// a large buffer holds every line until flushed
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamSink held = new StreamSink(out, 1 << 20, Long.MAX_VALUE);
+		held.print("held");
+		held.println();
+		org.junit.Assert.assertEquals(0, out.size());
+		held.flush();
+		org.junit.Assert.assertEquals("held" + NL, out.toString());
+
+		// a full buffer is written at the end of the line
+		out.reset();
+		StreamSink small = new StreamSink(out, 4, Long.MAX_VALUE);
+		small.print("longer than four");
+		org.junit.Assert.assertEquals(0, out.size());
+		small.println();
+		org.junit.Assert.assertEquals("longer than four" + NL, out.toString());
+
+		// so is a line held past the delay
+		out.reset();
+		StreamSink timed = new StreamSink(out, 1 << 20, 0);
+		timed.print(1);
+		timed.println();
+		org.junit.Assert.assertEquals("1" + NL, out.toString());
+
+		// and the engine flushes its sink when the program ends
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			out.reset();
+			ForthEngine engine = TestEngines.load(ECHO, "7", out);
+			engine.setOutputSink(new StreamSink(out, 1 << 20, Long.MAX_VALUE));
+			engine.setExecutionMode(mode);
+			engine.run();
+			org.junit.Assert.assertEquals(mode.toString(), " >  > 7" + NL
+					+ " > 7" + NL, out.toString());
+		}
+	}
+
+	@Test
+	public void sinkTest() throws Exception {
+		ByteArrayOutputStream unused = new ByteArrayOutputStream();
+		ForthEngine engine = TestEngines.load(ECHO, "7", unused);
+		DiscardingSink discarded = new DiscardingSink();
+		engine.setOutputSink(discarded);
+		engine.run();
+		org.junit.Assert.assertEquals(2, discarded.getLineCount());
+		org.junit.Assert.assertEquals(0, unused.size());
+
+		Path file = File.createTempFile("output", ".txt").toPath();
+		try {
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				engine = TestEngines.load(ECHO, "7", unused);
+				engine.setOutputSink(new ChannelSink(channel));
+				engine.run();
+			}
+			org.junit.Assert.assertEquals(" >  > 7" + NL + " > 7" + NL,
+					new String(Files.readAllBytes(file)));
+			org.junit.Assert.assertEquals(0, unused.size());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
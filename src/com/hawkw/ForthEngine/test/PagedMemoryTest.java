@@ -0,0 +1,101 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.PagedMemory;
+import com.hawkw.ForthEngine.Workload;
+
+/**
+ * Tests for PagedMemory
+ *
+ * @author hawk
+ */
+public class PagedMemoryTest {
+
+	@Test
+	public void sparseTest() {
+		PagedMemory memory = new PagedMemory(PagedMemory.MAX_CELLS);
+		org.junit.Assert.assertEquals(1 << 30, memory.size());
+		org.junit.Assert.assertEquals(Cell.EMPTY, memory.read(123456789));
+		org.junit.Assert.assertEquals(0, memory.getCommittedCells());
+
+		int high = (1 << 29) + 5;
+		memory.write(high, Cell.number(7));
+		org.junit.Assert.assertEquals(Cell.number(7), memory.read(high));
+		org.junit.Assert.assertEquals(Cell.EMPTY, memory.read(high + 1));
+		org.junit.Assert.assertEquals(PagedMemory.PAGE_SIZE,
+				memory.getCommittedCells());
+		org.junit.Assert.assertEquals((1 << 29) + PagedMemory.PAGE_SIZE,
+				memory.extent());
+
+		// clearing a cell of a page never written costs nothing
+		memory.write(12345, Cell.EMPTY);
+		org.junit.Assert.assertEquals(PagedMemory.PAGE_SIZE,
+				memory.getCommittedCells());
+
+		try {
+			memory.read(-1);
+			org.junit.Assert.fail("read below memory");
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+		PagedMemory small = new PagedMemory(3000);
+		org.junit.Assert.assertEquals(4096, small.size());
+		try {
+			small.write(4096, Cell.number(1));
+			org.junit.Assert.fail("wrote past the end of memory");
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void quotaTest() {
+		PagedMemory memory = new PagedMemory(1 << 20, 2000);
+		org.junit.Assert.assertEquals(2048, memory.getQuotaCells());
+		memory.write(0, Cell.number(1));
+		memory.write(500000, Cell.number(2));
+		try {
+			memory.write(900000, Cell.number(3));
+			org.junit.Assert.fail("committed a page past the quota");
+		} catch (IllegalStateException e) {
+		}
+		// the committed pages can still be written
+		memory.write(500001, Cell.number(4));
+		org.junit.Assert.assertEquals(Cell.number(4), memory.read(500001));
+		org.junit.Assert.assertEquals(2048, memory.getCommittedCells());
+	}
+
+	@Test
+	public void engineTest() throws Exception {
+		// every mode runs in a billion declared cells without allocating
+		// anything like that many
+		Workload workload = Workload.largeSource(2000);
+		String expected = null;
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			PagedMemory memory = new PagedMemory(PagedMemory.MAX_CELLS,
+					1 << 16);
+			ForthEngine engine = new ForthEngine(new EngineContext(
+					new PrintStream(out, true)), memory);
+			ForthParser.load(engine, new StringReader(workload.getSource()));
+			engine.setExecutionMode(mode);
+			engine.setCompileThreshold(0);
+			engine.feed(workload.getInput());
+			org.junit.Assert.assertNull(mode.toString(), engine.run());
+			if (expected == null)
+				expected = out.toString();
+			org.junit.Assert.assertEquals(mode.toString(), expected,
+					out.toString());
+			org.junit.Assert.assertTrue(memory.getCommittedCells() <= 1 << 16);
+		}
+		org.junit.Assert.assertFalse(expected.trim().isEmpty());
+	}
+}
@@ -0,0 +1,81 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.Opcodes;
+import com.hawkw.ForthEngine.Profiler;
+
+public class ProfilerTest {
+
+	private static final String QUADRUPLE = ": double DUP ADD ;\n"
+			+ ": quadruple double double ;\n" + "CIN quadruple COUT EXIT";
+
+	private static Profiler profile(ExecutionMode mode, int sampleInterval)
+			throws Exception {
+		ForthEngine engine = new ForthEngine(new EngineContext(
+				new ByteArrayInputStream("3".getBytes()), new PrintStream(
+						new ByteArrayOutputStream(), true)));
+		ForthParser.load(engine, new StringReader(QUADRUPLE));
+		Profiler profiler = new Profiler(sampleInterval);
+		engine.setProfiler(profiler);
+		engine.setExecutionMode(mode);
+		engine.setCompileThreshold(0);
+		engine.run();
+		org.junit.Assert.assertEquals(engine.getInstructionCount(),
+				profiler.getInstructionCount());
+		return profiler;
+	}
+
+	@Test
+	public void countTest() throws Exception {
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			Profiler profiler = profile(mode, Profiler.DEFAULT_SAMPLE_INTERVAL);
+			String name = mode.toString();
+			// the JUMPs over both definitions, CIN, ENTER, 2 x (ENTER, DUP,
+			// ADD, RETURN), RETURN, COUT, EXIT
+			org.junit.Assert.assertEquals(name, 15, profiler
+					.getInstructionCount());
+			org.junit.Assert.assertEquals(name, 3,
+					profiler.getOpcodeCount(Opcodes.ENTER));
+			org.junit.Assert.assertEquals(name, 2,
+					profiler.getOpcodeCount(Opcodes.ADD));
+			org.junit.Assert.assertEquals(name, 2,
+					profiler.getPairCount(Opcodes.DUP, Opcodes.ADD));
+			org.junit.Assert.assertEquals(name, 1,
+					profiler.getPairCount(Opcodes.RETURN, Opcodes.ENTER));
+			// the JUMP over double's body, then double's DUP
+			org.junit.Assert.assertEquals(name, 1, profiler.getAddressCount(0));
+			org.junit.Assert.assertEquals(name, 2, profiler.getAddressCount(1));
+		}
+	}
+
+	@Test
+	public void sampleTest() throws Exception {
+		Profiler profiler = profile(ExecutionMode.DECODED, 1);
+		org.junit.Assert.assertEquals(2, profiler.getSampleCount(Opcodes.ADD));
+		String folded = profiler.getFoldedStacks();
+		org.junit.Assert.assertTrue(folded,
+				folded.contains("main;quadruple;double;ADD 2\n"));
+		org.junit.Assert.assertTrue(folded, folded.contains("main;CIN 1\n"));
+		org.junit.Assert.assertTrue(folded,
+				folded.contains("main;quadruple;ENTER 2\n"));
+
+		String report = profiler.report();
+		org.junit.Assert.assertTrue(report,
+				report.startsWith("15 instructions, 15 timed"));
+		// ENTER is the most common opcode, so it heads the table
+		String[] lines = report.split("\\R");
+		org.junit.Assert.assertTrue(lines[2], lines[2].startsWith("ENTER "));
+		org.junit.Assert.assertEquals(Long.valueOf(3), profiler
+				.getOpcodeCounts().get("ENTER"));
+	}
+}
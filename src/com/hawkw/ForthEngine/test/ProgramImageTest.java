@@ -0,0 +1,103 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.ProgramImage;
+
+public class ProgramImageTest {
+
+	// what src/addthree.forth reads
+	private static final String ADD_INPUT = "3\n4\n";
+
+	@Test
+	public void roundTripTest() throws Exception {
+		Path image = File.createTempFile("addthree", ".fimg").toPath();
+		try {
+			ByteArrayOutputStream compiledOutput = new ByteArrayOutputStream();
+			ByteArrayOutputStream loadedOutput = new ByteArrayOutputStream();
+			ForthEngine compiled = TestEngines.engine(ADD_INPUT, compiledOutput);
+			ForthParser.load(compiled, new Scanner(new File(
+					"src/addthree.forth")));
+			ProgramImage.write(compiled, image);
+			org.junit.Assert.assertTrue(ProgramImage.isImage(image));
+			org.junit.Assert.assertFalse(ProgramImage.isImage(new File(
+					"src/addthree.forth").toPath()));
+
+			ForthEngine loaded = TestEngines.engine(ADD_INPUT, loadedOutput);
+			ProgramImage.load(image, loaded);
+			for (int i = 0; i < loaded.getMemorySize(); i++)
+				org.junit.Assert.assertEquals(compiled.read(i), loaded.read(i));
+			compiled.run();
+			loaded.run();
+			org.junit.Assert.assertEquals(compiledOutput.toString(),
+					loadedOutput.toString());
+		} finally {
+			Files.deleteIfExists(image);
+		}
+	}
+
+	@Test
+	public void truncatedTest() throws Exception {
+		Path image = File.createTempFile("hello", ".fimg").toPath();
+		try {
+			ForthEngine compiled = TestEngines.engine(null, null);
+			ForthParser.load(compiled, new StringReader(
+					"S\" hello \" 0900 FETCH 0900 COUT EXIT"));
+			ProgramImage.write(compiled, image);
+			byte[] whole = Files.readAllBytes(image);
+
+			// every cut past the header, and a string count or length that
+			// does not match the bytes, is an IOException
+			for (int length = 32; length < whole.length; length++)
+				assertRejected(image, Arrays.copyOf(whole, length));
+			for (int count : new int[] { -1, 2, Integer.MAX_VALUE }) {
+				byte[] bad = whole.clone();
+				ByteBuffer.wrap(bad).order(ByteOrder.LITTLE_ENDIAN)
+						.putInt(16, count);
+				assertRejected(image, bad);
+			}
+			int firstString = whole.length - 4 - "hello".length();
+			for (int length : new int[] { -1, 6, Integer.MAX_VALUE }) {
+				byte[] bad = whole.clone();
+				ByteBuffer.wrap(bad).order(ByteOrder.LITTLE_ENDIAN)
+						.putInt(firstString, length);
+				assertRejected(image, bad);
+			}
+		} finally {
+			Files.deleteIfExists(image);
+		}
+	}
+
+	private static void assertRejected(Path image, byte[] bytes)
+			throws Exception {
+		Files.write(image, bytes);
+		ForthEngine engine = TestEngines.engine(null, null);
+		try {
+			ProgramImage.load(image, engine);
+			org.junit.Assert.fail("loaded " + bytes.length + " bytes");
+		} catch (IOException e) {
+		}
+		// nothing was loaded
+		org.junit.Assert.assertEquals(Cell.EMPTY, engine.read(0));
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void rejectsSourceTest() throws Exception {
+		ProgramImage.load(new File("src/addtwo.forth").toPath(),
+				new ForthEngine());
+	}
+}
@@ -0,0 +1,106 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.EngineExecutor;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.OverlayMemory;
+import com.hawkw.ForthEngine.PagedMemory;
+import com.hawkw.ForthEngine.SharedProgram;
+
+/**
+ * Tests for SharedProgram and OverlayMemory
+ *
+ * @author hawk
+ */
+public class SharedProgramTest {
+
+	private static final String ADD_TWO = "CIN CIN ADD STORE 0010 FETCH 0010 COUT EXIT";
+	private static final int SUM = 10; // where 0010 resolves to
+
+	@Test
+	public void privateDataTest() throws Exception {
+		SharedProgram program = SharedProgram.compile(ADD_TWO);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ForthEngine first = program.newEngine(TestEngines.context("3 4", out));
+		ForthEngine second = program.newEngine(TestEngines.context("10 20", null));
+		first.run();
+		org.junit.Assert.assertEquals(">  >  > 7", out.toString().trim());
+		// the first engine's STORE is not seen by the second
+		org.junit.Assert.assertEquals(Cell.EMPTY, second.read(SUM));
+		second.run();
+		org.junit.Assert.assertEquals(Cell.number(7), first.read(SUM));
+		org.junit.Assert.assertEquals(Cell.number(30), second.read(SUM));
+		// only the page holding the sum was copied
+		org.junit.Assert.assertEquals(OverlayMemory.PAGE_SIZE,
+				((OverlayMemory) first.getMemory()).getPrivateCells());
+	}
+
+	@Test
+	public void selfModifyingTest() throws Exception {
+		// the STORE overwrites the first EXIT, so the program runs on to the
+		// second
+		SharedProgram program = SharedProgram.compile("CIN STORE 0002 EXIT EXIT");
+		ForthEngine engine = program.newEngine(TestEngines.context("5", null));
+		engine.run();
+		org.junit.Assert.assertEquals(Cell.number(5), engine.read(2));
+		org.junit.Assert.assertTrue(Cell.isInstruction(program.newEngine(
+				TestEngines.context("", null)).read(2)));
+	}
+
+	@Test
+	public void pagedTest() throws Exception {
+		// a program over a billion declared cells shares as cheaply as one
+		// over the default RAM
+		ForthEngine loader = new ForthEngine(TestEngines.context(null, null),
+				new PagedMemory(PagedMemory.MAX_CELLS));
+		ForthParser.load(loader, new StringReader(ADD_TWO));
+		SharedProgram program = SharedProgram.of(loader);
+		org.junit.Assert.assertEquals(PagedMemory.MAX_CELLS,
+				program.getMemorySize());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ForthEngine first = program.newEngine(TestEngines.context("3 4", out));
+		ForthEngine second = program.newEngine(TestEngines.context("", null));
+		first.run();
+		org.junit.Assert.assertEquals(">  >  > 7", out.toString().trim());
+		int high = PagedMemory.MAX_CELLS - 1;
+		first.write(high, Cell.number(9));
+		org.junit.Assert.assertEquals(Cell.number(9), first.read(high));
+		org.junit.Assert.assertEquals(Cell.EMPTY, second.read(high));
+		OverlayMemory overlay = (OverlayMemory) first.getMemory();
+		org.junit.Assert.assertEquals(2 * OverlayMemory.PAGE_SIZE,
+				overlay.getPrivateCells());
+		org.junit.Assert.assertEquals(PagedMemory.MAX_CELLS, overlay.extent());
+		org.junit.Assert.assertEquals(program.getCellCount(), second
+				.getMemory().extent());
+		try {
+			first.write(PagedMemory.MAX_CELLS, Cell.number(1));
+			org.junit.Assert.fail("wrote past the end of memory");
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void manyEnginesTest() throws Exception {
+		SharedProgram program = SharedProgram.compile(ADD_TWO);
+		try (EngineExecutor executor = new EngineExecutor(8)) {
+			List<CompletableFuture<EngineExecutor.Result>> results = new ArrayList<CompletableFuture<EngineExecutor.Result>>();
+			for (int i = 0; i < 1000; i++)
+				results.add(executor.submit(program, i + " 1",
+						ExecutionMode.values()[i % ExecutionMode.values().length]));
+			for (int i = 0; i < 1000; i++)
+				org.junit.Assert.assertEquals(">  >  > " + (i + 1), results
+						.get(i).get().getOutput().trim());
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.File;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.Opcodes;
+import com.hawkw.ForthEngine.StackVerifier;
+import com.hawkw.ForthEngine.Superinstructions;
+import com.hawkw.ForthEngine.UnverifiableProgramException;
+import com.hawkw.ForthEngine.Word;
+
+public class StackVerifierTest {
+
+	private static ForthEngine load(String program) throws Exception {
+		ForthEngine engine = new ForthEngine();
+		ForthParser.load(engine, new Scanner(new File(program)));
+		return engine;
+	}
+
+	private static String rejection(ForthEngine engine) {
+		try {
+			engine.verify();
+		} catch (UnverifiableProgramException e) {
+			org.junit.Assert.assertFalse(engine.isVerified());
+			return e.getMessage();
+		}
+		org.junit.Assert.fail("verified");
+		return null;
+	}
+
+	@Test
+	public void bundledProgramsTest() throws Exception {
+		ForthEngine engine = load("src/addthree.forth");
+		StackVerifier.Result result = engine.verify();
+		org.junit.Assert.assertTrue(engine.isVerified());
+		org.junit.Assert.assertEquals(2, result.getMaxDepth());
+		engine = load("src/addtwo.forth");
+		Superinstructions.fuse(engine);
+		result = engine.verify();
+		// ADD STORE at (0,2) runs with both inputs on the stack
+		org.junit.Assert.assertEquals(2, result.getMinDepth(2));
+		org.junit.Assert.assertEquals(0, result.getMinDepth(6));
+	}
+
+	@Test
+	public void selfModifyingRejectedTest() throws Exception {
+		org.junit.Assert.assertEquals(
+				"STORE at (0,1) cannot run: it overwrites the instruction at (0,10)",
+				rejection(load("src/addtwo_v2.forth")));
+	}
+
+	@Test
+	public void underflowRejectedTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		engine.fillRAM(Word.wordBuilder(Opcodes.CIN, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.ADD, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.EXIT, 0));
+		org.junit.Assert.assertEquals("ADD at (0,1) cannot run: it needs 2 "
+				+ "cell(s) on the DataStack but there may be only 1",
+				rejection(engine));
+	}
+
+	@Test
+	public void branchesTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		engine.fillRAM(Word.wordBuilder(Opcodes.CIN, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.CIN, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.IF, 0x0003));
+		engine.fillRAM(Word.wordBuilder(Opcodes.DROP, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.DROP, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.EXIT, 0));
+		// when IF branches past the first DROP, the second one underflows
+		org.junit.Assert.assertEquals("DROP at (0,4) cannot run: it needs 1 "
+				+ "cell(s) on the DataStack but there may be only 0",
+				rejection(engine));
+	}
+
+	@Test
+	public void loopWidenedTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		engine.fillRAM(Word.wordBuilder(Opcodes.CIN, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.DUP, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.DUP, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.IF, 0x0000));
+		engine.fillRAM(Word.wordBuilder(Opcodes.EXIT, 0));
+		StackVerifier.Result result = engine.verify();
+		org.junit.Assert.assertEquals(1, result.getMinDepth(1));
+		org.junit.Assert.assertEquals(StackVerifier.UNBOUNDED,
+				result.getMaxDepth(1));
+	}
+
+	@Test
+	public void emptyCellRejectedTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		engine.fillRAM(Word.wordBuilder(Opcodes.NOP, 0));
+		org.junit.Assert.assertEquals(
+				"cell at (0,1) cannot run: there is no instruction here",
+				rejection(engine));
+	}
+}
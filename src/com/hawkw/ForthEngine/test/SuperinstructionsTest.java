@@ -0,0 +1,87 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.File;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+import com.hawkw.ForthEngine.Opcodes;
+import com.hawkw.ForthEngine.Superinstructions;
+import com.hawkw.ForthEngine.Word;
+
+public class SuperinstructionsTest {
+
+	private static ForthEngine load(String program) throws Exception {
+		ForthEngine engine = new ForthEngine();
+		ForthParser.load(engine, new Scanner(new File(program)));
+		return engine;
+	}
+
+	@Test
+	public void reportTest() throws Exception {
+		Superinstructions.Report report = Superinstructions
+				.fuse(load("src/addtwo.forth"));
+		org.junit.Assert.assertEquals(2, report.getTotal());
+		org.junit.Assert.assertEquals(1,
+				report.getCount(Opcodes.ADD_STORE));
+		org.junit.Assert.assertEquals(1,
+				report.getCount(Opcodes.FETCH_COUT));
+		org.junit.Assert.assertEquals("2 fused: ADD STORE x1, FETCH COUT x1",
+				report.toString());
+	}
+
+	@Test
+	public void addressesUnchangedTest() throws Exception {
+		ForthEngine engine = load("src/addtwo_v2.forth");
+		long[] before = new long[engine.getMemorySize()];
+		for (int i = 0; i < before.length; i++)
+			before[i] = engine.read(i);
+		Superinstructions.fuse(engine);
+		// only the first cell of each sequence changes
+		org.junit.Assert.assertEquals(Opcodes.FETCH_FETCH_ADD_STORE,
+				Cell.opcode(engine.read(4)));
+		for (int i = 5; i < before.length; i++)
+			if (i != 8)
+				org.junit.Assert.assertEquals(before[i], engine.read(i));
+	}
+
+	@Test
+	public void storeTargetsNotFusedTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		engine.fillRAM(Word.wordBuilder(Opcodes.FETCH, 0x0005));
+		engine.fillRAM(Word.wordBuilder(Opcodes.COUT, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.FETCH, 0x0005));
+		engine.fillRAM(Word.wordBuilder(Opcodes.STORE, 0x0001));
+		engine.fillRAM(Word.wordBuilder(Opcodes.EXIT, 0));
+		engine.fillRAM(Word.wordBuilder("9"));
+		// COUT is overwritten by the STORE, so FETCH COUT must stay as it is
+		org.junit.Assert.assertEquals(0, Superinstructions.fuse(engine)
+				.getTotal());
+	}
+
+	@Test
+	public void litAddDupIfTest() throws Exception {
+		ForthEngine engine = new ForthEngine();
+		engine.setExecutionMode(ExecutionMode.THREADED);
+		engine.fillRAM(Word.wordBuilder(Opcodes.LIT, 0));
+		engine.fillRAM(Word.wordBuilder("4"));
+		engine.fillRAM(Word.wordBuilder(Opcodes.LIT, 0));
+		engine.fillRAM(Word.wordBuilder("5"));
+		engine.fillRAM(Word.wordBuilder(Opcodes.ADD, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.DUP, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.IF, 0x0007));
+		engine.fillRAM(Word.wordBuilder(Opcodes.EXIT, 0));
+		engine.fillRAM(Word.wordBuilder(Opcodes.STORE, 0x0020));
+		engine.fillRAM(Word.wordBuilder(Opcodes.EXIT, 0));
+		Superinstructions.Report report = Superinstructions.fuse(engine);
+		org.junit.Assert.assertEquals(1, report.getCount(Opcodes.LIT_ADD));
+		org.junit.Assert.assertEquals(1, report.getCount(Opcodes.DUP_IF));
+		engine.run();
+		// IF branches past the first EXIT, and the sum is stored at 20
+		org.junit.Assert.assertEquals(Cell.number(9), engine.read(20));
+	}
+}
@@ -0,0 +1,112 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.Suspension;
+
+public class SuspensionTest {
+
+	private static final String ADD_TWO = "CIN CIN ADD COUT EXIT";
+
+	@Test
+	public void resumeTest() throws Exception {
+		// the output is the same as when CIN blocks for its input
+		ByteArrayOutputStream blocking = new ByteArrayOutputStream();
+		ForthEngine reference = TestEngines.load(ADD_TWO, "3 4", blocking);
+		org.junit.Assert.assertNull(reference.run());
+
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ForthEngine engine = TestEngines.load(ADD_TWO, null, out);
+			engine.setExecutionMode(mode);
+			engine.setCompileThreshold(0);
+			Suspension first = engine.run();
+			org.junit.Assert.assertNotNull(mode.toString(), first);
+			org.junit.Assert.assertTrue(engine.isSuspended());
+			org.junit.Assert.assertEquals(0, first.getProgramCounter());
+			org.junit.Assert.assertEquals(0, first.getDataStack().length);
+
+			Suspension second = first.resume("3");
+			org.junit.Assert.assertNotNull(mode.toString(), second);
+			org.junit.Assert.assertEquals(1, second.getProgramCounter());
+			org.junit.Assert.assertArrayEquals(new long[] { Cell.number(3) },
+					second.getDataStack());
+			org.junit.Assert.assertEquals(1, engine.getInstructionCount());
+
+			org.junit.Assert.assertNull(second.resume("4"));
+			org.junit.Assert.assertFalse(engine.isSuspended());
+			org.junit.Assert.assertEquals(mode.toString(),
+					blocking.toString(), out.toString());
+			org.junit.Assert.assertEquals(5, engine.getInstructionCount());
+			try {
+				second.resume("5");
+				org.junit.Assert.fail("the program has already ended");
+			} catch (IllegalStateException e) {
+			}
+		}
+	}
+
+	@Test
+	public void staleTest() throws Exception {
+		// an old Suspension cannot continue from the engine's new CIN, and
+		// feeds nothing when it refuses
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ForthEngine engine = TestEngines.load(ADD_TWO, null, out);
+		Suspension first = engine.run();
+		Suspension second = first.resume("3");
+		try {
+			first.resume("4");
+			org.junit.Assert.fail("resumed from a CIN the engine has passed");
+		} catch (IllegalStateException e) {
+		}
+		org.junit.Assert.assertNull(second.resume("4"));
+		org.junit.Assert.assertEquals(">  >  > 7", out.toString().trim());
+
+		// running again also leaves older Suspensions behind
+		Suspension before = engine.run();
+		engine.run();
+		try {
+			before.resume("1");
+			org.junit.Assert.fail("resumed from a previous run");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void fedInputTest() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ForthEngine engine = TestEngines.load(ADD_TWO, null, out);
+		engine.feed(" 3\n4 ");
+		org.junit.Assert.assertNull(engine.run());
+		org.junit.Assert.assertEquals(">  >  > 7", out.toString().trim());
+	}
+
+	@Test
+	public void multiplexTest() throws Exception {
+		// one thread takes turns feeding a token to each of many engines
+		int count = 200;
+		ByteArrayOutputStream[] outs = new ByteArrayOutputStream[count];
+		Suspension[] waiting = new Suspension[count];
+		for (int i = 0; i < count; i++) {
+			outs[i] = new ByteArrayOutputStream();
+			ForthEngine engine = TestEngines.load(ADD_TWO, null, outs[i]);
+			engine.setExecutionMode(ExecutionMode.values()[i
+					% ExecutionMode.values().length]);
+			waiting[i] = engine.run();
+		}
+		for (int round = 0; round < 2; round++)
+			for (int i = 0; i < count; i++)
+				waiting[i] = waiting[i].resume(Integer.toString(round == 0 ? i
+						: i + 1));
+		for (int i = 0; i < count; i++) {
+			org.junit.Assert.assertNull(waiting[i]);
+			org.junit.Assert.assertEquals(">  >  > " + (2 * i + 1), outs[i]
+					.toString().trim());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.ForthParser;
+
+/**
+ * The engines the tests run programs on: each reads the given input and
+ * prints to the given stream.
+ *
+ * @author hawk
+ */
+final class TestEngines {
+
+	private TestEngines() {
+	}
+
+	/**
+	 * Creates a context for a test engine
+	 *
+	 * @param input
+	 *            the tokens CIN reads, or null for a context with no input,
+	 *            where a CIN that has not been fed suspends the program
+	 * @param out
+	 *            where the program prints, or null to discard it
+	 */
+	static EngineContext context(String input, OutputStream out) {
+		PrintStream printed = new PrintStream(
+				out == null ? OutputStream.nullOutputStream() : out, true);
+		if (input == null)
+			return new EngineContext(printed);
+		return new EngineContext(new ByteArrayInputStream(input.getBytes()),
+				printed);
+	}
+
+	/**
+	 * Creates an engine with nothing loaded
+	 *
+	 * @see #context(String, OutputStream)
+	 */
+	static ForthEngine engine(String input, OutputStream out) throws Exception {
+		return new ForthEngine(context(input, out));
+	}
+
+	/**
+	 * Creates an engine and loads a program's source into it
+	 *
+	 * @see #context(String, OutputStream)
+	 */
+	static ForthEngine load(String source, String input, OutputStream out)
+			throws Exception {
+		return load(engine(input, out), source);
+	}
+
+	/**
+	 * Creates an engine with the given number of memory modules and loads a
+	 * program's source into it
+	 *
+	 * @see #context(String, OutputStream)
+	 */
+	static ForthEngine load(String source, String input, OutputStream out,
+			int modules) throws Exception {
+		return load(new ForthEngine(context(input, out), modules), source);
+	}
+
+	private static ForthEngine load(ForthEngine engine, String source)
+			throws Exception {
+		ForthParser.load(engine, new StringReader(source));
+		return engine;
+	}
+}
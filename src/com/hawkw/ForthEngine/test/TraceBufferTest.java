@@ -0,0 +1,87 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.Opcodes;
+import com.hawkw.ForthEngine.TraceBuffer;
+import com.hawkw.ForthEngine.TraceDecoder;
+
+public class TraceBufferTest {
+
+	@Test
+	public void roundTripTest() throws Exception {
+		Path file = File.createTempFile("run", ".trace").toPath();
+		try {
+			for (ExecutionMode mode : new ExecutionMode[] {
+					ExecutionMode.REFERENCE, ExecutionMode.DECODED,
+					ExecutionMode.THREADED }) {
+				ForthEngine engine = TestEngines.load("CIN CIN ADD COUT EXIT",
+						"3 4", null);
+				TraceBuffer trace = new TraceBuffer(16);
+				engine.setTraceBuffer(trace);
+				engine.setExecutionMode(mode);
+				engine.run();
+				trace.write(file);
+
+				List<TraceDecoder.Record> records = TraceDecoder.read(file);
+				org.junit.Assert.assertEquals(5, records.size());
+				TraceDecoder.Record add = records.get(2);
+				org.junit.Assert.assertEquals(2, add.getStep());
+				org.junit.Assert.assertEquals(2, add.getAddress());
+				org.junit.Assert.assertEquals(Opcodes.ADD, add.getOpcode());
+				org.junit.Assert.assertEquals(2, add.getDepth());
+				org.junit.Assert.assertEquals(Cell.number(4), add.getTop());
+				org.junit.Assert.assertEquals(mode.toString(),
+						"#3 (0,3) COUT operand=0 depth=1 top=7", records.get(3)
+								.toString());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void ringTest() throws Exception {
+		// a loop that reads until its input runs out keeps only the newest
+		// records
+		Path file = File.createTempFile("ring", ".trace").toPath();
+		try {
+			ForthEngine engine = TestEngines.load(
+					"NOP CIN DUP COUT CALL 0000", "1 2 3", null);
+			TraceBuffer trace = new TraceBuffer(6);
+			org.junit.Assert.assertEquals(8, trace.getCapacity());
+			trace.dumpOnFailure(file);
+			engine.setTraceBuffer(trace);
+			try {
+				engine.run();
+				org.junit.Assert.fail("CIN should run out of input");
+			} catch (RuntimeException e) {
+			}
+			List<TraceDecoder.Record> records = TraceDecoder.read(file);
+			org.junit.Assert.assertEquals(8, records.size());
+			TraceDecoder.Record last = records.get(records.size() - 1);
+			org.junit.Assert.assertEquals(Opcodes.CIN, last.getOpcode());
+			org.junit.Assert.assertEquals(trace.getRecordCount() - 1,
+					last.getStep());
+			for (int i = 1; i < records.size(); i++)
+				org.junit.Assert.assertEquals(records.get(i - 1).getStep() + 1,
+						records.get(i).getStep());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsForeignFileTest() throws Exception {
+		TraceDecoder.read(new File("src/addtwo.forth").toPath());
+	}
+}
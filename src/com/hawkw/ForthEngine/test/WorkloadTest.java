@@ -0,0 +1,78 @@
+package com.hawkw.ForthEngine.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.hawkw.ForthEngine.Cell;
+import com.hawkw.ForthEngine.EngineContext;
+import com.hawkw.ForthEngine.ExecutionMode;
+import com.hawkw.ForthEngine.ForthEngine;
+import com.hawkw.ForthEngine.Workload;
+import com.hawkw.ForthEngine.WorkloadHarness;
+
+public class WorkloadTest {
+
+	/**
+	 * Runs a workload to its EXIT and returns what it printed
+	 */
+	private static String run(Workload workload, ExecutionMode mode)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ForthEngine engine = workload.load(new EngineContext(new PrintStream(
+				out, true)));
+		engine.setExecutionMode(mode);
+		engine.setCompileThreshold(0);
+		engine.feed(workload.getInput());
+		org.junit.Assert.assertNull(workload.getName(), engine.run());
+		return out.toString();
+	}
+
+	@Test
+	public void modesAgreeTest() throws Exception {
+		// small versions of each kind of workload
+		List<Workload> workloads = Arrays.asList(Workload.arithmetic(3, 3),
+				Workload.callChain(20, 5), Workload.memorySweep(2),
+				Workload.strings(4, 3), Workload.largeSource(2000));
+		for (Workload workload : workloads) {
+			String expected = run(workload, ExecutionMode.REFERENCE);
+			org.junit.Assert.assertFalse(workload.getName(), expected.trim()
+					.isEmpty());
+			for (ExecutionMode mode : ExecutionMode.values())
+				org.junit.Assert.assertEquals(workload.getName() + " " + mode,
+						expected, run(workload, mode));
+		}
+		org.junit.Assert.assertTrue(run(Workload.strings(4, 3),
+				ExecutionMode.DECODED).contains("line 3 of a string-heavy workload"));
+	}
+
+	@Test
+	public void largeSourceTest() throws Exception {
+		Workload workload = Workload.largeSource(100000);
+		org.junit.Assert.assertTrue(workload.getTokenCount() >= 100000);
+		ForthEngine engine = workload.load(new EngineContext(new PrintStream(
+				new ByteArrayOutputStream())));
+		org.junit.Assert.assertEquals(workload.getMemorySize(),
+				engine.getMemorySize());
+		org.junit.Assert.assertTrue(engine.read(50000) != Cell.EMPTY);
+	}
+
+	@Test
+	public void harnessTest() throws Exception {
+		WorkloadHarness harness = new WorkloadHarness(2, 20, 5,
+				ExecutionMode.DECODED);
+		WorkloadHarness.Stats stats = harness.run(Workload.arithmetic(2, 3));
+		org.junit.Assert.assertEquals(20, stats.getRuns());
+		org.junit.Assert.assertEquals(0, stats.getFailures());
+		org.junit.Assert.assertEquals(0, stats.getInstructionCount() % 20);
+		org.junit.Assert.assertTrue(stats.getThroughput() > 0);
+		org.junit.Assert.assertTrue(stats.getLatency(50) > 0);
+		org.junit.Assert.assertTrue(stats.getLatency(50) <= stats
+				.getLatency(99));
+		org.junit.Assert.assertTrue(stats.getLatency(99) <= stats
+				.getLatency(99.9));
+	}
+}
@@ -1,6 +1,11 @@
 package com.hawkw.Stack;
 
-public class FullStackException extends Exception {
+/**
+ * Thrown when pushing onto a stack that is full. Unchecked, like
+ * java.util.EmptyStackException, so that primitive stacks can be used on an
+ * interpreter's hot path without every operation declaring it.
+ */
+public class FullStackException extends RuntimeException {
 
 	/**
 	 * 
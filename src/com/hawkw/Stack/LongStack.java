@@ -0,0 +1,245 @@
+package com.hawkw.Stack;
+/**
+ * LongStack.java
+ * An array based stack specialized for primitive longs, so that pushing and
+ * popping never allocates. Besides the usual stack operations it supports
+ * the bulk operations a Forth machine needs (pick, roll, dupN and dropN),
+ * all of which work in place on the array.
+ *
+ * @author Hawk Weisman
+ * @see ArrayStack
+ * @see OverflowPolicy
+ * @see FullStackException
+ */
+import java.util.EmptyStackException;
+
+public class LongStack {
+
+	public static final int DEFAULT_CAPACITY = 64;	// default capacity
+	// the largest array the JVM reliably allocates
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+	protected long stack[];							// array that contains the stack elements
+	protected int size = 0;							// number of elements in the stack
+	protected final OverflowPolicy policy;			// what to do when the array is full
+
+	/**
+	 * 0-param constructor: creates a growable stack with the default capacity
+	 */
+	public LongStack () {
+		this(DEFAULT_CAPACITY, OverflowPolicy.GROW);
+	}
+
+	/**
+	 * 2-param constructor
+	 * @param capacity the initial capacity of the stack
+	 * @param policy what to do when pushing onto a full stack
+	 */
+	public LongStack (int capacity, OverflowPolicy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive");
+		this.stack = new long[capacity];
+		this.policy = policy;
+	}
+
+	/**
+	 * Returns the number of elements in the stack
+	 * @return the number of elements in the stack
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Returns the number of elements the stack can hold before it overflows
+	 * @return the current capacity of the stack
+	 */
+	public int capacity () {
+		return stack.length;
+	}
+
+	/**
+	 * Returns the overflow policy of the stack
+	 * @return the overflow policy of the stack
+	 */
+	public OverflowPolicy getPolicy () {
+		return policy;
+	}
+
+	/**
+	 * Tests for emptiness
+	 * @return true if the stack is empty, false otherwise
+	 */
+	public boolean empty () {
+		return size == 0;
+	}
+
+	/**
+	 * Pushes an element to the stack.
+	 * @param element the element to be pushed
+	 * @throws FullStackException if the stack is full and does not grow
+	 */
+	public void push (long element) throws FullStackException {
+		if (size == stack.length)
+			overflow(1);
+		stack[size++] = element;
+	}
+
+	/**
+	 * Peeks at (returns) the top element of the stack
+	 * without removing it.
+	 * @return the top element in the stack
+	 * @throws EmptyStackException if the stack is empty
+	 */
+	public long peek () throws EmptyStackException {
+		if (size == 0)
+			throw new EmptyStackException();
+		return stack[size - 1];
+	}
+
+	/**
+	 * Returns and removes the top element of the stack.
+	 * @return the top element in the stack
+	 * @throws EmptyStackException if the stack is empty
+	 */
+	public long pop () throws EmptyStackException {
+		if (size == 0)
+			throw new EmptyStackException();
+		return stack[--size];
+	}
+
+	/**
+	 * Peeks at the top element without checking for an empty stack. Only for
+	 * callers that have proven the stack is not empty, such as an engine
+	 * running a verified program.
+	 * @return the top element in the stack
+	 */
+	public long peekUnchecked () {
+		return stack[size - 1];
+	}
+
+	/**
+	 * Returns and removes the top element without checking for an empty
+	 * stack. Only for callers that have proven the stack is not empty; on an
+	 * empty stack the result is undefined.
+	 * @return the top element in the stack
+	 */
+	public long popUnchecked () {
+		return stack[--size];
+	}
+
+	/**
+	 * Swaps the top two elements of the stack.
+	 * @throws EmptyStackException if the stack is empty or contains one element
+	 */
+	public void swap () throws EmptyStackException {
+		if (size < 2)
+			throw new EmptyStackException();
+		long temp = stack[size - 1];
+		stack[size - 1] = stack[size - 2];
+		stack[size - 2] = temp;
+	}
+
+	/**
+	 * Returns the element at the given depth without removing it.
+	 * @param depth the depth of the element, where 0 is the top of the stack
+	 * @return the element at that depth
+	 * @throws EmptyStackException if the stack holds depth elements or fewer
+	 */
+	public long get (int depth) throws EmptyStackException {
+		if (depth < 0 || depth >= size)
+			throw new EmptyStackException();
+		return stack[size - 1 - depth];
+	}
+
+	/**
+	 * Pushes a copy of the element at the given depth (Forth's PICK), so
+	 * pick(0) is DUP and pick(1) is OVER.
+	 * @param depth the depth of the element to copy, where 0 is the top
+	 * @throws EmptyStackException if the stack holds depth elements or fewer
+	 * @throws FullStackException if the stack is full and does not grow
+	 */
+	public void pick (int depth) throws EmptyStackException, FullStackException {
+		push(get(depth));
+	}
+
+	/**
+	 * Moves the element at the given depth to the top of the stack (Forth's
+	 * ROLL), so roll(1) is SWAP and roll(2) is ROT.
+	 * @param depth the depth of the element to move, where 0 is the top
+	 * @throws EmptyStackException if the stack holds depth elements or fewer
+	 */
+	public void roll (int depth) throws EmptyStackException {
+		if (depth < 0 || depth >= size)
+			throw new EmptyStackException();
+		int from = size - 1 - depth;
+		long temp = stack[from];
+		System.arraycopy(stack, from + 1, stack, from, depth);
+		stack[size - 1] = temp;
+	}
+
+	/**
+	 * Duplicates the top n elements of the stack, keeping their order, so
+	 * dupN(1) is DUP and dupN(2) is 2DUP.
+	 * @param n the number of elements to duplicate
+	 * @throws EmptyStackException if the stack holds fewer than n elements
+	 * @throws FullStackException if the stack is full and does not grow
+	 */
+	public void dupN (int n) throws EmptyStackException, FullStackException {
+		if (n < 0 || n > size)
+			throw new EmptyStackException();
+		if (size + n > stack.length)
+			overflow(n);
+		System.arraycopy(stack, size - n, stack, size, n);
+		size += n;
+	}
+
+	/**
+	 * Removes the top n elements of the stack.
+	 * @param n the number of elements to remove
+	 * @throws EmptyStackException if the stack holds fewer than n elements
+	 */
+	public void dropN (int n) throws EmptyStackException {
+		if (n < 0 || n > size)
+			throw new EmptyStackException();
+		size -= n;
+	}
+
+	/**
+	 * Removes every element from the stack.
+	 */
+	public void clear () {
+		size = 0;
+	}
+
+	/**
+	 * Makes room for n more elements according to the overflow policy. A
+	 * growable stack doubles, up to MAX_CAPACITY elements.
+	 */
+	private void overflow (int n) throws FullStackException {
+		if (policy == OverflowPolicy.THROW)
+			throw new FullStackException("Cannot push, the stack is full");
+		long needed = (long) size + n;
+		if (needed > MAX_CAPACITY)
+			throw new FullStackException("Cannot push, the stack cannot grow past "
+					+ MAX_CAPACITY + " elements");
+		int capacity = (int) Math.min(MAX_CAPACITY,
+				Math.max(needed, (long) stack.length * 2));
+		long[] grown = new long[capacity];
+		System.arraycopy(stack, 0, grown, 0, size);
+		stack = grown;
+	}
+
+	/**
+	 * returns a String representing the state of this Stack, top first
+	 * @return a String representing the state of this stack
+	 */
+	public String toString () {
+		StringBuilder returnString = new StringBuilder("[ ");
+		for (int i = size - 1; i >= 0; i--) {
+			returnString.append(stack[i]);
+			if (i > 0)
+				returnString.append(", ");
+		}
+		return returnString.append(" ]").toString();
+	}
+}
@@ -0,0 +1,21 @@
+package com.hawkw.Stack;
+
+/**
+ * OverflowPolicy.java
+ * What a fixed-capacity primitive stack does when an element is pushed onto
+ * it while it is full.
+ *
+ * @author Hawk Weisman
+ * @see LongStack
+ */
+public enum OverflowPolicy {
+	/**
+	 * Refuse the push and throw a FullStackException.
+	 */
+	THROW,
+
+	/**
+	 * Double the capacity of the stack and carry on.
+	 */
+	GROW
+}
@@ -0,0 +1,90 @@
+package com.hawkw.Stack.test;
+
+import java.util.EmptyStackException;
+
+import org.junit.Test;
+
+import com.hawkw.Stack.FullStackException;
+import com.hawkw.Stack.LongStack;
+import com.hawkw.Stack.OverflowPolicy;
+
+public class LongStackTest {
+
+	private static LongStack stackOf(long... elements) {
+		LongStack stack = new LongStack(2, OverflowPolicy.GROW);
+		for (long e : elements)
+			stack.push(e);
+		return stack;
+	}
+
+	@Test
+	public void pushPopTest() {
+		LongStack stack = stackOf(1, 2, 3);
+		org.junit.Assert.assertEquals(3, stack.size());
+		org.junit.Assert.assertEquals(3, stack.peek());
+		org.junit.Assert.assertEquals(3, stack.pop());
+		org.junit.Assert.assertEquals(2, stack.pop());
+		org.junit.Assert.assertEquals(1, stack.pop());
+		org.junit.Assert.assertTrue(stack.empty());
+	}
+
+	@Test(expected = EmptyStackException.class)
+	public void underflowTest() {
+		new LongStack().pop();
+	}
+
+	@Test(expected = FullStackException.class)
+	public void overflowThrowTest() {
+		LongStack stack = new LongStack(2, OverflowPolicy.THROW);
+		stack.push(1);
+		stack.push(2);
+		stack.push(3);
+	}
+
+	@Test
+	public void overflowGrowTest() {
+		LongStack stack = stackOf(1, 2, 3, 4, 5);
+		org.junit.Assert.assertTrue(stack.capacity() >= 5);
+		org.junit.Assert.assertEquals("[ 5, 4, 3, 2, 1 ]", stack.toString());
+	}
+
+	@Test
+	public void swapTest() {
+		LongStack stack = stackOf(1, 2);
+		stack.swap();
+		org.junit.Assert.assertEquals("[ 1, 2 ]", stack.toString());
+	}
+
+	@Test
+	public void pickTest() {
+		LongStack stack = stackOf(1, 2, 3);
+		stack.pick(2);
+		org.junit.Assert.assertEquals("[ 1, 3, 2, 1 ]", stack.toString());
+	}
+
+	@Test
+	public void rollTest() {
+		LongStack stack = stackOf(1, 2, 3, 4);
+		stack.roll(2);
+		org.junit.Assert.assertEquals("[ 2, 4, 3, 1 ]", stack.toString());
+		stack.roll(0);
+		org.junit.Assert.assertEquals("[ 2, 4, 3, 1 ]", stack.toString());
+	}
+
+	@Test
+	public void dupDropTest() {
+		LongStack stack = stackOf(1, 2, 3);
+		stack.dupN(2);
+		org.junit.Assert.assertEquals("[ 3, 2, 3, 2, 1 ]", stack.toString());
+		stack.dropN(4);
+		org.junit.Assert.assertEquals("[ 1 ]", stack.toString());
+	}
+
+	@Test(expected = FullStackException.class)
+	public void dupOverflowTest() {
+		LongStack stack = new LongStack(3, OverflowPolicy.THROW);
+		stack.push(1);
+		stack.push(2);
+		stack.dupN(2);
+	}
+}